@@ -22,7 +22,35 @@ import javax.swing.tree.TreeNode;
  * @author Maarten Hazewinkel
  */
 public abstract class PList {
+    private PListAggregate parent;
+
     public abstract PListDataType getType();
 
     public abstract String getAsString();
+
+    /**
+     * Returns a 64 bit hash of the type and contents. Equal values have the same hash, and a change anywhere
+     * in an aggregate changes its hash, except in the rare case of a collision.
+     */
+    public abstract long contentHash();
+
+    /**
+     * Returns the aggregate that contains this value, or null if it has not been added to one.
+     */
+    public PListAggregate getParent() {
+        return parent;
+    }
+
+    void setParent(PListAggregate parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Must be called after this value has been modified, so the aggregates that contain it know they changed.
+     */
+    protected void changed() {
+        if (parent != null) {
+            parent.childChanged(this);
+        }
+    }
 }
@@ -16,27 +16,296 @@
 
 package com.mac.hazewinkel.plist.datamodel;
 
+import java.util.IdentityHashMap;
 import java.util.List;
 
 /**
+ * Array, dictionary or document root, with access to its children by position and by identity.
+ *
  * @author Maarten Hazewinkel
  */
 public abstract class PListAggregate extends PList {
+    private static final int POSITION_INDEX_THRESHOLD = 32;
+
+    private int sourceStart = -1;
+    private int sourceEnd = -1;
+
+    /** Child positions by identity, found again from positionsValid on after an insert or removal */
+    private IdentityHashMap<PList, Integer> positions;
+    private int positionsValid;
+
+    /** The current snapshot, or null until one is asked for. Kept up to date from then on */
+    private PListSnapshot state;
+    private boolean snapshotSuspended;
+
+    private long contentHash;
+    private boolean contentHashValid;
+
     public abstract void append(PListEntry item);
     public abstract List<PListEntry> elements();
 
+    public abstract int size();
+
+    public abstract PList getValue(int index);
+
+    /**
+     * Returns the key of a dictionary entry, or the "Item N" name of an array element.
+     */
+    public abstract String getKey(int index);
+
     @Override
     public String getAsString() {
-        int count = elements().size();
+        int count = size();
         String multipleExtension = (count == 1) ? "" : "s";
         return "(" + count + " item" + multipleExtension + ")";
     }
 
-    public abstract void replaceEntry(PList oldData, PList newData);
+    @Override
+    public long contentHash() {
+        if (!contentHashValid) {
+            contentHash = computeContentHash();
+            contentHashValid = true;
+        }
+        return contentHash;
+    }
+
+    /**
+     * Returns the content hash of the child at the index.
+     */
+    public long childContentHash(int index) {
+        return getValue(index).contentHash();
+    }
+
+    /**
+     * Computes the hash of the type, the keys and the content hashes of the children.
+     */
+    protected abstract long computeContentHash();
+
+    /**
+     * The int hash for hashCode(), taken from the content hash.
+     */
+    protected int contentHashCode() {
+        long hash = contentHash();
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    public abstract void set(int index, PList newValue);
+
+    public abstract void insert(int index, PList newValue);
+
+    public abstract void remove(int index);
+
+    /**
+     * Returns the position of the child, compared by identity, or -1 if it is not a child of this aggregate.
+     * Large aggregates keep the positions found in a map, which is checked against the child at the position.
+     */
+    public int indexOf(PList child) {
+        int size = size();
+        if (size <= POSITION_INDEX_THRESHOLD) {
+            positions = null;
+            for (int i = 0; i < size; i++) {
+                if (getValue(i) == child) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        if (positions == null) {
+            positions = new IdentityHashMap<PList, Integer>(size);
+            positionsValid = 0;
+        }
+        Integer position = positions.get(child);
+        if (position != null) {
+            if (position < positionsValid && getValue(position) == child) {
+                return position;
+            }
+            // the child moved after an insert or removal before it
+            positions.remove(child);
+        }
+        while (positionsValid < size) {
+            PList value = getValue(positionsValid);
+            positions.put(value, positionsValid);
+            positionsValid += 1;
+            if (value == child) {
+                return positionsValid - 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns an immutable version of this aggregate and everything in it, which later edits do not affect.
+     */
+    public PListSnapshot snapshot() {
+        return getState();
+    }
+
+    PListSnapshot getState() {
+        if (state == null) {
+            state = PListSnapshot.of(this);
+        }
+        return state;
+    }
+
+    /**
+     * Returns the snapshot of the child at the index, for building or updating the snapshot of this aggregate.
+     */
+    protected PListSnapshot snapshotOf(int index) {
+        PList value = getValue(index);
+        if (value instanceof PListAggregate) {
+            return ((PListAggregate) value).getState();
+        }
+        return PListSnapshot.of((PListPrimitive) value);
+    }
+
+    public void replaceEntry(PList oldData, PList newData) {
+        int index = indexOf(oldData);
+        if (index >= 0) {
+            set(index, newData);
+        }
+    }
 
-    public abstract void deleteEntry(PList oldData);
+    public void deleteEntry(PList oldData) {
+        int index = indexOf(oldData);
+        if (index >= 0) {
+            remove(index);
+        }
+    }
 
-    public abstract void insertFirstChild(PList newValue);
+    public void insertFirstChild(PList newValue) {
+        insert(0, newValue);
+    }
 
-    public abstract void insertAfterChild(PList newValue, PList child);
+    public void insertAfterChild(PList newValue, PList child) {
+        int index = indexOf(child);
+        if (index >= 0) {
+            insert(index + 1, newValue);
+        }
+    }
+
+    /**
+     * Updates the child positions after set(index, newValue).
+     */
+    protected void positionReplaced(int index, PList oldValue, PList newValue) {
+        if (positions != null) {
+            positions.remove(oldValue);
+            if (index < positionsValid) {
+                positions.put(newValue, index);
+            }
+        }
+        if (isTracking()) {
+            state = state.withValue(index, snapshotOf(index));
+        }
+    }
+
+    /**
+     * Updates the child positions after insert(index, newValue).
+     */
+    protected void positionInserted(int index) {
+        positionsValid = Math.min(positionsValid, index);
+        if (isTracking()) {
+            state = state.withInserted(index, getKey(index), snapshotOf(index));
+        }
+    }
+
+    /**
+     * Updates the child positions after remove(index).
+     */
+    protected void positionRemoved(int index, PList oldValue) {
+        if (positions != null) {
+            positions.remove(oldValue);
+        }
+        positionsValid = Math.min(positionsValid, index);
+        if (isTracking()) {
+            state = state.withRemoved(index);
+        }
+    }
+
+    /**
+     * Updates the snapshot after the key of the entry at the index changed.
+     */
+    protected void keyChanged(int index) {
+        if (isTracking()) {
+            state = state.withKey(index, getKey(index));
+        }
+    }
+
+    /**
+     * Stops updating the snapshot while a subclass moves its children to other storage without changing them.
+     */
+    protected void suspendSnapshot() {
+        snapshotSuspended = true;
+    }
+
+    protected void resumeSnapshot() {
+        snapshotSuspended = false;
+    }
+
+    private boolean isTracking() {
+        return state != null && !snapshotSuspended;
+    }
+
+    /**
+     * Records the range of the document source, see PListRoot.getSource(), that this aggregate was read from.
+     * The range is dropped as soon as the aggregate or anything in it changes, so while it is set,
+     * the source bytes in the range are still an exact representation of the aggregate.
+     */
+    public void setSourceRange(int start, int end) {
+        sourceStart = start;
+        sourceEnd = end;
+    }
+
+    public boolean hasSourceRange() {
+        return sourceStart >= 0;
+    }
+
+    public int getSourceStart() {
+        return sourceStart;
+    }
+
+    public int getSourceEnd() {
+        return sourceEnd;
+    }
+
+    @Override
+    protected void changed() {
+        // An aggregate without a source range either changed before, or was never read from a source.
+        // In both cases none of the aggregates containing it has a source range left to drop.
+        // Its snapshot or content hash, if it has one, is in those of the aggregates containing it though.
+        if (hasSourceRange() || state != null || contentHashValid) {
+            sourceStart = -1;
+            sourceEnd = -1;
+            contentHashValid = false;
+            super.changed();
+        }
+    }
+
+    /**
+     * Called by a child after it was modified, before this aggregate reports its own change.
+     */
+    void childChanged(PList child) {
+        if (isTracking()) {
+            int index = indexOf(child);
+            if (index >= 0) {
+                state = state.withValue(index, snapshotOf(index));
+            }
+        }
+        changed();
+    }
+
+    /**
+     * Makes this aggregate the parent of a value that is added to it.
+     */
+    protected void adopt(PList child) {
+        child.setParent(this);
+    }
+
+    /**
+     * Clears the parent of a value that is removed from this aggregate.
+     */
+    protected void release(PList child) {
+        if (child.getParent() == this) {
+            child.setParent(null);
+        }
+    }
 }
@@ -19,86 +19,510 @@ package com.mac.hazewinkel.plist.datamodel;
 import java.util.*;
 
 /**
+ * Array of plist values.
+ * <p/>
+ * While all elements are integers, all are reals or all are booleans, the values are stored packed in a
+ * long[], double[] or bit set, and PList wrappers are only created for the elements that are asked for.
+ * A wrapper is kept once created, so an element is always represented by the same instance, and from then
+ * on the wrapper holds the value of that element. The first element of another type moves all elements to
+ * a plain list of PList objects, which is used from then on.
+ * <p/>
+ * Likewise, an array that starts with a dictionary stores its dictionaries as records that share the keys of
+ * the first one, with the values stored by key, see PListRecords. Any element that is not a dictionary moves
+ * all elements to the plain list.
+ *
  * @author Maarten Hazewinkel
  */
 public class PListArray extends PListAggregate {
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** All elements when stored as objects, null while packed */
+    private ArrayList<PList> array;
 
-    private ArrayList<PList> array = new ArrayList<PList>();
+    /** The dictionaries while stored as records, otherwise null */
+    private PListRecords records;
+
+    /** Integer, Real or Boolean while packed, null while the array is empty or stored as objects */
+    private PListDataType packedType;
+    private long[] longs;
+    private double[] doubles;
+    private PList[] wrappers;
+    private int size;
 
     @Override
     public void append(PListEntry item) {
-        array.add(item.getValue());
+        insert(size(), item.getValue());
+    }
+
+    public void appendLong(long value) {
+        if (prepareInsert(PListDataType.Integer, size)) {
+            longs[size++] = value;
+            positionInserted(size - 1);
+            changed();
+        } else {
+            append(new PListEntry(null, new PListInteger(value)));
+        }
+    }
+
+    public void appendDouble(double value) {
+        if (prepareInsert(PListDataType.Real, size)) {
+            doubles[size++] = value;
+            positionInserted(size - 1);
+            changed();
+        } else {
+            append(new PListEntry(null, new PListFloat(value)));
+        }
+    }
+
+    public void appendBoolean(boolean value) {
+        if (prepareInsert(PListDataType.Boolean, size)) {
+            setBit(size++, value);
+            positionInserted(size - 1);
+            changed();
+        } else {
+            append(new PListEntry(null, new PListBoolean(value)));
+        }
+    }
+
+    @Override
+    public int size() {
+        if (array != null) {
+            return array.size();
+        }
+        return records != null ? records.size() : size;
+    }
+
+    /**
+     * Returns the type of all elements while they are stored packed, or null if they are stored as objects.
+     * While packed, the values can be read with getLong, getDouble or getBoolean without creating wrappers.
+     */
+    public PListDataType getPackedType() {
+        return array == null && records == null ? packedType : null;
+    }
+
+    public long getLong(int index) {
+        checkPacked(PListDataType.Integer, index);
+        PList wrapper = wrappers != null ? wrappers[index] : null;
+        return wrapper != null ? ((PListInteger) wrapper).getValue() : longs[index];
+    }
+
+    public double getDouble(int index) {
+        checkPacked(PListDataType.Real, index);
+        PList wrapper = wrappers != null ? wrappers[index] : null;
+        return wrapper != null ? ((PListFloat) wrapper).getValue() : doubles[index];
+    }
+
+    public boolean getBoolean(int index) {
+        checkPacked(PListDataType.Boolean, index);
+        PList wrapper = wrappers != null ? wrappers[index] : null;
+        return wrapper != null ? ((PListBoolean) wrapper).getValue() : getBit(index);
     }
 
     @Override
     public List<PListEntry> elements() {
-        ArrayList<PListEntry> elements = new ArrayList<PListEntry>();
-        int index = 0;
-        for (PList element : array) {
-            elements.add(new PListEntry("Item " + index, element));
-            index += 1;
+        return new AbstractList<PListEntry>() {
+            @Override
+            public PListEntry get(int index) {
+                return new PListEntry(getKey(index), getValue(index));
+            }
+
+            @Override
+            public int size() {
+                return PListArray.this.size();
+            }
+        };
+    }
+
+    /**
+     * Returns the value for the key of each element, or null for the elements that are not dictionaries or
+     * have no entry with that key. While the elements are stored as records, this reads the values of the key
+     * in sequence from its column.
+     */
+    public List<PList> valuesForKey(String key) {
+        if (records != null) {
+            return records.getValues(key);
+        }
+        List<PList> values = new ArrayList<PList>(size());
+        for (int i = 0; i < size(); i++) {
+            PList element = getValue(i);
+            values.add(element instanceof PListDictionary ? ((PListDictionary) element).get(key) : null);
         }
-        return Collections.unmodifiableList(elements);
+        return values;
     }
 
     @Override
-    public void replaceEntry(PList oldData, PList newData) {
-        ListIterator<PList> iterator = array.listIterator();
-        while (iterator.hasNext()) {
-            if (iterator.next() == oldData) {
-                iterator.set(newData);
-                return;
+    public void set(int index, PList newData) {
+        PList oldData = getExistingValue(index);
+        if (array == null && !fitsPacked(newData)) {
+            unpack();
+        }
+        if (array != null) {
+            array.set(index, newData);
+        } else if (records != null) {
+            records.set(index, (PListDictionary) newData);
+        } else {
+            storePacked(index, newData);
+        }
+        if (oldData != null) {
+            release(oldData);
+        }
+        adopt(newData);
+        positionReplaced(index, oldData, newData);
+        changed();
+    }
+
+    @Override
+    public void remove(int index) {
+        PList oldData = getExistingValue(index);
+        if (array != null) {
+            array.remove(index);
+        } else if (records != null) {
+            records.remove(index);
+            if (records.size() == 0) {
+                records = null;
             }
+        } else {
+            removePacked(index);
         }
+        if (oldData != null) {
+            release(oldData);
+        }
+        positionRemoved(index, oldData);
+        changed();
     }
 
     @Override
-    public void deleteEntry(PList oldData) {
-        ListIterator<PList> iterator = array.listIterator();
-        while (iterator.hasNext()) {
-            if (iterator.next() == oldData) {
-                iterator.remove();
-                return;
+    public void insert(int index, PList value) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        if (array == null && records == null && packedType == null) {
+            records = PListRecords.forFirstRow(value);
+        }
+        if (array == null && (records != null ? !fitsPacked(value) : !prepareInsert(value.getType(), index))) {
+            unpack();
+        }
+        if (array != null) {
+            array.add(index, value);
+        } else if (records != null) {
+            records.insert(index, (PListDictionary) value);
+        } else {
+            size++;
+            storePacked(index, value);
+        }
+        adopt(value);
+        positionInserted(index);
+        changed();
+    }
+
+    /**
+     * Makes room for a packed value at the index, or returns false if a value of this type cannot be packed.
+     */
+    private boolean prepareInsert(PListDataType type, int index) {
+        if (array != null || records != null) {
+            return false;
+        }
+        if (packedType == null) {
+            if (type != PListDataType.Integer && type != PListDataType.Real && type != PListDataType.Boolean) {
+                return false;
+            }
+            packedType = type;
+            if (type == PListDataType.Real) {
+                doubles = new double[INITIAL_CAPACITY];
+            } else {
+                longs = new long[INITIAL_CAPACITY];
+            }
+        } else if (type != packedType) {
+            return false;
+        }
+        ensureCapacity(size + 1);
+        if (index < size) {
+            if (packedType == PListDataType.Integer) {
+                System.arraycopy(longs, index, longs, index + 1, size - index);
+            } else if (packedType == PListDataType.Real) {
+                System.arraycopy(doubles, index, doubles, index + 1, size - index);
+            } else {
+                for (int i = size; i > index; i--) {
+                    setBit(i, getBit(i - 1));
+                }
+            }
+            if (wrappers != null) {
+                System.arraycopy(wrappers, index, wrappers, index + 1, size - index);
+                wrappers[index] = null;
+            }
+        }
+        return true;
+    }
+
+    private boolean fitsPacked(PList value) {
+        if (records != null) {
+            return value instanceof PListDictionary;
+        }
+        return value.getType() == packedType;
+    }
+
+    /**
+     * Stores an existing element object in packed storage. The object is kept as the wrapper of its element.
+     */
+    private void storePacked(int index, PList value) {
+        if (wrappers == null) {
+            wrappers = new PList[capacity()];
+        }
+        wrappers[index] = value;
+    }
+
+    private void removePacked(int index) {
+        int moved = size - index - 1;
+        if (packedType == PListDataType.Integer) {
+            System.arraycopy(longs, index + 1, longs, index, moved);
+        } else if (packedType == PListDataType.Real) {
+            System.arraycopy(doubles, index + 1, doubles, index, moved);
+        } else {
+            for (int i = index; i < size - 1; i++) {
+                setBit(i, getBit(i + 1));
             }
         }
+        if (wrappers != null) {
+            System.arraycopy(wrappers, index + 1, wrappers, index, moved);
+            wrappers[size - 1] = null;
+        }
+        size--;
+        if (size == 0) {
+            // an empty array can be packed again with any type
+            packedType = null;
+            longs = null;
+            doubles = null;
+            wrappers = null;
+        }
+    }
+
+    /**
+     * Moves all elements to object storage, creating the wrappers that do not exist yet.
+     */
+    private void unpack() {
+        if (records != null) {
+            array = records.toList();
+            records = null;
+            return;
+        }
+        ArrayList<PList> elements = new ArrayList<PList>(Math.max(size, INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            elements.add(getWrapper(i));
+        }
+        array = elements;
+        packedType = null;
+        longs = null;
+        doubles = null;
+        wrappers = null;
+        size = 0;
     }
 
+    /**
+     * Array elements have no keys. The "Item N" name is only created when asked for.
+     */
     @Override
-    public void insertFirstChild(PList newValue) {
-        array.add(0, newValue);
+    public String getKey(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        }
+        return "Item " + index;
     }
 
     @Override
-    public void insertAfterChild(PList newValue, PList child) {
-        ListIterator<PList> iterator = array.listIterator();
-        while (iterator.hasNext()) {
-            if (iterator.next() == child) {
-                array.add(iterator.nextIndex(), newValue);
-                return;
+    public PList getValue(int index) {
+        if (array != null) {
+            return array.get(index);
+        }
+        if (records != null) {
+            return records.get(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return getWrapper(index);
+    }
+
+    /**
+     * Takes the snapshot of a packed element from its value, without creating a wrapper for it.
+     */
+    @Override
+    protected PListSnapshot snapshotOf(int index) {
+        PListDataType type = getPackedType();
+        if (type == null || (wrappers != null && wrappers[index] != null)) {
+            return super.snapshotOf(index);
+        } else if (type == PListDataType.Integer) {
+            return PListSnapshot.of(new PListInteger(longs[index]));
+        } else if (type == PListDataType.Real) {
+            return PListSnapshot.of(new PListFloat(doubles[index]));
+        }
+        return PListSnapshot.of(new PListBoolean(getBit(index)));
+    }
+
+    /**
+     * Returns the element at the index, or null if it is packed and has no wrapper.
+     */
+    private PList getExistingValue(int index) {
+        if (array != null || records != null) {
+            return getValue(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return wrappers != null ? wrappers[index] : null;
+    }
+
+    private PList getWrapper(int index) {
+        if (wrappers == null) {
+            wrappers = new PList[capacity()];
+        }
+        PList wrapper = wrappers[index];
+        if (wrapper == null) {
+            if (packedType == PListDataType.Integer) {
+                wrapper = new PListInteger(longs[index]);
+            } else if (packedType == PListDataType.Real) {
+                wrapper = new PListFloat(doubles[index]);
+            } else {
+                wrapper = new PListBoolean(getBit(index));
             }
+            wrappers[index] = wrapper;
+            adopt(wrapper);
+        }
+        return wrapper;
+    }
+
+    /**
+     * While packed, only the elements that have a wrapper can be asked for, so only those are searched.
+     */
+    @Override
+    public int indexOf(PList value) {
+        if (array != null || records != null) {
+            return super.indexOf(value);
+        }
+        if (wrappers != null) {
+            for (int i = 0; i < size; i++) {
+                if (wrappers[i] == value) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int capacity() {
+        if (packedType == PListDataType.Real) {
+            return doubles.length;
+        }
+        return packedType == PListDataType.Boolean ? longs.length * 64 : longs.length;
+    }
+
+    private void ensureCapacity(int minimum) {
+        int capacity = capacity();
+        if (minimum <= capacity) {
+            return;
+        }
+        int newCapacity = Math.max(capacity * 2, minimum);
+        if (packedType == PListDataType.Integer) {
+            longs = Arrays.copyOf(longs, newCapacity);
+        } else if (packedType == PListDataType.Real) {
+            doubles = Arrays.copyOf(doubles, newCapacity);
+        } else {
+            longs = Arrays.copyOf(longs, (newCapacity + 63) / 64);
+            newCapacity = longs.length * 64;
+        }
+        if (wrappers != null) {
+            wrappers = Arrays.copyOf(wrappers, newCapacity);
+        }
+    }
+
+    private boolean getBit(int index) {
+        return (longs[index >> 6] & (1L << index)) != 0;
+    }
+
+    private void setBit(int index, boolean value) {
+        if (value) {
+            longs[index >> 6] |= 1L << index;
+        } else {
+            longs[index >> 6] &= ~(1L << index);
+        }
+    }
+
+    private void checkPacked(PListDataType type, int index) {
+        if (array != null || packedType != type) {
+            throw new IllegalStateException("Array elements are not packed as " + type);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
         }
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof PListArray)) return false;
 
         PListArray that = (PListArray) o;
 
-        if (array != null ? !array.equals(that.array) : that.array != null) return false;
+        if (contentHash() != that.contentHash()) {
+            return false;
+        }
+        PListDataType type = getPackedType();
+        if (type != null && type == that.getPackedType()) {
+            if (size != that.size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (!packedValueEquals(that, i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return elements().equals(that.elements());
+    }
 
-        return true;
+    private boolean packedValueEquals(PListArray that, int index) {
+        if (packedType == PListDataType.Integer) {
+            return getLong(index) == that.getLong(index);
+        } else if (packedType == PListDataType.Real) {
+            return Double.doubleToLongBits(getDouble(index)) == Double.doubleToLongBits(that.getDouble(index));
+        }
+        return getBoolean(index) == that.getBoolean(index);
     }
 
     @Override
     public int hashCode() {
-        return array != null ? array.hashCode() : 0;
+        return contentHashCode();
+    }
+
+    /**
+     * Computes the hash of a packed element from its value, so that no wrapper is created for it.
+     */
+    @Override
+    public long childContentHash(int index) {
+        PListDataType type = getPackedType();
+        if (type == PListDataType.Integer) {
+            return PListHash.ofValue(type, getLong(index));
+        } else if (type == PListDataType.Real) {
+            return PListHash.ofValue(type, Double.doubleToLongBits(getDouble(index)));
+        } else if (type == PListDataType.Boolean) {
+            return PListHash.ofValue(type, getBoolean(index) ? 1 : 0);
+        }
+        return super.childContentHash(index);
+    }
+
+    @Override
+    protected long computeContentHash() {
+        int size = size();
+        long hash = PListHash.ofValue(PListDataType.Array, size);
+        for (int i = 0; i < size; i++) {
+            hash = PListHash.mix(hash, childContentHash(i));
+        }
+        return hash;
     }
 
     @Override
     public String toString() {
-        return "PListArray " + array;
+        return "PListArray " + (array != null ? array : elements());
     }
 
     @Override
@@ -42,6 +42,12 @@ public class PListBoolean extends PListPrimitive {
             throw new IllegalArgumentException("value cannot be Null");
         }
         value = Boolean.parseBoolean(newValue);
+        changed();
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofValue(PListDataType.Boolean, value ? 1 : 0);
     }
 
     @Override
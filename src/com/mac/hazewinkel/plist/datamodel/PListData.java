@@ -52,6 +52,7 @@ public class PListData extends PListPrimitive {
         } catch (DecoderException e) {
             throw new IllegalArgumentException("Cannot parse data: " + e.getMessage());
         }
+        changed();
     }
 
     @Override
@@ -61,6 +62,16 @@ public class PListData extends PListPrimitive {
         return Arrays.equals(getValue(), ((PListData) obj).getValue());
     }
 
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(getValue());
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofBytes(PListDataType.Data, value);
+    }
+
     @Override
     public PListDataType getType() {
         return PListDataType.Data;
@@ -16,8 +16,6 @@
 
 package com.mac.hazewinkel.plist.datamodel;
 
-import java.util.Date;
-
 /**
  * @author Maarten Hazewinkel
  */
@@ -40,7 +38,7 @@ public enum PListDataType {
             case Data:
                 return new PListData(new byte[0]);
             case Date:
-                return new PListDate(new Date());
+                return new PListDate(System.currentTimeMillis());
             case Dictionary:
                 return new PListDictionary();
             case Integer:
@@ -16,6 +16,8 @@
 
 package com.mac.hazewinkel.plist.datamodel;
 
+import com.mac.hazewinkel.plist.util.PListDateCodec;
+
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
@@ -25,41 +27,74 @@ import java.util.Date;
  * @author Maarten Hazewinkel
  */
 public class PListDate extends PListPrimitive {
-    private Date value;
-    private static final DateFormat formatter = getFormatter();
+    private long time;
+
+    private static final ThreadLocal<DateFormat> formatter = new ThreadLocal<DateFormat>() {
+        @Override
+        protected DateFormat initialValue() {
+            return SimpleDateFormat.getDateTimeInstance(SimpleDateFormat.MEDIUM, SimpleDateFormat.MEDIUM);
+        }
+    };
 
     public PListDate(Date value) {
-        this.value = value;
+        this(value.getTime());
+    }
+
+    public PListDate(long time) {
+        this.time = time;
     }
 
     @Override
     public Date getValue() {
-        return value;
+        return new Date(time);
+    }
+
+    /**
+     * @return the date as milliseconds since 1970-01-01 UTC
+     */
+    public long getTime() {
+        return time;
     }
 
     @Override
     public String getAsString() {
-        synchronized (formatter) {
-            return getFormatter().format(value);
-        }
+        return formatter.get().format(new Date(time));
     }
 
+    /**
+     * Accepts the medium date and time format of the current locale, as shown in the editor,
+     * or the yyyy-MM-ddTHH:mm:ssZ form used in plist files.
+     */
     @Override
     public void setAsString(String newValue) throws IllegalArgumentException {
         if (newValue == null) {
             throw new IllegalArgumentException("value cannot be Null");
         }
         try {
-            synchronized (formatter) {
-                value = getFormatter().parse(newValue);
-            }
+            time = formatter.get().parse(newValue).getTime();
         } catch (ParseException e) {
-            throw new IllegalArgumentException("Cannot parse date: " + e.getMessage());
+            try {
+                time = PListDateCodec.parse(newValue.trim());
+            } catch (IllegalArgumentException ignored) {
+                throw new IllegalArgumentException("Cannot parse date: " + e.getMessage());
+            }
         }
+        changed();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof PListDate && time == ((PListDate) obj).time;
     }
 
-    private static DateFormat getFormatter() {
-        return SimpleDateFormat.getDateTimeInstance(SimpleDateFormat.MEDIUM, SimpleDateFormat.MEDIUM);
+    @Override
+    public int hashCode() {
+        return (int) (time ^ (time >>> 32));
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofValue(PListDataType.Date, time);
     }
 
     @Override
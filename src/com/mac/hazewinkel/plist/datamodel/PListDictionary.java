@@ -16,87 +16,188 @@
 
 package com.mac.hazewinkel.plist.datamodel;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.ListIterator;
 
 /**
+ * Dictionary of plist values, in entry order, with an index from key to position once it is larger than
+ * INDEX_THRESHOLD. In an array of dictionaries it may be a record whose values are stored by the array, see PListRecords.
+ *
  * @author Maarten Hazewinkel
  */
 public class PListDictionary extends PListAggregate {
+    /** Smaller dictionaries are searched without an index */
+    private static final int INDEX_THRESHOLD = 8;
+    private static final String NEW_ITEM = "New Item";
 
+    /** The entries, null while this dictionary is a record in the shared storage of an array */
     private ArrayList<PListEntry> dictionary = new ArrayList<PListEntry>();
 
+    /** The position of the first entry for each key, or null while not built */
+    private HashMap<String, Integer> keyIndex;
+    private boolean duplicateKeys;
+    /** Every "New Item N" with a lower number is a key, so new names are searched from this one */
+    private int nextNewItem = 1;
+
+    private PListRecords records;
+    private int row;
+
     @Override
     public void append(PListEntry item) {
+        detach();
         dictionary.add(item);
+        if (keyIndex != null) {
+            if (keyIndex.containsKey(item.getKey())) {
+                duplicateKeys = true;
+            } else {
+                keyIndex.put(item.getKey(), dictionary.size() - 1);
+            }
+        }
+        adopt(item.getValue());
+        positionInserted(dictionary.size() - 1);
+        changed();
     }
 
     @Override
     public List<PListEntry> elements() {
-        return Collections.unmodifiableList(dictionary);
+        if (records == null) {
+            return Collections.unmodifiableList(dictionary);
+        }
+        final PListRecords shared = records;
+        final int sharedRow = row;
+        return new AbstractList<PListEntry>() {
+            @Override
+            public PListEntry get(int index) {
+                return new PListEntry(shared.getKey(index), shared.getValue(index, sharedRow));
+            }
+
+            @Override
+            public int size() {
+                return shared.getKeyCount();
+            }
+        };
+    }
+
+    /**
+     * Returns the value for the key, or null if there is no entry with that key.
+     */
+    public PList get(String key) {
+        int position = indexOfKey(key);
+        if (position < 0) {
+            return null;
+        }
+        return getValue(position);
+    }
+
+    public boolean containsKey(String key) {
+        return indexOfKey(key) >= 0;
     }
 
     @Override
-    public void replaceEntry(PList oldData, PList newData) {
-        ListIterator<PListEntry> iterator = dictionary.listIterator();
-        while (iterator.hasNext()) {
-            PListEntry oldEntry = iterator.next();
-            if (oldEntry.getValue() == oldData) {
-                iterator.set(new PListEntry(oldEntry.getKey(), newData));
-                return;
-            }
+    public int size() {
+        return records != null ? records.getKeyCount() : dictionary.size();
+    }
+
+    @Override
+    public String getKey(int index) {
+        return records != null ? records.getKey(index) : dictionary.get(index).getKey();
+    }
+
+    @Override
+    public PList getValue(int index) {
+        return records != null ? records.getValue(index, row) : dictionary.get(index).getValue();
+    }
+
+    @Override
+    public void set(int index, PList newValue) {
+        PList oldValue;
+        if (records != null) {
+            oldValue = records.getValue(index, row);
+            records.setValue(index, row, newValue);
+        } else {
+            PListEntry oldEntry = dictionary.get(index);
+            oldValue = oldEntry.getValue();
+            dictionary.set(index, new PListEntry(oldEntry.getKey(), newValue));
         }
+        release(oldValue);
+        adopt(newValue);
+        positionReplaced(index, oldValue, newValue);
+        changed();
     }
 
     @Override
-    public void deleteEntry(PList oldData) {
-        ListIterator<PListEntry> iterator = dictionary.listIterator();
-        while (iterator.hasNext()) {
-            PListEntry oldEntry = iterator.next();
-            if (oldEntry.getValue() == oldData) {
-                iterator.remove();
-                return;
+    public void remove(int index) {
+        detach();
+        PListEntry oldEntry = dictionary.remove(index);
+        if (keyIndex != null) {
+            if (!duplicateKeys) {
+                keyIndex.remove(oldEntry.getKey());
             }
+            updateIndex(index);
         }
+        keyFreed(oldEntry.getKey());
+        release(oldEntry.getValue());
+        positionRemoved(index, oldEntry.getValue());
+        changed();
     }
 
+    /**
+     * Inserts the value under a new key, "New Item" or "New Item N".
+     */
     @Override
-    public void insertFirstChild(PList newValue) {
-        dictionary.add(0, new PListEntry(generateNewName(), newValue));
+    public void insert(int index, PList newValue) {
+        insert(index, generateNewName(), newValue);
     }
 
-    @Override
-    public void insertAfterChild(PList newValue, PList child) {
-        ListIterator<PListEntry> iterator = dictionary.listIterator();
-        while (iterator.hasNext()) {
-            if (iterator.next().getValue() == child) {
-                dictionary.add(iterator.nextIndex(), new PListEntry(generateNewName(), newValue));
-                return;
+    public void insert(int index, String key, PList newValue) {
+        detach();
+        dictionary.add(index, new PListEntry(key, newValue));
+        if (keyIndex != null) {
+            if (keyIndex.containsKey(key)) {
+                duplicateKeys = true;
             }
+            updateIndex(index);
         }
+        adopt(newValue);
+        positionInserted(index);
+        changed();
     }
 
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
+        if (!(o instanceof PListDictionary)) return false;
 
         PListDictionary that = (PListDictionary) o;
 
-        return !(dictionary != null ? !dictionary.equals(that.dictionary) : that.dictionary != null);
-
+        if (contentHash() != that.contentHash()) {
+            return false;
+        }
+        return elements().equals(that.elements());
     }
 
     @Override
     public int hashCode() {
-        return dictionary != null ? dictionary.hashCode() : 0;
+        return contentHashCode();
+    }
+
+    @Override
+    protected long computeContentHash() {
+        int size = size();
+        long hash = PListHash.ofValue(PListDataType.Dictionary, size);
+        for (int i = 0; i < size; i++) {
+            hash = PListHash.mix(hash, PListHash.ofString(PListDataType.String, getKey(i)));
+            hash = PListHash.mix(hash, childContentHash(i));
+        }
+        return hash;
     }
 
     @Override
     public String toString() {
-        return "PListDictionary " + dictionary;
+        return "PListDictionary " + elements();
     }
 
     @Override
@@ -109,39 +210,162 @@ public class PListDictionary extends PListAggregate {
             return false;
         }
         
-        if (hasEntryWithName(value)) {
+        if (containsKey(value)) {
             return false;
         }
-        
-        ListIterator<PListEntry> iterator = dictionary.listIterator();
-        while (iterator.hasNext()) {
-            PListEntry oldEntry = iterator.next();
-            if (oldEntry.getKey().equals(name)) {
-                iterator.set(new PListEntry(value, oldEntry.getValue()));
-                return true;
+
+        int position = indexOfKey(name);
+        if (position < 0) {
+            return false;
+        }
+        detach();
+        dictionary.set(position, new PListEntry(value, dictionary.get(position).getValue()));
+        if (keyIndex != null) {
+            if (duplicateKeys) {
+                buildIndex();
+            } else {
+                keyIndex.remove(name);
+                keyIndex.put(value, position);
             }
         }
-        return false;
+        keyFreed(name);
+        keyChanged(position);
+        changed();
+        return true;
+    }
+
+    boolean isRecord() {
+        return records != null;
     }
 
-    private boolean hasEntryWithName(String name) {
-        for (PListEntry entry : dictionary) {
-            if (entry.getKey().equals(name)) {
-                return true;
+    boolean isRecordOf(PListRecords records) {
+        return this.records == records;
+    }
+
+    /**
+     * Makes this dictionary a record in the shared storage, which already holds its values.
+     */
+    void joinRecords(PListRecords records, int row) {
+        if (this.records != records) {
+            detach();
+        }
+        this.records = records;
+        this.row = row;
+        dictionary = null;
+        keyIndex = null;
+    }
+
+    void moveRecord(PListRecords records, int row) {
+        if (this.records == records) {
+            this.row = row;
+        }
+    }
+
+    /**
+     * Takes the entries back from the shared storage, if this dictionary is a record in it.
+     */
+    void leaveRecords(PListRecords records) {
+        if (this.records == records) {
+            detach();
+        }
+    }
+
+    private void detach() {
+        if (records != null) {
+            dictionary = new ArrayList<PListEntry>(elements());
+            records.clearRow(row);
+            records = null;
+        }
+    }
+
+    private int indexOfKey(String key) {
+        if (records != null) {
+            return records.getColumn(key);
+        }
+        if (keyIndex == null && dictionary.size() > INDEX_THRESHOLD) {
+            buildIndex();
+        }
+        if (keyIndex != null) {
+            Integer position = keyIndex.get(key);
+            return position != null ? position : -1;
+        }
+        for (int i = 0; i < dictionary.size(); i++) {
+            if (dictionary.get(i).getKey().equals(key)) {
+                return i;
             }
         }
-        return false;
+        return -1;
     }
-    
-    private String generateNewName() {
-        int index = 1;
-        String name = "New Item";
 
-        while(hasEntryWithName(name)) {
-            index += 1;
-            name = "New Item " + index;
+    private void buildIndex() {
+        keyIndex = new HashMap<String, Integer>(dictionary.size() * 2);
+        duplicateKeys = false;
+        for (int i = 0; i < dictionary.size(); i++) {
+            String key = dictionary.get(i).getKey();
+            if (keyIndex.containsKey(key)) {
+                duplicateKeys = true;
+            } else {
+                keyIndex.put(key, i);
+            }
         }
+    }
+
+    /**
+     * Updates the index for the entries from the position on, after an entry was inserted or removed there.
+     */
+    private void updateIndex(int from) {
+        if (duplicateKeys) {
+            buildIndex();
+            return;
+        }
+        for (int i = from; i < dictionary.size(); i++) {
+            keyIndex.put(dictionary.get(i).getKey(), i);
+        }
+    }
 
+    /**
+     * Returns the first of "New Item", "New Item 2", ... that is not a key yet.
+     */
+    private String generateNewName() {
+        String name = newItemName(nextNewItem);
+        while (containsKey(name)) {
+            nextNewItem += 1;
+            name = newItemName(nextNewItem);
+        }
         return name;
     }
+
+    /**
+     * Lets the next new name be the key that was removed or renamed, if it is a lower "New Item N".
+     */
+    private void keyFreed(String key) {
+        int number = newItemNumber(key);
+        if (number > 0 && number < nextNewItem) {
+            nextNewItem = number;
+        }
+    }
+
+    private static String newItemName(int number) {
+        return number == 1 ? NEW_ITEM : NEW_ITEM + ' ' + number;
+    }
+
+    /**
+     * Returns N for "New Item N", 1 for "New Item", and 0 for any other key.
+     */
+    private static int newItemNumber(String key) {
+        if (!key.startsWith(NEW_ITEM)) {
+            return 0;
+        }
+        if (key.length() == NEW_ITEM.length()) {
+            return 1;
+        }
+        if (key.charAt(NEW_ITEM.length()) != ' ') {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(key.substring(NEW_ITEM.length() + 1)));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
 }
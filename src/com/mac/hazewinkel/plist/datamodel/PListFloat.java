@@ -46,6 +46,12 @@ public class PListFloat extends PListPrimitive {
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Cannot parse as real number: " + e.getMessage());
         }
+        changed();
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofValue(PListDataType.Real, Double.doubleToLongBits(value));
     }
 
     @Override
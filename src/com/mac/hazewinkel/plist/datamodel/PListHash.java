@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+/**
+ * 64 bit hashing for PList.contentHash().
+ *
+ * @author Maarten Hazewinkel
+ */
+final class PListHash {
+    private static final long SEED = 0x9E3779B97F4A7C15L;
+
+    private PListHash() {
+    }
+
+    /**
+     * Combines a hash with the next value, in an order dependent way.
+     */
+    static long mix(long hash, long value) {
+        return finish(hash * SEED + finish(value));
+    }
+
+    static long ofValue(PListDataType type, long value) {
+        return mix(type.ordinal(), value);
+    }
+
+    static long ofString(PListDataType type, String value) {
+        long hash = type.ordinal();
+        int length = value.length();
+        int i = 0;
+        for (; i + 3 < length; i += 4) {
+            hash = mix(hash, (long) value.charAt(i) << 48 | (long) value.charAt(i + 1) << 32
+                             | (long) value.charAt(i + 2) << 16 | value.charAt(i + 3));
+        }
+        for (; i < length; i++) {
+            hash = mix(hash, value.charAt(i));
+        }
+        return mix(hash, length);
+    }
+
+    static long ofBytes(PListDataType type, byte[] value) {
+        long hash = type.ordinal();
+        int i = 0;
+        for (; i + 7 < value.length; i += 8) {
+            long word = 0;
+            for (int j = 0; j < 8; j++) {
+                word = word << 8 | (value[i + j] & 0xFF);
+            }
+            hash = mix(hash, word);
+        }
+        for (; i < value.length; i++) {
+            hash = mix(hash, value[i]);
+        }
+        return mix(hash, value.length);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, which spreads every input bit over the whole result.
+     */
+    private static long finish(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        value ^= value >>> 33;
+        return value;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+/**
+ * Immutable map from string keys to values, as a hash array mapped trie.
+ * <p/>
+ * Each level of the trie uses 5 bits of the key hash to pick one of up to 32 slots, and only the slots in use
+ * are stored, found through a bitmap. Keys with the same hash share a collision node. A change copies only
+ * the nodes on the path to the key, O(log32 n) of them, and shares the rest with the old map.
+ *
+ * @author Maarten Hazewinkel
+ */
+public final class PListHashTrie<V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final PListHashTrie<Object> EMPTY = new PListHashTrie<Object>(null, 0);
+
+    /** A Branch, a Leaf or a Collision, or null when empty */
+    private final Object root;
+    private final int size;
+
+    private PListHashTrie(Object root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public static <V> PListHashTrie<V> empty() {
+        return (PListHashTrie<V>) EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean containsKey(String key) {
+        return find(key) != null;
+    }
+
+    /**
+     * Returns the value for the key, or null if the key is not in the map.
+     */
+    @SuppressWarnings({"unchecked"})
+    public V get(String key) {
+        Leaf leaf = find(key);
+        return leaf != null ? (V) leaf.value : null;
+    }
+
+    public PListHashTrie<V> put(String key, V value) {
+        int hash = key.hashCode();
+        Leaf leaf = find(key);
+        if (leaf != null && leaf.value == value) {
+            return this;
+        }
+        Leaf added = new Leaf(hash, key, value);
+        if (root == null) {
+            return new PListHashTrie<V>(added, 1);
+        }
+        return new PListHashTrie<V>(put(root, 0, added), leaf != null ? size : size + 1);
+    }
+
+    public PListHashTrie<V> remove(String key) {
+        if (find(key) == null) {
+            return this;
+        }
+        return new PListHashTrie<V>(remove(root, 0, key.hashCode(), key), size - 1);
+    }
+
+    private Leaf find(String key) {
+        int hash = key.hashCode();
+        Object node = root;
+        int shift = 0;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int bit = bit(hash, shift);
+            if ((branch.bitmap & bit) == 0) {
+                return null;
+            }
+            node = branch.slots[branch.slot(bit)];
+            shift += BITS;
+        }
+        if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            return leaf.matches(hash, key) ? leaf : null;
+        } else if (node instanceof Collision) {
+            for (Leaf leaf : ((Collision) node).leaves) {
+                if (leaf.matches(hash, key)) {
+                    return leaf;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Object put(Object node, int shift, Leaf added) {
+        if (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int bit = bit(added.hash, shift);
+            int slot = branch.slot(bit);
+            if ((branch.bitmap & bit) == 0) {
+                Object[] slots = new Object[branch.slots.length + 1];
+                System.arraycopy(branch.slots, 0, slots, 0, slot);
+                slots[slot] = added;
+                System.arraycopy(branch.slots, slot, slots, slot + 1, branch.slots.length - slot);
+                return new Branch(branch.bitmap | bit, slots);
+            }
+            Object[] slots = branch.slots.clone();
+            slots[slot] = put(slots[slot], shift + BITS, added);
+            return new Branch(branch.bitmap, slots);
+        } else if (node instanceof Leaf) {
+            Leaf leaf = (Leaf) node;
+            if (leaf.matches(added.hash, added.key)) {
+                return added;
+            }
+            return merge(node, leaf.hash, added, shift);
+        }
+        Collision collision = (Collision) node;
+        if (collision.hash != added.hash) {
+            return merge(node, collision.hash, added, shift);
+        }
+        Leaf[] leaves = collision.leaves;
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i].key.equals(added.key)) {
+                leaves = leaves.clone();
+                leaves[i] = added;
+                return new Collision(collision.hash, leaves);
+            }
+        }
+        Leaf[] grown = new Leaf[leaves.length + 1];
+        System.arraycopy(leaves, 0, grown, 0, leaves.length);
+        grown[leaves.length] = added;
+        return new Collision(collision.hash, grown);
+    }
+
+    /**
+     * Combines a leaf or collision with a leaf for another key, in the branches needed to tell their hashes apart.
+     */
+    private static Object merge(Object node, int hash, Leaf added, int shift) {
+        if (hash == added.hash) {
+            return new Collision(hash, new Leaf[]{(Leaf) node, added});
+        }
+        int bit = bit(hash, shift);
+        int addedBit = bit(added.hash, shift);
+        if (bit == addedBit) {
+            return new Branch(bit, new Object[]{merge(node, hash, added, shift + BITS)});
+        }
+        Object[] slots = (bit & (addedBit - 1)) != 0 ? new Object[]{node, added} : new Object[]{added, node};
+        return new Branch(bit | addedBit, slots);
+    }
+
+    /**
+     * Removes a key that is known to be in the node, and returns the node without it, or null if it is empty.
+     */
+    private static Object remove(Object node, int shift, int hash, String key) {
+        if (node instanceof Leaf) {
+            return null;
+        } else if (node instanceof Collision) {
+            Leaf[] leaves = ((Collision) node).leaves;
+            if (leaves.length == 2) {
+                return leaves[0].key.equals(key) ? leaves[1] : leaves[0];
+            }
+            Leaf[] shrunk = new Leaf[leaves.length - 1];
+            int j = 0;
+            for (Leaf leaf : leaves) {
+                if (!leaf.key.equals(key)) {
+                    shrunk[j++] = leaf;
+                }
+            }
+            return new Collision(hash, shrunk);
+        }
+        Branch branch = (Branch) node;
+        int bit = bit(hash, shift);
+        int slot = branch.slot(bit);
+        Object child = remove(branch.slots[slot], shift + BITS, hash, key);
+        if (child != null) {
+            Object[] slots = branch.slots.clone();
+            slots[slot] = child;
+            return new Branch(branch.bitmap, slots);
+        }
+        if (branch.slots.length == 1) {
+            return null;
+        }
+        Object[] slots = new Object[branch.slots.length - 1];
+        System.arraycopy(branch.slots, 0, slots, 0, slot);
+        System.arraycopy(branch.slots, slot + 1, slots, slot, slots.length - slot);
+        return new Branch(branch.bitmap & ~bit, slots);
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static final class Branch {
+        final int bitmap;
+        final Object[] slots;
+
+        Branch(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int slot(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    private static final class Leaf {
+        final int hash;
+        final String key;
+        final Object value;
+
+        Leaf(int hash, String key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        boolean matches(int hash, String key) {
+            return this.hash == hash && this.key.equals(key);
+        }
+    }
+
+    private static final class Collision {
+        final int hash;
+        final Leaf[] leaves;
+
+        Collision(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+    }
+}
@@ -20,14 +20,14 @@ package com.mac.hazewinkel.plist.datamodel;
  * @author Maarten Hazewinkel
  */
 public class PListInteger extends PListPrimitive {
-    private int value;
+    private long value;
 
-    public PListInteger(int value) {
+    public PListInteger(long value) {
         this.value = value;
     }
 
     @Override
-    public Integer getValue() {
+    public Long getValue() {
         return value;
     }
 
@@ -42,10 +42,16 @@ public class PListInteger extends PListPrimitive {
             throw new IllegalArgumentException("value cannot be Null");
         }
         try {
-            value = Integer.parseInt(newValue);
+            value = Long.parseLong(newValue);
         } catch (NumberFormatException e) {
             throw new IllegalArgumentException("Cannot parse as integer: " + e.getMessage());
         }
+        changed();
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofValue(PListDataType.Integer, value);
     }
 
     @Override
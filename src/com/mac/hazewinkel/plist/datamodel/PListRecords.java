@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Storage of a PListArray whose elements are dictionaries, most of them with the same keys in the same order.
+ * <p/>
+ * The keys are stored once, as the shape of the table, and the values of the dictionaries with that
+ * shape are stored by column, one array per key. Such a dictionary keeps no entries of its own and reads
+ * its values from the table. A dictionary with other keys is kept as it is. When the keys of a dictionary
+ * in the table change, it copies its entries back into its own storage and leaves the shared layout.
+ *
+ * @author Maarten Hazewinkel
+ */
+class PListRecords {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private final String[] keys;
+    private final HashMap<String, Integer> columnIndex;
+    private PList[][] columns;
+    private PListDictionary[] rows;
+    private int size;
+
+    PListRecords(String[] keys) {
+        this.keys = keys;
+        columnIndex = new HashMap<String, Integer>(keys.length * 2);
+        for (int i = keys.length - 1; i >= 0; i--) {
+            columnIndex.put(keys[i], i);
+        }
+        columns = new PList[keys.length][INITIAL_CAPACITY];
+        rows = new PListDictionary[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Creates a table with the keys of the dictionary as its shape, or returns null if the dictionary
+     * is not suitable as the first row.
+     */
+    static PListRecords forFirstRow(PList value) {
+        if (value.getClass() != PListDictionary.class) {
+            return null;
+        }
+        List<PListEntry> entries = ((PListDictionary) value).elements();
+        if (entries.isEmpty()) {
+            return null;
+        }
+        String[] keys = new String[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = entries.get(i).getKey();
+        }
+        return new PListRecords(keys);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int getKeyCount() {
+        return keys.length;
+    }
+
+    String getKey(int column) {
+        return keys[column];
+    }
+
+    int getColumn(String key) {
+        Integer column = columnIndex.get(key);
+        return column != null ? column : -1;
+    }
+
+    PList getValue(int column, int row) {
+        return columns[column][row];
+    }
+
+    void setValue(int column, int row, PList value) {
+        columns[column][row] = value;
+    }
+
+    PListDictionary get(int row) {
+        return rows[row];
+    }
+
+    void insert(int row, PListDictionary dictionary) {
+        if (size == rows.length) {
+            int capacity = rows.length * 2;
+            rows = Arrays.copyOf(rows, capacity);
+            for (int column = 0; column < keys.length; column++) {
+                columns[column] = Arrays.copyOf(columns[column], capacity);
+            }
+        }
+        System.arraycopy(rows, row, rows, row + 1, size - row);
+        for (PList[] values : columns) {
+            System.arraycopy(values, row, values, row + 1, size - row);
+        }
+        size++;
+        renumber(row + 1);
+        place(row, dictionary);
+    }
+
+    void set(int row, PListDictionary dictionary) {
+        rows[row].leaveRecords(this);
+        place(row, dictionary);
+    }
+
+    void remove(int row) {
+        rows[row].leaveRecords(this);
+        System.arraycopy(rows, row + 1, rows, row, size - row - 1);
+        for (PList[] values : columns) {
+            System.arraycopy(values, row + 1, values, row, size - row - 1);
+            values[size - 1] = null;
+        }
+        rows[size - 1] = null;
+        size--;
+        renumber(row);
+    }
+
+    /**
+     * Moves every dictionary back to its own storage, and returns them in order.
+     */
+    ArrayList<PList> toList() {
+        ArrayList<PList> list = new ArrayList<PList>(Math.max(size, INITIAL_CAPACITY));
+        for (int i = 0; i < size; i++) {
+            rows[i].leaveRecords(this);
+            list.add(rows[i]);
+        }
+        return list;
+    }
+
+    /**
+     * Returns the values of one key for all rows, reading the column directly for the rows with the shared shape.
+     */
+    List<PList> getValues(String key) {
+        List<PList> values = new ArrayList<PList>(size);
+        int column = getColumn(key);
+        for (int i = 0; i < size; i++) {
+            if (column >= 0 && rows[i].isRecordOf(this)) {
+                values.add(columns[column][i]);
+            } else {
+                values.add(rows[i].get(key));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Clears the column values of a row whose dictionary has taken its entries back.
+     */
+    void clearRow(int row) {
+        for (PList[] values : columns) {
+            values[row] = null;
+        }
+    }
+
+    private void place(int row, PListDictionary dictionary) {
+        rows[row] = dictionary;
+        if (dictionary.getClass() == PListDictionary.class && hasShape(dictionary)) {
+            List<PListEntry> entries = dictionary.elements();
+            for (int column = 0; column < keys.length; column++) {
+                columns[column][row] = entries.get(column).getValue();
+            }
+            dictionary.joinRecords(this, row);
+        } else {
+            clearRow(row);
+        }
+    }
+
+    private boolean hasShape(PListDictionary dictionary) {
+        List<PListEntry> entries = dictionary.elements();
+        if (entries.size() != keys.length) {
+            return false;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            String key = entries.get(i).getKey();
+            if (key != keys[i] && !keys[i].equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < size; i++) {
+            rows[i].moveRecord(this, i);
+        }
+    }
+}
@@ -28,10 +28,12 @@ public class PListRoot extends PListAggregate {
 
     private PList rootValue;
     private PListFormat storageFormat;
+    private byte[] source;
 
     public PListRoot(PList rootValue) {
 
         this.rootValue = rootValue;
+        adopt(rootValue);
     }
     
     @Override
@@ -47,24 +49,49 @@ public class PListRoot extends PListAggregate {
     }
 
     @Override
-    public void replaceEntry(PList oldData, PList newData) {
-        if (oldData == rootValue) {
-            rootValue = newData;
+    public int size() {
+        return 1;
+    }
+
+    @Override
+    public String getKey(int index) {
+        getValue(index);
+        return "<plist>";
+    }
+
+    @Override
+    public PList getValue(int index) {
+        if (index != 0) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: 1");
         }
+        return rootValue;
     }
 
     @Override
-    public void deleteEntry(PList oldData) {
-        throw new UnsupportedOperationException("Cannot delete root value");
+    public void set(int index, PList newValue) {
+        PList oldValue = getValue(index);
+        rootValue = newValue;
+        release(oldValue);
+        adopt(newValue);
+        positionReplaced(index, oldValue, newValue);
+        changed();
     }
 
+    /**
+     * Returns the snapshot of the root value.
+     */
     @Override
-    public void insertFirstChild(PList newValue) {
-        throw new UnsupportedOperationException("Cannot set multiple items to root");
+    public PListSnapshot snapshot() {
+        return getState().getValue(0);
+    }
+
+    @Override
+    public void remove(int index) {
+        throw new UnsupportedOperationException("Cannot delete root value");
     }
 
     @Override
-    public void insertAfterChild(PList newValue, PList child) {
+    public void insert(int index, PList newValue) {
         throw new UnsupportedOperationException("Cannot set multiple items to root");
     }
 
@@ -73,6 +100,11 @@ public class PListRoot extends PListAggregate {
         return rootValue.getType();
     }
 
+    @Override
+    protected long computeContentHash() {
+        return rootValue.contentHash();
+    }
+
     public PList getRootValue() {
         return rootValue;
     }
@@ -84,4 +116,15 @@ public class PListRoot extends PListAggregate {
     public PListFormat getStorageFormat() {
         return storageFormat;
     }
+
+    /**
+     * Sets the document this plist was read from. The source ranges of the aggregates refer to it.
+     */
+    public void setSource(byte[] source) {
+        this.source = source;
+    }
+
+    public byte[] getSource() {
+        return source;
+    }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable version of a plist value, see PListAggregate.snapshot().
+ * <p/>
+ * The children of an array or dictionary are kept in a PListVector, and the keys of a dictionary in a
+ * PListVector and a PListHashTrie, so a new version after an edit shares everything but O(log n) nodes
+ * with the previous one. A snapshot never changes, and can be read on any thread while the plist it was
+ * taken from is edited.
+ *
+ * @author Maarten Hazewinkel
+ */
+public final class PListSnapshot {
+    private final PListDataType type;
+
+    /** A private copy of the value, for primitives */
+    private final PListPrimitive primitive;
+
+    /** The children, for arrays and dictionaries */
+    private final PListVector<PListSnapshot> values;
+
+    /** The keys, and the first child for each key, for dictionaries */
+    private final PListVector<String> keys;
+    private final PListHashTrie<PListSnapshot> byKey;
+    private final boolean duplicateKeys;
+
+    private PListSnapshot(PListDataType type, PListPrimitive primitive, PListVector<PListSnapshot> values,
+                          PListVector<String> keys, PListHashTrie<PListSnapshot> byKey, boolean duplicateKeys) {
+        this.type = type;
+        this.primitive = primitive;
+        this.values = values;
+        this.keys = keys;
+        this.byKey = byKey;
+        this.duplicateKeys = duplicateKeys;
+    }
+
+    static PListSnapshot of(PListPrimitive value) {
+        return new PListSnapshot(value.getType(), copy(value), null, null, null, false);
+    }
+
+    /**
+     * Creates the snapshot of an aggregate from the snapshots of its children.
+     */
+    static PListSnapshot of(PListAggregate aggregate) {
+        int size = aggregate.size();
+        List<PListSnapshot> children = new ArrayList<PListSnapshot>(size);
+        for (int i = 0; i < size; i++) {
+            children.add(aggregate.snapshotOf(i));
+        }
+        if (!(aggregate instanceof PListDictionary)) {
+            return new PListSnapshot(PListDataType.Array, null, PListVector.of(children), null, null, false);
+        }
+        List<String> keys = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            keys.add(aggregate.getKey(i));
+        }
+        return dictionary(PListVector.of(children), PListVector.of(keys));
+    }
+
+    private static PListSnapshot dictionary(PListVector<PListSnapshot> values, PListVector<String> keys) {
+        PListHashTrie<PListSnapshot> byKey = PListHashTrie.empty();
+        boolean duplicateKeys = false;
+        List<String> keyList = keys.toList();
+        List<PListSnapshot> valueList = values.toList();
+        for (int i = 0; i < keyList.size(); i++) {
+            if (byKey.containsKey(keyList.get(i))) {
+                duplicateKeys = true;
+            } else {
+                byKey = byKey.put(keyList.get(i), valueList.get(i));
+            }
+        }
+        return new PListSnapshot(PListDataType.Dictionary, null, values, keys, byKey, duplicateKeys);
+    }
+
+    public PListDataType getType() {
+        return type;
+    }
+
+    public boolean isAggregate() {
+        return primitive == null;
+    }
+
+    /**
+     * Returns the number of children, or 0 for a primitive.
+     */
+    public int size() {
+        return values != null ? values.size() : 0;
+    }
+
+    /**
+     * Returns the key of a dictionary entry, or the "Item N" name of an array element.
+     */
+    public String getKey(int index) {
+        if (keys != null) {
+            return keys.get(index);
+        }
+        values.get(index);
+        return "Item " + index;
+    }
+
+    public PListSnapshot getValue(int index) {
+        return values.get(index);
+    }
+
+    /**
+     * Returns the value of the first entry with the key, or null if this is not a dictionary with that key.
+     */
+    public PListSnapshot get(String key) {
+        return byKey != null ? byKey.get(key) : null;
+    }
+
+    public String getAsString() {
+        if (primitive != null) {
+            return primitive.getAsString();
+        }
+        int count = size();
+        return "(" + count + " item" + (count == 1 ? "" : "s") + ")";
+    }
+
+    /**
+     * Creates a new mutable plist with the contents of this snapshot.
+     */
+    public PList toPList() {
+        if (primitive != null) {
+            return copy(primitive);
+        }
+        List<PListSnapshot> children = values.toList();
+        PListAggregate aggregate = type == PListDataType.Dictionary ? new PListDictionary() : new PListArray();
+        List<String> keyList = keys != null ? keys.toList() : null;
+        for (int i = 0; i < children.size(); i++) {
+            aggregate.append(new PListEntry(keyList != null ? keyList.get(i) : null, children.get(i).toPList()));
+        }
+        return aggregate;
+    }
+
+    @Override
+    public String toString() {
+        return "PListSnapshot " + (primitive != null ? primitive.getAsString() : type + " " + values);
+    }
+
+    PListSnapshot withValue(int index, PListSnapshot value) {
+        if (values.get(index) == value) {
+            return this;
+        }
+        PListHashTrie<PListSnapshot> newByKey = byKey;
+        if (keys != null && byKey.get(keys.get(index)) == values.get(index)) {
+            newByKey = byKey.put(keys.get(index), value);
+        }
+        return new PListSnapshot(type, null, values.set(index, value), keys, newByKey, duplicateKeys);
+    }
+
+    PListSnapshot withInserted(int index, String key, PListSnapshot value) {
+        PListVector<PListSnapshot> newValues = values.insert(index, value);
+        if (keys == null) {
+            return new PListSnapshot(type, null, newValues, null, null, false);
+        }
+        PListVector<String> newKeys = keys.insert(index, key);
+        if (duplicateKeys || byKey.containsKey(key)) {
+            return dictionary(newValues, newKeys);
+        }
+        return new PListSnapshot(type, null, newValues, newKeys, byKey.put(key, value), false);
+    }
+
+    PListSnapshot withRemoved(int index) {
+        PListVector<PListSnapshot> newValues = values.remove(index);
+        if (keys == null) {
+            return new PListSnapshot(type, null, newValues, null, null, false);
+        }
+        PListVector<String> newKeys = keys.remove(index);
+        if (duplicateKeys) {
+            return dictionary(newValues, newKeys);
+        }
+        return new PListSnapshot(type, null, newValues, newKeys, byKey.remove(keys.get(index)), false);
+    }
+
+    PListSnapshot withKey(int index, String key) {
+        PListVector<String> newKeys = keys.set(index, key);
+        if (duplicateKeys || byKey.containsKey(key)) {
+            return dictionary(values, newKeys);
+        }
+        PListHashTrie<PListSnapshot> newByKey = byKey.remove(keys.get(index)).put(key, values.get(index));
+        return new PListSnapshot(type, null, values, newKeys, newByKey, false);
+    }
+
+    private static PListPrimitive copy(PListPrimitive value) {
+        switch (value.getType()) {
+            case Boolean:
+                return new PListBoolean(((PListBoolean) value).getValue());
+            case Data:
+                byte[] data = ((PListData) value).getValue();
+                return new PListData(Arrays.copyOf(data, data.length));
+            case Date:
+                return new PListDate(((PListDate) value).getTime());
+            case Integer:
+                return new PListInteger(((PListInteger) value).getValue());
+            case Real:
+                return new PListFloat(((PListFloat) value).getValue());
+            case String:
+                return new PListString(((PListString) value).getValue());
+        }
+        throw new IllegalArgumentException("Not a primitive type " + value.getType());
+    }
+}
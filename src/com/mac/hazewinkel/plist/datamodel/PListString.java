@@ -42,6 +42,12 @@ public class PListString extends PListPrimitive {
             throw new IllegalArgumentException("value cannot be Null");
         }
         value = newValue;
+        changed();
+    }
+
+    @Override
+    public long contentHash() {
+        return PListHash.ofString(PListDataType.String, value);
     }
 
     @Override
@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable sequence with O(log n) access, replacement, insertion and removal at any position.
+ * <p/>
+ * The elements are kept in a weight balanced binary tree, ordered by position. A change returns a new
+ * vector that shares all of the tree with the old one, except the O(log n) nodes on the path to the
+ * changed position, so old versions stay valid and cost little to keep.
+ *
+ * @author Maarten Hazewinkel
+ */
+public final class PListVector<E> {
+    /** Balance parameters of Hirai and Yamamoto, for weights of size + 1 */
+    private static final int DELTA = 3;
+    private static final int RATIO = 2;
+
+    private static final PListVector<Object> EMPTY = new PListVector<Object>(null);
+
+    private final Node<E> root;
+
+    private PListVector(Node<E> root) {
+        this.root = root;
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public static <E> PListVector<E> empty() {
+        return (PListVector<E>) EMPTY;
+    }
+
+    /**
+     * Creates a balanced vector of the elements in O(n).
+     */
+    public static <E> PListVector<E> of(List<? extends E> elements) {
+        return new PListVector<E>(build(elements, 0, elements.size()));
+    }
+
+    public int size() {
+        return size(root);
+    }
+
+    public E get(int index) {
+        checkIndex(index, size());
+        Node<E> node = root;
+        while (true) {
+            int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.value;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    public PListVector<E> set(int index, E value) {
+        checkIndex(index, size());
+        return new PListVector<E>(set(root, index, value));
+    }
+
+    public PListVector<E> insert(int index, E value) {
+        checkIndex(index, size() + 1);
+        return new PListVector<E>(insert(root, index, value));
+    }
+
+    public PListVector<E> append(E value) {
+        return insert(size(), value);
+    }
+
+    public PListVector<E> remove(int index) {
+        checkIndex(index, size());
+        return new PListVector<E>(remove(root, index));
+    }
+
+    public List<E> toList() {
+        List<E> list = new ArrayList<E>(size());
+        addAll(root, list);
+        return list;
+    }
+
+    @Override
+    public String toString() {
+        return toList().toString();
+    }
+
+    private static void checkIndex(int index, int limit) {
+        if (index < 0 || index >= limit) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + limit);
+        }
+    }
+
+    private static <E> Node<E> build(List<? extends E> elements, int start, int end) {
+        if (start == end) {
+            return null;
+        }
+        int middle = (start + end) >>> 1;
+        return new Node<E>(build(elements, start, middle), elements.get(middle), build(elements, middle + 1, end));
+    }
+
+    private static <E> void addAll(Node<E> node, List<E> list) {
+        while (node != null) {
+            addAll(node.left, list);
+            list.add(node.value);
+            node = node.right;
+        }
+    }
+
+    private static <E> Node<E> set(Node<E> node, int index, E value) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return new Node<E>(set(node.left, index, value), node.value, node.right);
+        } else if (index == leftSize) {
+            return new Node<E>(node.left, value, node.right);
+        }
+        return new Node<E>(node.left, node.value, set(node.right, index - leftSize - 1, value));
+    }
+
+    private static <E> Node<E> insert(Node<E> node, int index, E value) {
+        if (node == null) {
+            return new Node<E>(null, value, null);
+        }
+        int leftSize = size(node.left);
+        if (index <= leftSize) {
+            return balance(insert(node.left, index, value), node.value, node.right);
+        }
+        return balance(node.left, node.value, insert(node.right, index - leftSize - 1, value));
+    }
+
+    private static <E> Node<E> remove(Node<E> node, int index) {
+        int leftSize = size(node.left);
+        if (index < leftSize) {
+            return balance(remove(node.left, index), node.value, node.right);
+        } else if (index > leftSize) {
+            return balance(node.left, node.value, remove(node.right, index - leftSize - 1));
+        }
+        if (node.left == null) {
+            return node.right;
+        } else if (node.right == null) {
+            return node.left;
+        } else if (node.left.size > node.right.size) {
+            return balance(remove(node.left, leftSize - 1), last(node.left), node.right);
+        }
+        return balance(node.left, first(node.right), remove(node.right, 0));
+    }
+
+    private static <E> E first(Node<E> node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node.value;
+    }
+
+    private static <E> E last(Node<E> node) {
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node.value;
+    }
+
+    /**
+     * Joins two subtrees whose weights were balanced before one of them grew or shrank by one element.
+     */
+    private static <E> Node<E> balance(Node<E> left, E value, Node<E> right) {
+        int leftWeight = size(left) + 1;
+        int rightWeight = size(right) + 1;
+        if (rightWeight > DELTA * leftWeight) {
+            if (size(right.left) + 1 < RATIO * (size(right.right) + 1)) {
+                return new Node<E>(new Node<E>(left, value, right.left), right.value, right.right);
+            }
+            Node<E> middle = right.left;
+            return new Node<E>(new Node<E>(left, value, middle.left), middle.value,
+                               new Node<E>(middle.right, right.value, right.right));
+        } else if (leftWeight > DELTA * rightWeight) {
+            if (size(left.right) + 1 < RATIO * (size(left.left) + 1)) {
+                return new Node<E>(left.left, left.value, new Node<E>(left.right, value, right));
+            }
+            Node<E> middle = left.right;
+            return new Node<E>(new Node<E>(left.left, left.value, middle.left), middle.value,
+                               new Node<E>(middle.right, value, right));
+        }
+        return new Node<E>(left, value, right);
+    }
+
+    private static int size(Node<?> node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node<E> {
+        final Node<E> left;
+        final E value;
+        final Node<E> right;
+        final int size;
+
+        Node(Node<E> left, E value, Node<E> right) {
+            this.left = left;
+            this.value = value;
+            this.right = right;
+            this.size = size(left) + 1 + size(right);
+        }
+    }
+}
@@ -28,6 +28,7 @@ import com.intellij.ui.ScrollPaneFactory;
 import com.intellij.ui.SimpleTextAttributes;
 import com.mac.hazewinkel.plist.datamodel.*;
 import com.mac.hazewinkel.plist.util.PListConversionUtil;
+import com.mac.hazewinkel.plist.util.PListDiff;
 import com.mac.hazewinkel.plist.util.PListFormat;
 import org.jdesktop.swingx.JXTreeTable;
 
@@ -37,6 +38,8 @@ import javax.swing.table.TableCellRenderer;
 import java.awt.*;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.EventObject;
 
@@ -68,7 +71,14 @@ public class PListEditor {
     }
 
     public PListEditor(byte[] bytes, PListFormat storageFormat, Project project) {
-        loadPList(bytes, storageFormat);
+        this(loadPList(bytes, storageFormat), project);
+        // the whole plist is in memory already, so hashing it as loaded is cheap. A lazily loaded plist
+        // gets its hash at the first save instead, which has to decode all of it anyway.
+        treeTableModel.setModified(false);
+    }
+
+    public PListEditor(PListRoot plist, Project project) {
+        this.plist = plist;
         treeTableModel = new PListJXTreeTableModel(plist, project);
         plistTree = new MyJXTreeTable(treeTableModel);
         plistTree.setClosedIcon(null);
@@ -92,14 +102,40 @@ public class PListEditor {
         plistTree.setScrollView(mainComponent);
     }
 
-    private void loadPList(byte[] bytes, PListFormat storageFormat) {
+    /**
+     * Parses the content of a file, or returns an empty dictionary for an empty file. Does not touch the
+     * editor, so it can run on any thread.
+     */
+    static PListRoot loadPList(byte[] bytes, PListFormat storageFormat) {
+        PListRoot plist;
         if (bytes.length == 0) {
             plist = new PListRoot(new PListDictionary());
             plist.setStorageFormat(PListFormat.FORMAT_XML1);
-            return;
+            return plist;
         }
-        plist = PListConversionUtil.parseToPList(bytes);
+        plist = PListConversionUtil.parseToPList(bytes, storageFormat);
         plist.setStorageFormat(storageFormat);
+        return plist;
+    }
+
+    /**
+     * Changes the plist in place to the new content of the file, through the changes of a diff, so that
+     * the work and the tree updates follow the size of the difference. The plist is then unmodified.
+     */
+    public void reload(PListRoot newPList) {
+        treeTableModel.applyChanges(PListDiff.diff(plist, newPList));
+        plist.setStorageFormat(newPList.getStorageFormat());
+        treeTableModel.setModified(false);
+    }
+
+    /**
+     * Changes the plist to the new content of the file as a whole, for a plist that cannot be compared with it.
+     * The plist is then unmodified.
+     */
+    public void replace(PListRoot newPList) {
+        treeTableModel.replaceRootValue(newPList.getRootValue());
+        plist.setStorageFormat(newPList.getStorageFormat());
+        treeTableModel.setModified(false);
     }
 
     public JComponent getComponent() {
@@ -114,8 +150,12 @@ public class PListEditor {
         return treeTableModel.isModified();
     }
 
-    public byte[] getPListXmlBytes() {
-        return PListConversionUtil.exportPListToXml(plist);
+    public byte[] getPListBytes(PListFormat format) {
+        return PListConversionUtil.exportPList(plist, format);
+    }
+
+    public void writePListXml(OutputStream outputStream) throws IOException {
+        PListConversionUtil.exportPListToXml(plist, outputStream);
     }
 
     public boolean isValidForFormat(PListFormat format) {
@@ -126,6 +166,10 @@ public class PListEditor {
         treeTableModel.setModified(b);
     }
 
+    public PListUndoHistory getUndoHistory() {
+        return treeTableModel.getUndoHistory();
+    }
+
     private static class MyJXTreeTable extends JXTreeTable {
         private MyStringTableCellEditor treeColumnEditor;
 
@@ -219,23 +263,14 @@ public class PListEditor {
 
         public void addRow(int baseRow) {
             PListJXTreeTableNode node = (PListJXTreeTableNode) MyJXTreeTable.this.getValueAt(baseRow, 0);
-            boolean isNodeExpanded = isExpanded(baseRow);
-            PListJXTreeTableNode changedNode = node.addRow(isNodeExpanded);
+            treeTableModel.getUndoHistory().addRow(node, isExpanded(baseRow));
             treeTableModel.setModified(true);
-            if (node.getAllowsChildren() && isNodeExpanded) {
-                treeTableModel.nodesWereInserted(changedNode, new int[]{0});
-            } else {
-                treeTableModel.nodesWereInserted(changedNode, new int[]{changedNode.getIndex(node) + 1});
-            }
         }
 
         public void deleteRow(int baseRow) {
             PListJXTreeTableNode node = (PListJXTreeTableNode) MyJXTreeTable.this.getValueAt(baseRow, 0);
-            int nodeIndex = node.getParent().getIndex(node);
-            if (node.deleteRow()) {
-                treeTableModel.setModified(true);
-                treeTableModel.nodesWereRemoved(node.getParent(), new int[]{nodeIndex}, new PListJXTreeTableNode[]{node});
-            }
+            treeTableModel.getUndoHistory().deleteRow(node);
+            treeTableModel.setModified(true);
         }
 
         @Override
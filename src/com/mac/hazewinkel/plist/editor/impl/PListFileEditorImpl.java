@@ -18,58 +18,268 @@ package com.mac.hazewinkel.plist.editor.impl;
 
 import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
 import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.CommandProcessor;
+import com.intellij.openapi.command.undo.BasicUndoableAction;
+import com.intellij.openapi.command.undo.DocumentReference;
+import com.intellij.openapi.command.undo.DocumentReferenceManager;
+import com.intellij.openapi.command.undo.DocumentReferenceProvider;
+import com.intellij.openapi.command.undo.UndoManager;
+import com.intellij.openapi.command.undo.UnexpectedUndoException;
 import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.fileEditor.FileEditorLocation;
 import com.intellij.openapi.fileEditor.FileEditorState;
 import com.intellij.openapi.fileEditor.FileEditorStateLevel;
 import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.util.UserDataHolderBase;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileListener;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.mac.hazewinkel.plist.datamodel.PListRoot;
 import com.mac.hazewinkel.plist.editor.PListFileEditor;
 import com.mac.hazewinkel.plist.util.PListConversionUtil;
 import com.mac.hazewinkel.plist.util.PListFormat;
+import com.mac.hazewinkel.plist.util.PListFormatSniffer;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 
 import javax.swing.*;
 import java.beans.PropertyChangeListener;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 /**
+ * File editor for a plist file.
+ * <p/>
+ * The edits in the tree are run as commands, and registered with the UndoManager of the project as undoable
+ * actions on the file, each of which undoes or redoes its edit in the PListUndoHistory of the editor.
+ * <p/>
+ * When the file is changed by something else, it is parsed again in the background, and the tree is updated
+ * in place with the differences, see PListEditor.reload(). When the plist has edits that are not saved yet,
+ * the user chooses between reloading the file and keeping the edits, except for a mapped file, which is
+ * always reloaded.
+ *
  * @author Maarten Hazewinkel
  */
-public class PListFileEditorImpl extends UserDataHolderBase implements PListFileEditor {
+public class PListFileEditorImpl extends UserDataHolderBase implements PListFileEditor, DocumentReferenceProvider {
     @NonNls
     private static final String NAME = "pList Editor";
 
+    private final Project project;
     private VirtualFile file;
     private PListEditor editor;
     private PListFormat storageFormat = PListFormat.FORMAT_XML1;
 
+    /** Binary files from this size on are mapped and decoded as the tree is expanded */
+    private static final long LAZY_LOAD_THRESHOLD = 4 * 1024 * 1024;
+
+    private static final String DIGEST_ALGORITHM = "SHA-1";
+
+    /** Discards what is written to it, for digesting output that may not be written */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /** The digest of the file content when it was loaded or last saved, or null if not known yet */
+    private volatile byte[] fileDigest;
+    private ByteBuffer mappedContent;
+
+    /** Counts the reloads started, on the event thread, so that a reload can tell that a newer one was started */
+    private int reloadCount;
+    private boolean disposed;
+
+    private final VirtualFileListener fileListener = new VirtualFileAdapter() {
+        @Override
+        public void contentsChanged(VirtualFileEvent event) {
+            if (event.getFile().equals(file)) {
+                reloadInBackground();
+            }
+        }
+    };
+
     private static List<PListFileEditorImpl> openEditors = new LinkedList<PListFileEditorImpl>();
 
     public PListFileEditorImpl(@NotNull Project project, @NotNull VirtualFile file) {
+        this.project = project;
         this.file = file;
+        mappedContent = mapLargeBinaryFile(file);
+        if (mappedContent != null) {
+            storageFormat = PListFormat.FORMAT_BINARY1;
+            PListRoot plist = PListConversionUtil.parseBinaryToLazyPList(mappedContent);
+            plist.setStorageFormat(storageFormat);
+            this.editor = new PListEditor(plist, project);
+            registerUndo(project);
+            VirtualFileManager.getInstance().addVirtualFileListener(fileListener);
+            openEditors.add(this);
+            return;
+        }
+
         byte[] fileContent;
         try {
             fileContent = file.contentsToByteArray();
             storageFormat = PListConversionUtil.determinePListFormat(fileContent);
-
-            if (storageFormat != PListFormat.FORMAT_XML1) {
-                fileContent = PListConversionUtil.convertPlistToFormat(fileContent, PListFormat.FORMAT_XML1);
-            }
+            fileDigest = newDigest().digest(fileContent);
         } catch (IOException e) {
             Logger.getInstance(PListFileEditorImpl.class).error("Failed to load file '" + file.getPresentableUrl() + '\'', e);
             fileContent = new byte[0];
         }
 
         this.editor = new PListEditor(fileContent, storageFormat, project);
+        registerUndo(project);
+        VirtualFileManager.getInstance().addVirtualFileListener(fileListener);
 
         openEditors.add(this);
     }
 
+    /**
+     * Runs each edit in the tree as a command, in which it is an undoable action for the UndoManager. When the
+     * history of the editor is cleared, the edits before can no longer be undone from the UndoManager either.
+     */
+    private void registerUndo(final Project project) {
+        editor.getUndoHistory().setListener(new PListUndoHistory.Listener() {
+            public void runEdit(String name, Runnable edit) {
+                CommandProcessor.getInstance().executeCommand(project, edit, name, null);
+            }
+
+            public void editRecorded(PListUndoHistory.Edit edit) {
+                UndoManager.getInstance(project).undoableActionPerformed(new PListUndoableAction(edit));
+            }
+
+            public void historyCleared() {
+                UndoManager.getInstance(project).nonundoableActionPerformed(getDocumentReference(), false);
+            }
+        });
+    }
+
+    /**
+     * Reads and parses the file on a pooled thread, and then applies the differences with the plist on the
+     * event thread. Nothing is parsed when the content is what was loaded or saved last, as it is after a save
+     * from this editor. A file that cannot be parsed, for instance because it is still being written, leaves
+     * the plist as it is.
+     */
+    private void reloadInBackground() {
+        final int reload = ++reloadCount;
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                final byte[] newDigest;
+                final PListRoot newPList;
+                try {
+                    byte[] content = file.contentsToByteArray();
+                    newDigest = newDigest().digest(content);
+                    if (MessageDigest.isEqual(newDigest, fileDigest)) {
+                        return;
+                    }
+                    newPList = PListEditor.loadPList(content, PListConversionUtil.determinePListFormat(content));
+                    // hashes the new plist here, so the diff on the event thread only hashes the changed parts
+                    newPList.contentHash();
+                } catch (IOException e) {
+                    Logger.getInstance(PListFileEditorImpl.class).warn("Failed to reload file '" + file.getPresentableUrl() + '\'', e);
+                    return;
+                } catch (IllegalArgumentException e) {
+                    Logger.getInstance(PListFileEditorImpl.class).warn("Failed to reload file '" + file.getPresentableUrl() + '\'', e);
+                    return;
+                }
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    public void run() {
+                        applyReload(reload, newPList, newDigest);
+                    }
+                });
+            }
+        });
+    }
+
+    private void applyReload(int reload, PListRoot newPList, byte[] newDigest) {
+        if (disposed || reload != reloadCount || MessageDigest.isEqual(newDigest, fileDigest)) {
+            return;
+        }
+        if (isModified() && mappedContent != null) {
+            // the parts of the plist that were not decoded yet can only be decoded from the changed file,
+            // so the edits cannot be saved with the rest of the plist as it was
+            Messages.showWarningDialog(project, "The file '" + file.getPresentableUrl()
+                    + "' was changed on disk. The changes in the plist editor cannot be kept, as the parts of the file"
+                    + " that were not read yet have changed too, so the file is reloaded.", "File Changed on Disk");
+            if (disposed || reload != reloadCount) {
+                return;
+            }
+        } else if (isModified()) {
+            int choice = Messages.showYesNoDialog(project, "The file '" + file.getPresentableUrl()
+                    + "' was changed on disk, and the plist editor has changes that are not saved.",
+                                                  "File Changed on Disk", "Reload", "Keep Changes",
+                                                  Messages.getWarningIcon());
+            if (disposed || reload != reloadCount) {
+                return;
+            }
+            if (choice != Messages.YES) {
+                // the next save overwrites the file, as the user chose
+                fileDigest = newDigest;
+                return;
+            }
+        }
+        if (mappedContent != null) {
+            // the parts of the plist that were not decoded yet would be decoded from the changed file
+            editor.replace(newPList);
+        } else {
+            editor.reload(newPList);
+        }
+        storageFormat = newPList.getStorageFormat();
+        fileDigest = newDigest;
+        mappedContent = null;
+    }
+
+    /**
+     * Maps the file into memory if it is a large binary plist on the local file system.
+     * Returns null for anything else, or when mapping fails, so the file is loaded normally. A file
+     * larger than a single mapping can hold is not mapped either, and then fails to load as a whole.
+     */
+    private static ByteBuffer mapLargeBinaryFile(VirtualFile file) {
+        if (!file.isInLocalFileSystem() || file.getLength() < LAZY_LOAD_THRESHOLD) {
+            return null;
+        }
+        try {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file.getPath(), "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    Logger.getInstance(PListFileEditorImpl.class).warn("File '" + file.getPresentableUrl()
+                            + "' is too large to map (" + size + " bytes)");
+                    return null;
+                }
+                MappedByteBuffer content = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                if (PListFormatSniffer.sniff(content).getFormat() != PListFormat.FORMAT_BINARY1) {
+                    return null;
+                }
+                return content;
+            } finally {
+                // the mapping stays valid after the channel is closed
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Logger.getInstance(PListFileEditorImpl.class).warn("Failed to map file '" + file.getPresentableUrl() + '\'', e);
+            return null;
+        }
+    }
+
     @NotNull
     public JComponent getComponent() {
         return editor.getComponent();
@@ -124,8 +334,18 @@ public class PListFileEditorImpl extends UserDataHolderBase implements PListFile
         return null;
     }
 
+    public Collection<DocumentReference> getDocumentReferences() {
+        return Collections.singletonList(getDocumentReference());
+    }
+
+    private DocumentReference getDocumentReference() {
+        return DocumentReferenceManager.getInstance().create(file);
+    }
+
     public void dispose() {
         saveDocument();
+        VirtualFileManager.getInstance().removeVirtualFileListener(fileListener);
+        disposed = true;
         openEditors.remove(this);
     }
 
@@ -135,15 +355,98 @@ public class PListFileEditorImpl extends UserDataHolderBase implements PListFile
         }
     }
 
+    /**
+     * Writes the plist to the file if it was modified. The output is not written when it has the same
+     * digest as the content of the file, so that the file and VFS listeners are left alone when saving
+     * would not change anything. XML is generated twice, once only to digest it and then, if it differs,
+     * streamed to the file, so that it is never held in memory as a whole.
+     */
     private void saveDocument() {
         if (isModified() && isValid()) {
-            byte[] documentData = PListConversionUtil.convertPlistToFormat(editor.getPListXmlBytes(), storageFormat);
             try {
-                file.setBinaryContent(documentData);
+                byte[] documentData = null;
+                byte[] documentDigest;
+                if (PListFormat.FORMAT_XML1.equals(storageFormat)) {
+                    MessageDigest digest = newDigest();
+                    editor.writePListXml(new DigestOutputStream(NULL_OUTPUT, digest));
+                    documentDigest = digest.digest();
+                } else {
+                    documentData = editor.getPListBytes(storageFormat);
+                    if (documentData.length == 0) {
+                        // conversion failed and has been logged. Do not overwrite the file with nothing.
+                        return;
+                    }
+                    documentDigest = newDigest().digest(documentData);
+                }
+                byte[] oldDigest = getFileDigest();
+                if (!MessageDigest.isEqual(documentDigest, oldDigest)) {
+                    // the digest is set first, so that the reload this write triggers finds nothing new
+                    fileDigest = documentDigest;
+                    try {
+                        if (documentData == null) {
+                            OutputStream output = file.getOutputStream(this);
+                            try {
+                                editor.writePListXml(output);
+                            } finally {
+                                output.close();
+                            }
+                        } else {
+                            file.setBinaryContent(documentData);
+                        }
+                    } catch (IOException e) {
+                        fileDigest = oldDigest;
+                        throw e;
+                    }
+                }
+                fileDigest = documentDigest;
                 editor.setModified(false);
             } catch (IOException e) {
                 Logger.getInstance(PListFileEditorImpl.class).error("Failed to save file '" + file.getPresentableUrl() + '\'', e);
             }
         }
     }
+
+    /**
+     * Returns the digest of the file as loaded or last saved. A mapped file is only digested when it is first
+     * saved, so that opening it does not read all of it.
+     */
+    private byte[] getFileDigest() {
+        if (fileDigest == null && mappedContent != null) {
+            MessageDigest digest = newDigest();
+            digest.update(mappedContent.duplicate());
+            fileDigest = digest.digest();
+        }
+        return fileDigest;
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(DIGEST_ALGORITHM + " is not available", e);
+        }
+    }
+
+    private class PListUndoableAction extends BasicUndoableAction {
+        private final PListUndoHistory.Edit edit;
+
+        PListUndoableAction(PListUndoHistory.Edit edit) {
+            super(getDocumentReference());
+            this.edit = edit;
+        }
+
+        public void undo() throws UnexpectedUndoException {
+            if (!editor.getUndoHistory().undo(edit)) {
+                throw new UnexpectedUndoException("This change is no longer in the undo history of the plist");
+            }
+            editor.setModified(true);
+        }
+
+        public void redo() throws UnexpectedUndoException {
+            if (!editor.getUndoHistory().redo(edit)) {
+                throw new UnexpectedUndoException("This change is no longer in the undo history of the plist");
+            }
+            editor.setModified(true);
+        }
+    }
 }
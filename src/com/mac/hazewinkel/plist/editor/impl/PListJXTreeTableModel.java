@@ -17,10 +17,15 @@
 package com.mac.hazewinkel.plist.editor.impl;
 
 import com.intellij.openapi.project.Project;
+import com.mac.hazewinkel.plist.datamodel.PList;
+import com.mac.hazewinkel.plist.datamodel.PListAggregate;
+import com.mac.hazewinkel.plist.datamodel.PListDictionary;
 import com.mac.hazewinkel.plist.datamodel.PListRoot;
+import com.mac.hazewinkel.plist.util.PListDiff;
 import org.jdesktop.swingx.treetable.TreeTableModel;
 
 import javax.swing.tree.DefaultTreeModel;
+import java.util.List;
 
 /**
  * @author Maarten Hazewinkel
@@ -28,15 +33,19 @@ import javax.swing.tree.DefaultTreeModel;
 public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTableModel {
 
     private boolean modified;
+    private boolean savedHashKnown;
+    private long savedHash;
     private PListRoot plist;
     private Project project;
     private PListColumnInfo[] columns;
+    private PListUndoHistory undoHistory;
 
     public PListJXTreeTableModel(PListRoot plist, Project project) {
         super(new PListJXTreeTableNode(plist), true);
         this.plist = plist;
         this.project = project;
         this.columns = getPListColumns(project);
+        this.undoHistory = new PListUndoHistory(this);
     }
 
     private PListColumnInfo[] getPListColumns(Project project) {
@@ -75,12 +84,25 @@ public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTable
         columns[i].setValue((PListJXTreeTableNode) node, value.toString());
     }
 
+    /**
+     * Marks the plist as edited, or as saved. Saving records the content hash of the plist, which the
+     * edits are compared with from then on.
+     */
     public void setModified(boolean b) {
         modified = b;
+        if (!b) {
+            savedHash = plist.contentHash();
+            savedHashKnown = true;
+        }
     }
 
+    /**
+     * Returns whether the plist was edited and differs from what was loaded or saved. Edits that were
+     * reverted, by hand or by undo, leave it unmodified. Until the content hash at load or save is known,
+     * any edit counts as a modification.
+     */
     public boolean isModified() {
-        return modified;
+        return modified && (!savedHashKnown || plist.contentHash() != savedHash);
     }
 
     public Project getProject() {
@@ -91,6 +113,98 @@ public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTable
         return plist;
     }
 
+    /**
+     * Returns the history through which all edits of the plist are made, so that they can be undone.
+     */
+    public PListUndoHistory getUndoHistory() {
+        return undoHistory;
+    }
+
+    /**
+     * Changes the plist by a diff against it, from PListDiff, with an event for each change. The nodes
+     * of the values that stay keep their place in the tree, so only the changed rows are updated and
+     * the rest of the tree stays expanded as it was. The inserted and replacing values are copied.
+     * <p/>
+     * The changes are not recorded in the undo history, which is cleared because its edits no longer
+     * fit the plist.
+     */
+    public void applyChanges(List<PListDiff.Change> changes) {
+        for (PListDiff.Change change : changes) {
+            PListJXTreeTableNode parent = nodeAt(change.getPath());
+            int index = change.getIndex();
+            switch (change.getKind()) {
+                case Insert:
+                    insertChild(parent, index, change.getKey(), PListDiff.copy(change.getValue()));
+                    break;
+                case Delete:
+                    removeChild(parent, index);
+                    break;
+                case Move:
+                    PList moved = parent.getChildAt(index).getPList();
+                    String key = keyOf(parent, index);
+                    removeChild(parent, index);
+                    insertChild(parent, change.getToIndex(), key, moved);
+                    break;
+                case Rename:
+                    PListJXTreeTableNode renamed = parent.getChildAt(index);
+                    if (renamed.setNameAsString(change.getKey())) {
+                        nodeChanged(renamed);
+                    } else {
+                        // the new key is also used by another entry, which renameEntry does not allow
+                        PList value = renamed.getPList();
+                        removeChild(parent, index);
+                        insertChild(parent, index, change.getKey(), value);
+                    }
+                    break;
+                case Replace:
+                    PListJXTreeTableNode replaced = parent.getChildAt(index);
+                    boolean hadChildren = replaced.getAllowsChildren();
+                    replaced.replaceValue(PListDiff.copy(change.getValue()));
+                    if (hadChildren || replaced.getAllowsChildren()) {
+                        nodeStructureChanged(replaced);
+                    } else {
+                        nodeChanged(replaced);
+                    }
+                    break;
+            }
+        }
+        undoHistory.clear();
+    }
+
+    /**
+     * Puts another value in the place of the root value, without reading the old one, and clears the undo history.
+     */
+    public void replaceRootValue(PList value) {
+        PListJXTreeTableNode node = ((PListJXTreeTableNode) getRoot()).getChildAt(0);
+        node.replaceValue(value);
+        nodeStructureChanged(node);
+        undoHistory.clear();
+    }
+
+    private PListJXTreeTableNode nodeAt(int[] path) {
+        PListJXTreeTableNode node = (PListJXTreeTableNode) getRoot();
+        for (int index : path) {
+            node = node.getChildAt(index);
+        }
+        return node;
+    }
+
+    private static String keyOf(PListJXTreeTableNode parent, int index) {
+        PList aggregate = parent.getPList();
+        return aggregate instanceof PListDictionary ? ((PListAggregate) aggregate).getKey(index) : null;
+    }
+
+    private void insertChild(PListJXTreeTableNode parent, int index, String key, PList value) {
+        parent.insertChild(index, key, value);
+        nodesWereInserted(parent, new int[]{index});
+    }
+
+    private void removeChild(PListJXTreeTableNode parent, int index) {
+        PListJXTreeTableNode node = parent.getChildAt(index);
+        parent.removeChild(index);
+        nodesWereRemoved(parent, new int[]{index}, new PListJXTreeTableNode[]{node});
+    }
+
     public static abstract class PListColumnInfo {
         private String name;
         protected Project project;
@@ -136,10 +250,8 @@ public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTable
         @Override
         public void setValue(PListJXTreeTableNode pListTreeNode, String value) {
             try {
-                boolean changed = pListTreeNode.setNameAsString(value);
-                model.setModified(changed);
-                if (changed) {
-                    model.nodeStructureChanged(pListTreeNode.getParent());
+                if (model.getUndoHistory().setName(pListTreeNode, value)) {
+                    model.setModified(true);
                 }
             } catch (Throwable ignored) {
             }
@@ -169,10 +281,8 @@ public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTable
         @Override
         public void setValue(PListJXTreeTableNode pListTreeNode, String value) {
             try {
-                boolean changed = pListTreeNode.changeType(value);
-                model.setModified(changed);
-                if (changed) {
-                    model.nodeStructureChanged(pListTreeNode);
+                if (model.getUndoHistory().changeType(pListTreeNode, value)) {
+                    model.setModified(true);
                 }
             } catch (Throwable ignored) {
             }
@@ -202,10 +312,8 @@ public class PListJXTreeTableModel extends DefaultTreeModel implements TreeTable
         @Override
         public void setValue(PListJXTreeTableNode pListTreeNode, String value) {
             try {
-                boolean changed = pListTreeNode.setAsString(value);
-                model.setModified(changed);
-                if (changed) {
-                    model.nodeChanged(pListTreeNode);
+                if (model.getUndoHistory().setValue(pListTreeNode, value)) {
+                    model.setModified(true);
                 }
             } catch (Throwable ignored) {
             }
@@ -20,37 +20,52 @@ import com.mac.hazewinkel.plist.datamodel.*;
 import com.mac.hazewinkel.plist.util.PListFormat;
 
 import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Vector;
 
 /**
+ * Tree node for a value in the plist.
+ * <p/>
+ * Child nodes are created when the tree first asks for them, and kept, so the tree gets the same node for
+ * a value every time. Each node knows its position in its parent. The edits made through the nodes
+ * update the cached children of the parent in place, so an edit does not rebuild the nodes of its siblings.
+ * <p/>
+ * The name of a child node is looked up in its parent when it is displayed, so that the "Item N" names
+ * of array elements are only created for the rows that are painted.
+ *
  * @author Maarten Hazewinkel
  */
 public class PListJXTreeTableNode implements TreeNode {
     private PList plist;
     private PListJXTreeTableNode parent;
-    private String name;
+    private int childIndex;
+
+    /** The child nodes by position, with null for the children that were not asked for yet */
+    private ArrayList<PListJXTreeTableNode> children;
 
     public PListJXTreeTableNode(PList plist) {
         this.plist = plist;
-        this.name = plist.getClass().getName();
     }
 
-    public PListJXTreeTableNode(PListEntry entry) {
-        this.plist = entry.getValue();
-        this.name = entry.getKey();
-    }
-
-    private void setParent(PListJXTreeTableNode pListJXTreeNode) {
-        parent = pListJXTreeNode;
+    private PListJXTreeTableNode(PList plist, PListJXTreeTableNode parent, int childIndex) {
+        this.plist = plist;
+        this.parent = parent;
+        this.childIndex = childIndex;
     }
 
     public PListJXTreeTableNode getChildAt(int childIndex) {
         if (plist instanceof PListAggregate) {
-            PListEntry entry = ((PListAggregate) plist).elements().get(childIndex);
-            PListJXTreeTableNode child = new PListJXTreeTableNode(entry);
-            child.setParent(this);
+            PListAggregate aggregate = (PListAggregate) plist;
+            if (children == null) {
+                children = new ArrayList<PListJXTreeTableNode>(Collections.<PListJXTreeTableNode>nCopies(aggregate.size(), null));
+            }
+            PListJXTreeTableNode child = children.get(childIndex);
+            if (child == null) {
+                child = new PListJXTreeTableNode(aggregate.getValue(childIndex), this, childIndex);
+                children.set(childIndex, child);
+            }
             return child;
         } else {
             return null;
@@ -59,7 +74,7 @@ public class PListJXTreeTableNode implements TreeNode {
 
     public int getChildCount() {
         if (plist instanceof PListAggregate) {
-            return ((PListAggregate) plist).elements().size();
+            return ((PListAggregate) plist).size();
         } else {
             return 0;
         }
@@ -79,10 +94,9 @@ public class PListJXTreeTableNode implements TreeNode {
     }
 
     public int getIndex(PListJXTreeTableNode node) {
-        for (int i = 0; i < getChildCount(); i++) {
-            if (node.plist == getChildAt(i).plist) {
-                return i;
-            }
+        if (node.parent == this && children != null && node.childIndex < children.size()
+                && children.get(node.childIndex) == node) {
+            return node.childIndex;
         }
         return -1;
     }
@@ -97,17 +111,15 @@ public class PListJXTreeTableNode implements TreeNode {
 
     public Enumeration children() {
         if (plist instanceof PListAggregate) {
-            final Enumeration<PListEntry> plistEnumeration = Collections.enumeration(((PListAggregate) plist).elements());
             return new Enumeration<PListJXTreeTableNode>() {
+                private int index;
+
                 public boolean hasMoreElements() {
-                    return plistEnumeration.hasMoreElements();
+                    return index < getChildCount();
                 }
 
                 public PListJXTreeTableNode nextElement() {
-                    PListEntry entry = plistEnumeration.nextElement();
-                    PListJXTreeTableNode child = new PListJXTreeTableNode(entry);
-                    child.setParent(PListJXTreeTableNode.this);
-                    return child;
+                    return getChildAt(index++);
                 }
             };
         } else {
@@ -116,7 +128,10 @@ public class PListJXTreeTableNode implements TreeNode {
     }
 
     public String getName() {
-        return name;
+        if (parent == null) {
+            return plist.getClass().getName();
+        }
+        return ((PListAggregate) parent.plist).getKey(childIndex);
     }
 
     @Override
@@ -150,8 +165,8 @@ public class PListJXTreeTableNode implements TreeNode {
     }
 
     public boolean setNameAsString(String value) {
-        if (isNameEditable() && value != null && !value.equals(name)) {
-            return ((PListDictionary) parent.plist).renameEntry(name, value);
+        if (isNameEditable() && value != null && !value.equals(getName())) {
+            return ((PListDictionary) parent.plist).renameEntry(getName(), value);
         }
         return false;
     }
@@ -171,23 +186,96 @@ public class PListJXTreeTableNode implements TreeNode {
             }
         } catch (IllegalArgumentException ignored) {
         }
-        ((PListAggregate) parent.plist).replaceEntry(plist, newData);
+        replaceValue(newData);
         return true;
     }
 
     public PListJXTreeTableNode addRow(boolean nodeWasExpanded) {
         PList newValue = PListDataType.String.createDataTypeInstance();
         if (getAllowsChildren() && nodeWasExpanded) {
-            ((PListAggregate)plist).insertFirstChild(newValue);
+            insertChild(0, null, newValue);
             return this;
         }
 
-        ((PListAggregate)parent.plist).insertAfterChild(newValue, plist);
+        parent.insertChild(childIndex + 1, null, newValue);
         return parent;
     }
 
     public boolean deleteRow() {
-        ((PListAggregate) parent.plist).deleteEntry(plist);
+        parent.removeChild(childIndex);
         return true;
     }
+
+    PList getPList() {
+        return plist;
+    }
+
+    int getChildIndex() {
+        return childIndex;
+    }
+
+    /**
+     * Returns the positions of this node and its ancestors, from the child of the root down to this node.
+     */
+    int[] getPath() {
+        int depth = 0;
+        for (PListJXTreeTableNode node = this; node.parent != null; node = node.parent) {
+            depth++;
+        }
+        int[] path = new int[depth];
+        for (PListJXTreeTableNode node = this; node.parent != null; node = node.parent) {
+            path[--depth] = node.childIndex;
+        }
+        return path;
+    }
+
+    /**
+     * Puts another value in the place of the value of this node. The node stays in the tree and shows
+     * the new value, which has no child nodes yet.
+     */
+    void replaceValue(PList newData) {
+        ((PListAggregate) parent.plist).set(childIndex, newData);
+        plist = newData;
+        children = null;
+    }
+
+    /**
+     * Inserts a value at the index. A dictionary stores it under the key, or under a new key if key is null.
+     */
+    void insertChild(int index, String key, PList value) {
+        if (key != null && plist instanceof PListDictionary) {
+            ((PListDictionary) plist).insert(index, key, value);
+        } else {
+            ((PListAggregate) plist).insert(index, value);
+        }
+        childInserted(index);
+    }
+
+    void removeChild(int index) {
+        ((PListAggregate) plist).remove(index);
+        childRemoved(index);
+    }
+
+    private void childInserted(int index) {
+        if (children != null) {
+            children.add(index, null);
+            renumberChildren(index + 1);
+        }
+    }
+
+    private void childRemoved(int index) {
+        if (children != null) {
+            children.remove(index);
+            renumberChildren(index);
+        }
+    }
+
+    private void renumberChildren(int from) {
+        for (int i = from; i < children.size(); i++) {
+            PListJXTreeTableNode child = children.get(i);
+            if (child != null) {
+                child.childIndex = i;
+            }
+        }
+    }
 }
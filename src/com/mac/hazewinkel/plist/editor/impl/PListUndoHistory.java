@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.editor.impl;
+
+import com.mac.hazewinkel.plist.datamodel.PList;
+import com.mac.hazewinkel.plist.datamodel.PListAggregate;
+import com.mac.hazewinkel.plist.datamodel.PListDictionary;
+import com.mac.hazewinkel.plist.util.PListDiff;
+
+import javax.swing.tree.DefaultTreeModel;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Performs the edits of the tree editor, and keeps what is needed to undo and redo them.
+ * <p/>
+ * Each edit is recorded as the position of the changed node and the values before and after, not as a copy
+ * of the tree, so undoing or redoing it costs as much as the edit itself. A removed or replaced value is kept
+ * as it is, and put back as the same instance. A changed primitive is kept as a copy of its value before and
+ * after, and put back as a new copy. Consecutive changes to the value of the same node are merged into one edit.
+ * <p/>
+ * The history keeps edits up to a memory budget, estimated from the values that the edits keep, including
+ * everything in a removed aggregate. When it grows beyond the budget, the oldest edits are dropped.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListUndoHistory {
+    public static final long DEFAULT_MEMORY_BUDGET = 4 * 1024 * 1024;
+
+    private static final int EDIT_SIZE = 48;
+    private static final int STRING_SIZE = 40;
+    private static final int VALUE_SIZE = 24;
+    private static final int CHILD_SIZE = 32;
+
+    /**
+     * Runs each edit of the tree, and is told about each edit that is added to the history, but not about edits
+     * that are merged into the last one.
+     */
+    public interface Listener {
+        /**
+         * Runs the edit, which is recorded while it runs.
+         */
+        void runEdit(String name, Runnable edit);
+
+        void editRecorded(Edit edit);
+
+        /**
+         * Is told that the edits recorded before can no longer be undone.
+         */
+        void historyCleared();
+    }
+
+    private interface Operation {
+        boolean perform();
+    }
+
+    private final DefaultTreeModel model;
+    private final LinkedList<Edit> undoStack = new LinkedList<Edit>();
+    private final LinkedList<Edit> redoStack = new LinkedList<Edit>();
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long memoryUsed;
+
+    /** The last edit, while it can still take in the next one */
+    private Edit open;
+    private Listener listener;
+
+    /**
+     * @param model a model whose root is a PListJXTreeTableNode
+     */
+    public PListUndoHistory(DefaultTreeModel model) {
+        this.model = model;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+        trim();
+    }
+
+    public long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    public boolean setValue(final PListJXTreeTableNode node, final String value) {
+        return runEdit("Change Value", new Operation() {
+            public boolean perform() {
+                PList oldValue = PListDiff.copy(node.getPList());
+                if (!node.setAsString(value)) {
+                    return false;
+                }
+                model.nodeChanged(node);
+                record(new ValueEdit(node.getPath(), oldValue, PListDiff.copy(node.getPList())));
+                return true;
+            }
+        });
+    }
+
+    public boolean setName(final PListJXTreeTableNode node, final String name) {
+        return runEdit("Rename", new Operation() {
+            public boolean perform() {
+                String oldName = node.getName();
+                if (!node.setNameAsString(name)) {
+                    return false;
+                }
+                // a rename keeps the entry in its place, so only this row changes
+                model.nodeChanged(node);
+                record(new NameEdit(node.getPath(), oldName, name));
+                return true;
+            }
+        });
+    }
+
+    public boolean changeType(final PListJXTreeTableNode node, final String type) {
+        return runEdit("Change Type", new Operation() {
+            public boolean perform() {
+                PList oldValue = node.getPList();
+                if (!node.changeType(type)) {
+                    return false;
+                }
+                model.nodeStructureChanged(node);
+                record(new TypeEdit(node.getPath(), oldValue, node.getPList()));
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Adds a row as the first child of the node if it is expanded, or after the node otherwise.
+     */
+    public void addRow(final PListJXTreeTableNode node, final boolean nodeWasExpanded) {
+        runEdit("Add Row", new Operation() {
+            public boolean perform() {
+                PListJXTreeTableNode changedNode = node.addRow(nodeWasExpanded);
+                int index = changedNode == node ? 0 : node.getChildIndex() + 1;
+                model.nodesWereInserted(changedNode, new int[]{index});
+                record(new RowEdit(changedNode.getPath(), index, changedNode.getChildAt(index), true));
+                return true;
+            }
+        });
+    }
+
+    public void deleteRow(final PListJXTreeTableNode node) {
+        runEdit("Delete Row", new Operation() {
+            public boolean perform() {
+                PListJXTreeTableNode parent = node.getParent();
+                int index = node.getChildIndex();
+                RowEdit edit = new RowEdit(parent.getPath(), index, node, false);
+                node.deleteRow();
+                model.nodesWereRemoved(parent, new int[]{index}, new PListJXTreeTableNode[]{node});
+                record(edit);
+                return true;
+            }
+        });
+    }
+
+    public boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    public void undo() {
+        if (canUndo()) {
+            undo(undoStack.getLast());
+        }
+    }
+
+    public void redo() {
+        if (canRedo()) {
+            redo(redoStack.getLast());
+        }
+    }
+
+    /**
+     * Undoes the edit if it is the last one done, and returns false otherwise.
+     */
+    public boolean undo(Edit edit) {
+        if (undoStack.isEmpty() || undoStack.getLast() != edit) {
+            return false;
+        }
+        undoStack.removeLast();
+        open = null;
+        edit.undo(this);
+        redoStack.add(edit);
+        return true;
+    }
+
+    /**
+     * Redoes the edit if it is the last one undone, and returns false otherwise.
+     */
+    public boolean redo(Edit edit) {
+        if (redoStack.isEmpty() || redoStack.getLast() != edit) {
+            return false;
+        }
+        redoStack.removeLast();
+        open = null;
+        edit.redo(this);
+        undoStack.add(edit);
+        return true;
+    }
+
+    /**
+     * Forgets all edits, for when the plist is replaced.
+     */
+    public void clear() {
+        undoStack.clear();
+        redoStack.clear();
+        memoryUsed = 0;
+        open = null;
+        if (listener != null) {
+            listener.historyCleared();
+        }
+    }
+
+    private boolean runEdit(String name, final Operation operation) {
+        if (listener == null) {
+            return operation.perform();
+        }
+        final boolean[] performed = new boolean[1];
+        listener.runEdit(name, new Runnable() {
+            public void run() {
+                performed[0] = operation.perform();
+            }
+        });
+        return performed[0];
+    }
+
+    private void record(Edit edit) {
+        for (Edit undone : redoStack) {
+            memoryUsed -= undone.size;
+        }
+        redoStack.clear();
+        if (open != null && open.merge(edit)) {
+            memoryUsed += open.resize(memoryBudget);
+            trim();
+            return;
+        }
+        edit.resize(memoryBudget);
+        memoryUsed += edit.size;
+        undoStack.add(edit);
+        open = edit;
+        trim();
+        if (listener != null) {
+            listener.editRecorded(edit);
+        }
+    }
+
+    /**
+     * Drops the oldest edits until the history fits in the budget, always keeping the last edit.
+     */
+    private void trim() {
+        while (memoryUsed > memoryBudget && undoStack.size() > 1) {
+            memoryUsed -= undoStack.removeFirst().size;
+        }
+    }
+
+    private PListJXTreeTableNode nodeAt(int[] path) {
+        PListJXTreeTableNode node = (PListJXTreeTableNode) model.getRoot();
+        for (int index : path) {
+            node = node.getChildAt(index);
+        }
+        return node;
+    }
+
+    /**
+     * Puts a copy of the primitive in place of the value of the node, so that the history keeps its own.
+     */
+    private void applyValue(int[] path, PList value) {
+        PListJXTreeTableNode node = nodeAt(path);
+        node.replaceValue(PListDiff.copy(value));
+        model.nodeChanged(node);
+    }
+
+    private void applyName(int[] path, String name) {
+        PListJXTreeTableNode node = nodeAt(path);
+        node.setNameAsString(name);
+        model.nodeChanged(node);
+    }
+
+    private void applyType(int[] path, PList value) {
+        PListJXTreeTableNode node = nodeAt(path);
+        node.replaceValue(value);
+        model.nodeStructureChanged(node);
+    }
+
+    private void applyInsert(int[] parentPath, int index, String key, PList value) {
+        PListJXTreeTableNode parent = nodeAt(parentPath);
+        parent.insertChild(index, key, value);
+        model.nodesWereInserted(parent, new int[]{index});
+    }
+
+    private void applyRemove(int[] parentPath, int index) {
+        PListJXTreeTableNode parent = nodeAt(parentPath);
+        PListJXTreeTableNode node = parent.getChildAt(index);
+        parent.removeChild(index);
+        model.nodesWereRemoved(parent, new int[]{index}, new PListJXTreeTableNode[]{node});
+    }
+
+    private static long stringSize(String value) {
+        return STRING_SIZE + 2L * value.length();
+    }
+
+    /**
+     * Estimates the memory a value keeps, with everything in it. The count stops once it is over the limit,
+     * as an edit that size is dropped as soon as another one is recorded anyway.
+     */
+    private static long valueSize(PList value, long limit) {
+        if (!(value instanceof PListAggregate)) {
+            return VALUE_SIZE + stringSize(value.getAsString());
+        }
+        PListAggregate aggregate = (PListAggregate) value;
+        long size = VALUE_SIZE;
+        for (int i = 0; i < aggregate.size() && size <= limit; i++) {
+            size += CHILD_SIZE + valueSize(aggregate.getValue(i), limit - size);
+        }
+        return size;
+    }
+
+    /**
+     * One undoable change, identified by the positions of the changed node in the tree.
+     */
+    public static abstract class Edit {
+        protected final int[] path;
+        private long size;
+
+        protected Edit(int[] path) {
+            this.path = path;
+        }
+
+        protected abstract void undo(PListUndoHistory history);
+
+        protected abstract void redo(PListUndoHistory history);
+
+        protected abstract long estimateSize(long limit);
+
+        /**
+         * Takes in the next edit, if the two can be undone as one.
+         */
+        protected boolean merge(Edit next) {
+            return false;
+        }
+
+        /**
+         * Updates the size of this edit, and returns by how much it grew.
+         */
+        private long resize(long limit) {
+            long oldSize = size;
+            size = EDIT_SIZE + 4L * path.length + estimateSize(limit);
+            return size - oldSize;
+        }
+    }
+
+    private static class ValueEdit extends Edit {
+        private final PList oldValue;
+        private PList newValue;
+
+        ValueEdit(int[] path, PList oldValue, PList newValue) {
+            super(path);
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        @Override
+        protected void undo(PListUndoHistory history) {
+            history.applyValue(path, oldValue);
+        }
+
+        @Override
+        protected void redo(PListUndoHistory history) {
+            history.applyValue(path, newValue);
+        }
+
+        @Override
+        protected long estimateSize(long limit) {
+            return valueSize(oldValue, limit) + valueSize(newValue, limit);
+        }
+
+        @Override
+        protected boolean merge(Edit next) {
+            if (next instanceof ValueEdit && Arrays.equals(path, next.path)) {
+                newValue = ((ValueEdit) next).newValue;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static class NameEdit extends Edit {
+        private final String oldName;
+        private final String newName;
+
+        NameEdit(int[] path, String oldName, String newName) {
+            super(path);
+            this.oldName = oldName;
+            this.newName = newName;
+        }
+
+        @Override
+        protected void undo(PListUndoHistory history) {
+            history.applyName(path, oldName);
+        }
+
+        @Override
+        protected void redo(PListUndoHistory history) {
+            history.applyName(path, newName);
+        }
+
+        @Override
+        protected long estimateSize(long limit) {
+            return stringSize(oldName) + stringSize(newName);
+        }
+    }
+
+    private static class TypeEdit extends Edit {
+        private final PList oldValue;
+        private final PList newValue;
+
+        TypeEdit(int[] path, PList oldValue, PList newValue) {
+            super(path);
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        @Override
+        protected void undo(PListUndoHistory history) {
+            history.applyType(path, oldValue);
+        }
+
+        @Override
+        protected void redo(PListUndoHistory history) {
+            history.applyType(path, newValue);
+        }
+
+        @Override
+        protected long estimateSize(long limit) {
+            return valueSize(oldValue, limit) + valueSize(newValue, limit);
+        }
+    }
+
+    /**
+     * An added or deleted row, with the key and value of the row so it can be put back as it was.
+     */
+    private static class RowEdit extends Edit {
+        private final int index;
+        private final String key;
+        private final PList value;
+        private final boolean added;
+
+        RowEdit(int[] parentPath, int index, PListJXTreeTableNode node, boolean added) {
+            super(parentPath);
+            this.index = index;
+            this.key = node.getParent().getPList() instanceof PListDictionary ? node.getName() : null;
+            this.value = node.getPList();
+            this.added = added;
+        }
+
+        @Override
+        protected void undo(PListUndoHistory history) {
+            if (added) {
+                history.applyRemove(path, index);
+            } else {
+                history.applyInsert(path, index, key, value);
+            }
+        }
+
+        @Override
+        protected void redo(PListUndoHistory history) {
+            if (added) {
+                history.applyInsert(path, index, key, value);
+            } else {
+                history.applyRemove(path, index);
+            }
+        }
+
+        @Override
+        protected long estimateSize(long limit) {
+            return (key != null ? stringSize(key) : 0) + valueSize(value, limit);
+        }
+    }
+}
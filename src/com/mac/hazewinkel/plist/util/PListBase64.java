@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base64 codec for the content of &lt;data&gt; elements, working on buffer ranges instead of Strings.
+ * <p/>
+ * Decoding skips whitespace, padding and any other characters outside the base64 alphabet, as
+ * CoreFoundation does. Encoding writes into a caller supplied buffer, so lines can go straight to the output.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListBase64 {
+    private static final byte[] ALPHABET = new byte[64];
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < VALUES.length; i++) {
+            VALUES[i] = -1;
+        }
+        for (int i = 0; i < ALPHABET.length; i++) {
+            ALPHABET[i] = (byte) alphabet.charAt(i);
+            VALUES[alphabet.charAt(i)] = (byte) i;
+        }
+    }
+
+    private PListBase64() {}
+
+    /**
+     * Decodes a complete byte range. The result is allocated at its exact size.
+     */
+    public static byte[] decode(byte[] bytes, int start, int end) {
+        int count = 0;
+        for (int i = start; i < end; i++) {
+            if (valueOf(bytes[i]) >= 0) {
+                count++;
+            }
+        }
+        byte[] result = new byte[count * 3 / 4];
+        int accumulator = 0;
+        int bits = 0;
+        int output = 0;
+        for (int i = start; i < end && output < result.length; i++) {
+            int value = valueOf(bytes[i]);
+            if (value >= 0) {
+                accumulator = (accumulator << 6) | value;
+                bits += 6;
+                if (bits >= 8) {
+                    bits -= 8;
+                    result[output++] = (byte) (accumulator >> bits);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of characters encode() produces for the given number of bytes.
+     */
+    public static int getEncodedLength(int length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    /**
+     * Encodes length bytes from data into out, with padding, and returns the number of characters written.
+     * Any length that is a multiple of 3 can be used to encode a long value in consecutive pieces.
+     */
+    public static int encode(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        int end = offset + length;
+        int output = outOffset;
+        int i = offset;
+        for (; i + 2 < end; i += 3) {
+            int group = ((data[i] & 0xFF) << 16) | ((data[i + 1] & 0xFF) << 8) | (data[i + 2] & 0xFF);
+            out[output++] = ALPHABET[group >> 18];
+            out[output++] = ALPHABET[(group >> 12) & 0x3F];
+            out[output++] = ALPHABET[(group >> 6) & 0x3F];
+            out[output++] = ALPHABET[group & 0x3F];
+        }
+        if (i < end) {
+            int group = (data[i] & 0xFF) << 16;
+            if (i + 1 < end) {
+                group |= (data[i + 1] & 0xFF) << 8;
+            }
+            out[output++] = ALPHABET[group >> 18];
+            out[output++] = ALPHABET[(group >> 12) & 0x3F];
+            out[output++] = i + 1 < end ? ALPHABET[(group >> 6) & 0x3F] : (byte) '=';
+            out[output++] = '=';
+        }
+        return output - outOffset;
+    }
+
+    private static int valueOf(int c) {
+        return c >= 0 && c < VALUES.length ? VALUES[c] : -1;
+    }
+
+    /**
+     * Decodes base64 text that arrives in pieces, such as the character chunks from a SAX parser.
+     * <p/>
+     * The output is collected in growing blocks, so no copy of the encoded text is kept and the
+     * decoded bytes are copied only once, into the result of finish().
+     */
+    public static class Decoder {
+        private static final int FIRST_BLOCK_SIZE = 256;
+        private static final int MAX_BLOCK_SIZE = 64 * 1024;
+
+        private final List<byte[]> fullBlocks = new ArrayList<byte[]>();
+        private byte[] block = new byte[FIRST_BLOCK_SIZE];
+        private int blockCount;
+        private int totalCount;
+        private int accumulator;
+        private int bits;
+
+        public void decode(char[] chars, int start, int length) {
+            int end = start + length;
+            for (int i = start; i < end; i++) {
+                int value = valueOf(chars[i]);
+                if (value >= 0) {
+                    add(value);
+                }
+            }
+        }
+
+        public void decode(byte[] bytes, int start, int length) {
+            int end = start + length;
+            for (int i = start; i < end; i++) {
+                int value = valueOf(bytes[i]);
+                if (value >= 0) {
+                    add(value);
+                }
+            }
+        }
+
+        private void add(int value) {
+            accumulator = (accumulator << 6) | value;
+            bits += 6;
+            if (bits >= 8) {
+                bits -= 8;
+                if (blockCount == block.length) {
+                    fullBlocks.add(block);
+                    block = new byte[Math.min(block.length * 2, MAX_BLOCK_SIZE)];
+                    blockCount = 0;
+                }
+                block[blockCount++] = (byte) (accumulator >> bits);
+                totalCount++;
+            }
+        }
+
+        public byte[] finish() {
+            byte[] result = new byte[totalCount];
+            int position = 0;
+            for (byte[] fullBlock : fullBlocks) {
+                System.arraycopy(fullBlock, 0, result, position, fullBlock.length);
+                position += fullBlock.length;
+            }
+            System.arraycopy(block, 0, result, position, blockCount);
+            return result;
+        }
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.jetbrains.annotations.NonNls;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes a binary property list (bplist00) straight from a ByteBuffer, without going through plutil.
+ * <p/>
+ * Only absolute buffer access is used, so the buffer position is never changed. Objects that are
+ * referenced more than once in the object table are decoded into separate PList instances, as the
+ * editor relies on each node in the tree being a distinct object. Strings, which are immutable, are shared
+ * through a PListStringPool instead.
+ * <p/>
+ * With readLazy() arrays and dictionaries are not decoded up front. Their children are decoded when
+ * the editor first asks for them, so the buffer must stay valid and unchanged while the result is in use.
+ * <p/>
+ * With readParallel() the offset table is used to split the children of large arrays and dictionaries
+ * into ranges that are decoded on an executor. Reads from the buffer are absolute, so the ranges can be
+ * decoded concurrently, and the result is the same as that of read().
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryReader {
+    @NonNls
+    static final String BINARY_MAGIC = "bplist0";
+    static final int HEADER_SIZE = 8;
+    static final int TRAILER_SIZE = 32;
+
+    /** Seconds between 1970-01-01 (Java epoch) and 2001-01-01 (Core Foundation epoch) */
+    static final long CF_EPOCH_OFFSET_SECONDS = 978307200L;
+
+    private static final int MAX_DEPTH = 512;
+
+    /** Arrays and dictionaries with fewer children are always decoded on the calling thread */
+    static final int PARALLEL_THRESHOLD = 4096;
+    private static final int MIN_CHUNK_SIZE = 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final ByteBuffer buffer;
+    private final PListStringPool stringPool;
+    private int offsetSize;
+    private int objectRefSize;
+    private int objectCount;
+    private int topObject;
+    private int offsetTableOffset;
+    private boolean lazy;
+    private ExecutorService executor;
+    private int parallelism;
+
+    public PListBinaryReader(ByteBuffer buffer) {
+        this(buffer, new PListStringPool());
+    }
+
+    public PListBinaryReader(ByteBuffer buffer, PListStringPool stringPool) {
+        this.buffer = buffer;
+        this.stringPool = stringPool;
+    }
+
+    public PList read() {
+        readTrailer();
+        return readObject(topObject, 0, false);
+    }
+
+    public PList readLazy() {
+        lazy = true;
+        return read();
+    }
+
+    /**
+     * Decodes the whole plist like read(), using the executor for arrays and dictionaries with at least
+     * PARALLEL_THRESHOLD children. Their children are split into about CHUNKS_PER_THREAD ranges per thread,
+     * and the calling thread decodes the first range itself. Aggregates nested within a range are decoded
+     * sequentially by the thread that decodes the range, so tasks never wait for other tasks.
+     *
+     * @param parallelism the number of threads of the executor
+     */
+    public PList readParallel(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = Math.max(parallelism, 1);
+        readTrailer();
+        return readObject(topObject, 0, true);
+    }
+
+    private void readTrailer() {
+        int limit = buffer.limit();
+        if (limit < HEADER_SIZE + TRAILER_SIZE) {
+            throw new IllegalArgumentException("Cannot parse binary plist: file too short");
+        }
+        for (int i = 0; i < BINARY_MAGIC.length(); i++) {
+            if (buffer.get(i) != BINARY_MAGIC.charAt(i)) {
+                throw new IllegalArgumentException("Cannot parse binary plist: missing bplist0 header");
+            }
+        }
+
+        int trailer = limit - TRAILER_SIZE;
+        offsetSize = buffer.get(trailer + 6) & 0xFF;
+        objectRefSize = buffer.get(trailer + 7) & 0xFF;
+        objectCount = checkedInt(buffer.getLong(trailer + 8), "object count");
+        topObject = checkedInt(buffer.getLong(trailer + 16), "top object");
+        offsetTableOffset = checkedInt(buffer.getLong(trailer + 24), "offset table offset");
+
+        if (offsetSize < 1 || offsetSize > 8 || objectRefSize < 1 || objectRefSize > 8) {
+            throw new IllegalArgumentException("Cannot parse binary plist: invalid trailer");
+        }
+        if (topObject >= objectCount
+                || offsetTableOffset < HEADER_SIZE
+                || (long) offsetTableOffset + (long) objectCount * offsetSize > trailer) {
+            throw new IllegalArgumentException("Cannot parse binary plist: invalid trailer");
+        }
+    }
+
+    private PList readObject(int ref, int depth, boolean mayFork) {
+        if (depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Cannot parse binary plist: nesting too deep or cyclic");
+        }
+        int offset = getObjectOffset(ref);
+        int marker = buffer.get(offset) & 0xFF;
+        int objectType = marker & 0xF0;
+        int objectInfo = marker & 0x0F;
+
+        switch (objectType) {
+            case 0x00:
+                if (marker == 0x08) {
+                    return new PListBoolean(false);
+                } else if (marker == 0x09) {
+                    return new PListBoolean(true);
+                }
+                throw new IllegalArgumentException("Cannot parse binary plist: unsupported object 0x" + Integer.toHexString(marker));
+            case 0x10:
+                return new PListInteger(readInteger(offset + 1, objectInfo));
+            case 0x20:
+                return new PListFloat(readReal(offset + 1, objectInfo));
+            case 0x30:
+                if (marker != 0x33) {
+                    throw new IllegalArgumentException("Cannot parse binary plist: invalid date marker");
+                }
+                checkRange(offset + 1, 8);
+                return new PListDate(toJavaMillis(buffer.getDouble(offset + 1)));
+            case 0x40: {
+                int start = offset + 1;
+                int length = objectInfo;
+                if (objectInfo == 0x0F) {
+                    length = readCount(start);
+                    start += getCountSize(start);
+                }
+                checkRange(start, length);
+                byte[] data = new byte[length];
+                for (int i = 0; i < length; i++) {
+                    data[i] = buffer.get(start + i);
+                }
+                return new PListData(data);
+            }
+            case 0x50:
+            case 0x60:
+                return new PListString(readString(offset));
+            case 0x80: {
+                PListDictionary uid = new PListDictionary();
+                uid.append(new PListEntry("CF$UID", new PListInteger(readSizedInt(offset + 1, objectInfo + 1))));
+                return uid;
+            }
+            case 0xA0:
+            case 0xC0: {
+                int start = offset + 1;
+                int count = objectInfo;
+                if (objectInfo == 0x0F) {
+                    count = readCount(start);
+                    start += getCountSize(start);
+                }
+                checkRange(start, (long) count * objectRefSize);
+                if (lazy) {
+                    return new PListLazyArray(this, start, count, depth);
+                }
+                PListArray array = new PListArray();
+                if (mayFork && executor != null && count >= PARALLEL_THRESHOLD) {
+                    PList[] children = readChildrenParallel(start, count, depth, true);
+                    for (int i = 0; i < count; i++) {
+                        if (children[i] != null) {
+                            array.append(new PListEntry(null, children[i]));
+                        } else {
+                            readElement(array, readObjectRef(start + i * objectRefSize), depth + 1, false);
+                        }
+                    }
+                    return array;
+                }
+                for (int i = 0; i < count; i++) {
+                    readElement(array, readObjectRef(start + i * objectRefSize), depth + 1, mayFork);
+                }
+                return array;
+            }
+            case 0xD0: {
+                int start = offset + 1;
+                int count = objectInfo;
+                if (objectInfo == 0x0F) {
+                    count = readCount(start);
+                    start += getCountSize(start);
+                }
+                checkRange(start, 2L * count * objectRefSize);
+                if (lazy) {
+                    return new PListLazyDictionary(this, start, count, depth);
+                }
+                PListDictionary dictionary = new PListDictionary();
+                int valuesStart = start + count * objectRefSize;
+                if (mayFork && executor != null && count >= PARALLEL_THRESHOLD) {
+                    PList[] values = readChildrenParallel(valuesStart, count, depth, false);
+                    for (int i = 0; i < count; i++) {
+                        dictionary.append(new PListEntry(readChildKey(start, i), values[i]));
+                    }
+                    return dictionary;
+                }
+                for (int i = 0; i < count; i++) {
+                    int keyRef = readObjectRef(start + i * objectRefSize);
+                    int valueRef = readObjectRef(valuesStart + i * objectRefSize);
+                    dictionary.append(new PListEntry(readKey(keyRef), readObject(valueRef, depth + 1, mayFork)));
+                }
+                return dictionary;
+            }
+            default:
+                throw new IllegalArgumentException("Cannot parse binary plist: unsupported object 0x" + Integer.toHexString(marker));
+        }
+    }
+
+    /**
+     * Decodes an array element. Numbers and booleans go into the packed storage of the array without a wrapper.
+     */
+    private void readElement(PListArray array, int ref, int depth, boolean mayFork) {
+        int offset = getObjectOffset(ref);
+        int marker = buffer.get(offset) & 0xFF;
+        if ((marker & 0xF0) == 0x10) {
+            array.appendLong(readInteger(offset + 1, marker & 0x0F));
+        } else if ((marker & 0xF0) == 0x20) {
+            array.appendDouble(readReal(offset + 1, marker & 0x0F));
+        } else if (marker == 0x08 || marker == 0x09) {
+            array.appendBoolean(marker == 0x09);
+        } else {
+            array.append(new PListEntry(null, readObject(ref, depth, mayFork)));
+        }
+    }
+
+    /**
+     * Decodes a single child of an array or dictionary whose object references start at refsStart.
+     * For dictionaries the value references follow the count key references.
+     */
+    PList readChild(int refsStart, int index, int depth) {
+        return readObject(readObjectRef(refsStart + index * objectRefSize), depth + 1, false);
+    }
+
+    /**
+     * Decodes the children in ranges on the executor. With skipPacked, the numbers and booleans are left out,
+     * as null, so that the array can pack them as it does in read().
+     */
+    private PList[] readChildrenParallel(final int refsStart, int count, final int depth, final boolean skipPacked) {
+        final PList[] children = new PList[count];
+        int chunkSize = Math.max(MIN_CHUNK_SIZE, (count + parallelism * CHUNKS_PER_THREAD - 1) / (parallelism * CHUNKS_PER_THREAD));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (int chunkStart = chunkSize; chunkStart < count; chunkStart += chunkSize) {
+                final int from = chunkStart;
+                final int to = Math.min(chunkStart + chunkSize, count);
+                futures.add(executor.submit(new Callable<Object>() {
+                    public Object call() {
+                        readChildren(refsStart, from, to, depth, skipPacked, children);
+                        return null;
+                    }
+                }));
+            }
+            readChildren(refsStart, 0, Math.min(chunkSize, count), depth, skipPacked, children);
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            futures.clear();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Binary plist decoding interrupted");
+        } finally {
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+        return children;
+    }
+
+    private void readChildren(int refsStart, int from, int to, int depth, boolean skipPacked, PList[] children) {
+        for (int i = from; i < to; i++) {
+            if (!skipPacked || !isPackable(readObjectRef(refsStart + i * objectRefSize))) {
+                children[i] = readChild(refsStart, i, depth);
+            }
+        }
+    }
+
+    private boolean isPackable(int ref) {
+        int marker = buffer.get(getObjectOffset(ref)) & 0xFF;
+        return (marker & 0xF0) == 0x10 || (marker & 0xF0) == 0x20 || marker == 0x08 || marker == 0x09;
+    }
+
+    String readChildKey(int refsStart, int index) {
+        return readKey(readObjectRef(refsStart + index * objectRefSize));
+    }
+
+    private String readKey(int ref) {
+        int offset = getObjectOffset(ref);
+        int objectType = buffer.get(offset) & 0xF0;
+        if (objectType != 0x50 && objectType != 0x60) {
+            throw new IllegalArgumentException("Cannot parse binary plist: dictionary key is not a string");
+        }
+        return readString(offset);
+    }
+
+    private String readString(int offset) {
+        int marker = buffer.get(offset) & 0xFF;
+        int start = offset + 1;
+        int length = marker & 0x0F;
+        if (length == 0x0F) {
+            length = readCount(start);
+            start += getCountSize(start);
+        }
+        if ((marker & 0xF0) == 0x50) {
+            checkRange(start, length);
+            return stringPool.intern(buffer, start, length);
+        }
+        checkRange(start, length * 2L);
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = buffer.getChar(start + i * 2);
+        }
+        return stringPool.intern(chars, 0, length);
+    }
+
+    private long readInteger(int start, int sizeExponent) {
+        if (sizeExponent > 4) {
+            throw new IllegalArgumentException("Cannot parse binary plist: invalid integer size");
+        }
+        int size = 1 << sizeExponent;
+        if (size == 16) {
+            // 128 bit integers are only written for unsigned 64 bit values. Keep the low 64 bits.
+            checkRange(start, 16);
+            return buffer.getLong(start + 8);
+        }
+        checkRange(start, size);
+        return readSizedInt(start, size);
+    }
+
+    private double readReal(int start, int sizeExponent) {
+        if (sizeExponent == 2) {
+            checkRange(start, 4);
+            return buffer.getFloat(start);
+        } else if (sizeExponent == 3) {
+            checkRange(start, 8);
+            return buffer.getDouble(start);
+        }
+        throw new IllegalArgumentException("Cannot parse binary plist: invalid real size");
+    }
+
+    /**
+     * Reads the integer object following a marker with a 0xF count nibble.
+     */
+    private int readCount(int start) {
+        int marker = buffer.get(start) & 0xFF;
+        if ((marker & 0xF0) != 0x10) {
+            throw new IllegalArgumentException("Cannot parse binary plist: invalid object length");
+        }
+        long count = readInteger(start + 1, marker & 0x0F);
+        if (count < 0 || count > buffer.limit()) {
+            throw new IllegalArgumentException("Cannot parse binary plist: invalid object length");
+        }
+        return (int) count;
+    }
+
+    private int getCountSize(int start) {
+        return 1 + (1 << (buffer.get(start) & 0x0F));
+    }
+
+    private int getObjectOffset(int ref) {
+        if (ref < 0 || ref >= objectCount) {
+            throw new IllegalArgumentException("Cannot parse binary plist: object reference out of range");
+        }
+        long offset = readSizedInt(offsetTableOffset + ref * offsetSize, offsetSize);
+        if (offset < HEADER_SIZE || offset >= offsetTableOffset) {
+            throw new IllegalArgumentException("Cannot parse binary plist: object offset out of range");
+        }
+        return (int) offset;
+    }
+
+    private int readObjectRef(int position) {
+        return checkedInt(readSizedInt(position, objectRefSize), "object reference");
+    }
+
+    /**
+     * Reads a big-endian integer of the given byte size. Sizes below 8 are unsigned.
+     */
+    private long readSizedInt(int position, int size) {
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | (buffer.get(position + i) & 0xFF);
+        }
+        return value;
+    }
+
+    private void checkRange(int start, long length) {
+        if (length < 0 || start + length > buffer.limit()) {
+            throw new IllegalArgumentException("Cannot parse binary plist: object extends past end of data");
+        }
+    }
+
+    private static int checkedInt(long value, String description) {
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot parse binary plist: " + description + " out of range");
+        }
+        return (int) value;
+    }
+
+    static long toJavaMillis(double cfAbsoluteTime) {
+        return Math.round((cfAbsoluteTime + CF_EPOCH_OFFSET_SECONDS) * 1000.0);
+    }
+}
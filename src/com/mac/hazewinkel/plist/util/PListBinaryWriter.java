@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the PList data model as a binary property list (bplist00) without going through plutil.
+ * <p/>
+ * Equal strings (including dictionary keys), numbers, dates, booleans and data blobs are stored once
+ * in the object table. Offsets and object references use the smallest integer size that fits.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryWriter {
+    private final List<Object> objects = new ArrayList<Object>();
+    private final Map<Object, Integer> uniqueObjects = new HashMap<Object, Integer>();
+
+    public void write(PList plist, OutputStream outputStream) throws IOException {
+        objects.clear();
+        uniqueObjects.clear();
+        int topObject = flatten(plist);
+
+        int objectRefSize = getIntegerSize(objects.size() - 1);
+        long[] offsets = new long[objects.size()];
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeBytes(PListBinaryReader.BINARY_MAGIC + "0");
+        for (int i = 0; i < objects.size(); i++) {
+            offsets[i] = out.size();
+            writeObject(objects.get(i), objectRefSize, out);
+        }
+
+        long offsetTableOffset = out.size();
+        int offsetSize = getIntegerSize(offsetTableOffset);
+        for (long offset : offsets) {
+            writeSizedInt(offset, offsetSize, out);
+        }
+
+        // trailer: 5 unused bytes, sort version, offset size, object ref size, object count, top object, offset table offset
+        out.write(new byte[6]);
+        out.writeByte(offsetSize);
+        out.writeByte(objectRefSize);
+        out.writeLong(objects.size());
+        out.writeLong(topObject);
+        out.writeLong(offsetTableOffset);
+        out.flush();
+    }
+
+    private int flatten(PList plist) {
+        if (plist instanceof PListArray && ((PListArray) plist).getPackedType() != null) {
+            PListArray array = (PListArray) plist;
+            PListDataType type = array.getPackedType();
+            int index = reserveObject();
+            int[] refs = new int[array.size()];
+            for (int i = 0; i < refs.length; i++) {
+                // the wrappers only serve as keys for the unique objects, the array keeps its packed values
+                if (type == PListDataType.Integer) {
+                    refs[i] = unique(new PListInteger(array.getLong(i)));
+                } else if (type == PListDataType.Real) {
+                    refs[i] = unique(new PListFloat(array.getDouble(i)));
+                } else {
+                    refs[i] = unique(new PListBoolean(array.getBoolean(i)));
+                }
+            }
+            objects.set(index, new ArrayRefs(refs));
+            return index;
+        } else if (plist instanceof PListArray) {
+            int index = reserveObject();
+            PListArray array = (PListArray) plist;
+            int[] refs = new int[array.size()];
+            for (int i = 0; i < refs.length; i++) {
+                refs[i] = flatten(array.getValue(i));
+            }
+            objects.set(index, new ArrayRefs(refs));
+            return index;
+        } else if (plist instanceof PListDictionary) {
+            int index = reserveObject();
+            PListDictionary dictionary = (PListDictionary) plist;
+            int count = dictionary.size();
+            int[] refs = new int[2 * count];
+            for (int i = 0; i < count; i++) {
+                refs[i] = unique(dictionary.getKey(i));
+                refs[count + i] = flatten(dictionary.getValue(i));
+            }
+            objects.set(index, new DictionaryRefs(refs));
+            return index;
+        } else if (plist instanceof PListString) {
+            return unique(((PListString) plist).getValue());
+        } else if (plist instanceof PListPrimitive) {
+            return unique(plist);
+        }
+        throw new IllegalArgumentException("Cannot write " + plist + " to binary plist");
+    }
+
+    private int reserveObject() {
+        objects.add(null);
+        return objects.size() - 1;
+    }
+
+    private int unique(Object value) {
+        Integer index = uniqueObjects.get(value);
+        if (index == null) {
+            index = objects.size();
+            objects.add(value);
+            uniqueObjects.put(value, index);
+        }
+        return index;
+    }
+
+    private void writeObject(Object object, int objectRefSize, DataOutputStream out) throws IOException {
+        if (object instanceof String) {
+            writeString((String) object, out);
+        } else if (object instanceof PListBoolean) {
+            out.writeByte(((PListBoolean) object).getValue() ? 0x09 : 0x08);
+        } else if (object instanceof PListInteger) {
+            writeInteger(((PListInteger) object).getValue(), out);
+        } else if (object instanceof PListFloat) {
+            out.writeByte(0x23);
+            out.writeDouble(((PListFloat) object).getValue());
+        } else if (object instanceof PListDate) {
+            out.writeByte(0x33);
+            out.writeDouble(toCFAbsoluteTime(((PListDate) object).getTime()));
+        } else if (object instanceof PListData) {
+            byte[] data = ((PListData) object).getValue();
+            writeMarker(0x40, data.length, out);
+            out.write(data);
+        } else if (object instanceof ArrayRefs) {
+            int[] refs = ((ArrayRefs) object).refs;
+            writeMarker(0xA0, refs.length, out);
+            writeRefs(refs, objectRefSize, out);
+        } else if (object instanceof DictionaryRefs) {
+            int[] refs = ((DictionaryRefs) object).refs;
+            writeMarker(0xD0, refs.length / 2, out);
+            writeRefs(refs, objectRefSize, out);
+        }
+    }
+
+    private void writeString(String value, DataOutputStream out) throws IOException {
+        int length = value.length();
+        boolean ascii = true;
+        for (int i = 0; i < length && ascii; i++) {
+            ascii = value.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            writeMarker(0x50, length, out);
+            out.writeBytes(value);
+        } else {
+            writeMarker(0x60, length, out);
+            out.writeChars(value);
+        }
+    }
+
+    private void writeInteger(long value, DataOutputStream out) throws IOException {
+        if (value < 0) {
+            out.writeByte(0x13);
+            out.writeLong(value);
+        } else {
+            int size = getIntegerSize(value);
+            out.writeByte(0x10 | Integer.numberOfTrailingZeros(size));
+            writeSizedInt(value, size, out);
+        }
+    }
+
+    private void writeMarker(int type, int count, DataOutputStream out) throws IOException {
+        if (count < 0x0F) {
+            out.writeByte(type | count);
+        } else {
+            out.writeByte(type | 0x0F);
+            writeInteger(count, out);
+        }
+    }
+
+    private void writeRefs(int[] refs, int objectRefSize, DataOutputStream out) throws IOException {
+        for (int ref : refs) {
+            writeSizedInt(ref, objectRefSize, out);
+        }
+    }
+
+    private static void writeSizedInt(long value, int size, DataOutputStream out) throws IOException {
+        for (int shift = (size - 1) * 8; shift >= 0; shift -= 8) {
+            out.writeByte((int) (value >>> shift));
+        }
+    }
+
+    /**
+     * @return the smallest of 1, 2, 4 or 8 bytes that holds the unsigned value.
+     */
+    static int getIntegerSize(long value) {
+        if (value >= 0 && value <= 0xFFL) {
+            return 1;
+        } else if (value >= 0 && value <= 0xFFFFL) {
+            return 2;
+        } else if (value >= 0 && value <= 0xFFFFFFFFL) {
+            return 4;
+        }
+        return 8;
+    }
+
+    static double toCFAbsoluteTime(long javaMillis) {
+        return javaMillis / 1000.0 - PListBinaryReader.CF_EPOCH_OFFSET_SECONDS;
+    }
+
+    private static class ArrayRefs {
+        final int[] refs;
+
+        ArrayRefs(int[] refs) {
+            this.refs = refs;
+        }
+    }
+
+    private static class DictionaryRefs {
+        final int[] refs;
+
+        DictionaryRefs(int[] refs) {
+            this.refs = refs;
+        }
+    }
+}
@@ -17,55 +17,29 @@
 package com.mac.hazewinkel.plist.util;
 
 import com.intellij.openapi.diagnostic.Log;
+import com.mac.hazewinkel.plist.datamodel.PListDictionary;
 import com.mac.hazewinkel.plist.datamodel.PListRoot;
 import org.jetbrains.annotations.NonNls;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.TimeZone;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
 
 /**
  * @author Maarten Hazewinkel
  */
 public class PListConversionUtil implements Cloneable {
     @NonNls
-    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
-    @NonNls
-    private static final String XML1_PREFIX = XML_HEADER + "\n" +
+    static final String XML1_PREFIX = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
             "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
             "<plist version=\"1.0\">\n";
 
-    @NonNls
-    private static final String BINARY1_PREFIX = "bplist00";
-
-    @NonNls
-    private static final String JSON_PREFIX_1 = "{\"";
-    @NonNls
-    private static final String JSON_PREFIX_2 = "[";
-
     private PListConversionUtil() {}
 
     public static PListFormat determinePListFormat(byte[] fileContent) {
-        String fileText;
-        try {
-            fileText = new String(fileContent, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // ignore. UTF-8 support is required.
-            return PListFormat.FORMAT_OTHER;
-        }
-        if (fileText.startsWith(XML_HEADER))
-            return PListFormat.FORMAT_XML1;
-        else if (fileText.startsWith(BINARY1_PREFIX))
-            return PListFormat.FORMAT_BINARY1;
-        else if (fileText.startsWith(JSON_PREFIX_1) || fileText.startsWith(JSON_PREFIX_2))
-            return PListFormat.FORMAT_JSON;
-        else
-            return PListFormat.FORMAT_OTHER;
+        return PListFormatSniffer.sniff(fileContent, fileContent.length).getFormat();
     }
 
     public static byte[] convertPlistToFormat(byte[] fileContent, PListFormat format) {
@@ -74,58 +48,71 @@ public class PListConversionUtil implements Cloneable {
 
     static byte[] convertPlistToFormat(byte[] fileContent, String format) {
         try {
-            Process converter = Runtime.getRuntime().exec("plutil -convert " + format + " -o - -- -");
-            OutputStream outputStream = converter.getOutputStream();
-            outputStream.write(fileContent);
-            outputStream.flush();
-            outputStream.close();
-            InputStream inputStream = converter.getInputStream();
-
-            boolean finished = false;
-            int exitcode = -1;
-            do {
-                try {
-                    exitcode = converter.waitFor();
-                    finished = true;
-                } catch (InterruptedException e) {
-                    // ignore, simply retry the wait
-                }
-            } while (!finished);
-
-            int readBytes;
-            int totalBytes = 0;
-            byte[] buffer = new byte[1024];
-            List<byte[]> chunks = new LinkedList<byte[]>();
-            do {
-                readBytes = inputStream.read(buffer);
-                if (readBytes > 0) {
-                    totalBytes += readBytes;
-                    byte[] chunk = new byte[readBytes];
-                    System.arraycopy(buffer, 0, chunk, 0, readBytes);
-                    chunks.add(chunk);
-                }
-            } while (readBytes >= 0);
-            inputStream.close();
-
-            byte[] convertedContent = new byte[totalBytes];
-            int copiedPosition = 0;
-            for (byte[] chunk : chunks) {
-                System.arraycopy(chunk, 0, convertedContent, copiedPosition, chunk.length);
-                copiedPosition += chunk.length;
-            }
-            
-            if (exitcode != 0) {
-                Log.print("PListConversionUtil failed to convert data. Error: " + new String(convertedContent));
-                return new byte[0];
-            }
-            return convertedContent;
+            return new PListPlutilConverter().convert(fileContent, format);
         } catch (IOException e) {
-            Log.print("PListConversionUtil failed to convert data. Exception: " + e.toString(), true);
+            Log.print("PListConversionUtil failed to convert data. Error: " + e.getMessage(), true);
             return new byte[0];
         }
     }
 
+    public static PListRoot parseToPList(byte[] fileContent, PListFormat format) {
+        switch (format) {
+            case FORMAT_XML1:
+                return parseToPList(fileContent);
+            case FORMAT_BINARY1:
+                return parseBinaryToPList(fileContent);
+            case FORMAT_JSON:
+                return parseJsonToPList(fileContent);
+            default:
+                byte[] xmlContent = convertPlistToFormat(fileContent, PListFormat.FORMAT_XML1);
+                if (xmlContent.length == 0) {
+                    return new PListRoot(new PListDictionary());
+                }
+                return parseToPList(xmlContent);
+        }
+    }
+
+    public static PListRoot parseBinaryToPList(byte[] binaryContent) {
+        return new PListRoot(new PListBinaryReader(ByteBuffer.wrap(binaryContent)).read());
+    }
+
+    /**
+     * Parses a binary plist, decoding the children of large arrays and dictionaries concurrently on the executor.
+     */
+    public static PListRoot parseBinaryToPList(byte[] binaryContent, ExecutorService executor, int parallelism) {
+        return new PListRoot(new PListBinaryReader(ByteBuffer.wrap(binaryContent)).readParallel(executor, parallelism));
+    }
+
+    /**
+     * Parses a binary plist without decoding its arrays and dictionaries up front. Their content is
+     * decoded from the buffer as it is accessed, so the buffer, typically a mapped file, must stay
+     * valid and unchanged until the plist has been fully read or discarded.
+     */
+    public static PListRoot parseBinaryToLazyPList(ByteBuffer binaryContent) {
+        return new PListRoot(new PListBinaryReader(binaryContent).readLazy());
+    }
+
+    public static PListRoot parseJsonToPList(byte[] jsonContent) {
+        try {
+            Reader reader = new InputStreamReader(new ByteArrayInputStream(jsonContent), "UTF-8");
+            return new PListRoot(new PListJsonReader(reader).read());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot parse json: " + e.getMessage(), e);
+        }
+    }
+
     public static PListRoot parseToPList(byte[] xmlContent) {
+        try {
+            PListRoot root = new PListRoot(new PListXmlReader(xmlContent).read());
+            root.setSource(xmlContent);
+            return root;
+        } catch (UnsupportedEncodingException e) {
+            // not UTF-8. Let the general XML parser deal with the encoding.
+            return parseXmlWithSax(xmlContent);
+        }
+    }
+
+    static PListRoot parseXmlWithSax(byte[] xmlContent) {
         SAXParserFactory parserFactory = SAXParserFactory.newInstance();
         parserFactory.setValidating(false);
         SAXParser parser;
@@ -141,22 +128,55 @@ public class PListConversionUtil implements Cloneable {
     }
 
     public static byte[] exportPListToXml(PListRoot plist) {
-        StringBuilder buffer = new StringBuilder();
-        buffer.append(XML1_PREFIX);
-        new PListXmlWriter().write(plist.getRootValue(), buffer);
-        buffer.append("</plist>\n");
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            exportPListToXml(plist, buffer);
+        } catch (IOException e) {
+            // Should never happen. ByteArrayOutputStream does not throw
+            return new byte[0];
+        }
+        return buffer.toByteArray();
+    }
 
+    public static void exportPListToXml(PListRoot plist, OutputStream outputStream) throws IOException {
+        new PListXmlWriter(plist.getSource()).write(plist.getRootValue(), outputStream);
+    }
+
+    public static byte[] exportPList(PListRoot plist, PListFormat format) {
+        switch (format) {
+            case FORMAT_BINARY1:
+                return exportPListToBinary(plist);
+            case FORMAT_JSON:
+                return exportPListToJson(plist);
+            case FORMAT_XML1:
+                return exportPListToXml(plist);
+            default:
+                return convertPlistToFormat(exportPListToXml(plist), format);
+        }
+    }
+
+    public static byte[] exportPListToBinary(PListRoot plist) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
         try {
-            return buffer.toString().getBytes("UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            // Should never happen. UTF-8 is a required encoding in the JRE
+            new PListBinaryWriter().write(plist.getRootValue(), buffer);
+        } catch (IOException e) {
+            // Should never happen. ByteArrayOutputStream does not throw
             return new byte[0];
         }
+        return buffer.toByteArray();
     }
 
-    public static DateFormat getStoredDateFormatter() {
-        DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-        formatter.setTimeZone(TimeZone.getTimeZone("Zulu"));
-        return formatter;
+    public static byte[] exportPListToJson(PListRoot plist) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try {
+            new PListJsonWriter().write(plist.getRootValue(), buffer);
+        } catch (IOException e) {
+            // Should never happen. ByteArrayOutputStream does not throw
+            return new byte[0];
+        } catch (IllegalArgumentException e) {
+            Log.print("PListConversionUtil failed to convert data. Error: " + e.getMessage());
+            return new byte[0];
+        }
+        return buffer.toByteArray();
     }
 }
\ No newline at end of file
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+/**
+ * Parses and formats the plist date form yyyy-MM-dd'T'HH:mm:ss'Z' in UTC, on byte and char buffers.
+ * <p/>
+ * This has no state, so it can be used from any thread without locking, and it creates no objects
+ * apart from the Strings returned by the String based methods. Calculations use the proleptic
+ * Gregorian calendar, as CoreFoundation does.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListDateCodec {
+    /** Length of a formatted date with a four digit year */
+    public static final int LENGTH = 20;
+    /** Upper bound of the length of any formatted date */
+    public static final int MAX_LENGTH = 32;
+
+    private static final long MILLIS_PER_DAY = 24L * 60 * 60 * 1000;
+
+    private PListDateCodec() {}
+
+    /**
+     * Parses a date to epoch milliseconds. As allowed by the plist DTD, smaller units may be omitted
+     * from the end, and the final Z is optional.
+     *
+     * @throws IllegalArgumentException if the text is not a valid date
+     */
+    public static long parse(byte[] bytes, int start, int end) {
+        return parse(bytes, null, start, end);
+    }
+
+    public static long parse(char[] chars, int start, int end) {
+        return parse(null, chars, start, end);
+    }
+
+    public static long parse(String value) {
+        return parse(value.toCharArray(), 0, value.length());
+    }
+
+    private static long parse(byte[] bytes, char[] chars, int start, int end) {
+        int i = start;
+        boolean negativeYear = i < end && charAt(bytes, chars, i) == '-';
+        if (negativeYear) {
+            i++;
+        }
+        int yearStart = i;
+        long year = 0;
+        while (i < end && isDigit(charAt(bytes, chars, i))) {
+            year = year * 10 + (charAt(bytes, chars, i) - '0');
+            if (year > 999999) {
+                throw error(bytes, chars, start, end);
+            }
+            i++;
+        }
+        if (i - yearStart < 4) {
+            throw error(bytes, chars, start, end);
+        }
+
+        int[] fields = {1, 1, 0, 0, 0};
+        char[] separators = {'-', '-', 'T', ':', ':'};
+        for (int field = 0; field < fields.length && i < end && charAt(bytes, chars, i) != 'Z'; field++) {
+            if (charAt(bytes, chars, i) != separators[field] || i + 2 >= end
+                    || !isDigit(charAt(bytes, chars, i + 1)) || !isDigit(charAt(bytes, chars, i + 2))) {
+                throw error(bytes, chars, start, end);
+            }
+            fields[field] = (charAt(bytes, chars, i + 1) - '0') * 10 + (charAt(bytes, chars, i + 2) - '0');
+            i += 3;
+        }
+        if (i < end && charAt(bytes, chars, i) == 'Z') {
+            i++;
+        }
+        if (i != end || fields[0] < 1 || fields[0] > 12) {
+            throw error(bytes, chars, start, end);
+        }
+
+        long days = daysFromCivil(negativeYear ? -year : year, fields[0], fields[1]);
+        return days * MILLIS_PER_DAY + ((fields[2] * 60L + fields[3]) * 60L + fields[4]) * 1000L;
+    }
+
+    /**
+     * Formats epoch milliseconds into the buffer, dropping any fraction of a second.
+     *
+     * @return the number of bytes written, LENGTH for all years from 0 to 9999
+     */
+    public static int format(long millis, byte[] out, int offset) {
+        return format(millis, out, null, offset);
+    }
+
+    public static int format(long millis, char[] out, int offset) {
+        return format(millis, null, out, offset);
+    }
+
+    public static String format(long millis) {
+        char[] chars = new char[MAX_LENGTH];
+        return new String(chars, 0, format(millis, chars, 0));
+    }
+
+    private static int format(long millis, byte[] bytes, char[] chars, int offset) {
+        long days = floorDiv(millis, MILLIS_PER_DAY);
+        int secondOfDay = (int) ((millis - days * MILLIS_PER_DAY) / 1000);
+
+        // civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        int position = offset;
+        if (year < 0) {
+            position = put(bytes, chars, position, '-');
+            year = -year;
+        }
+        int yearDigits = 4;
+        for (long limit = 10000; year >= limit && yearDigits < 19; limit *= 10) {
+            yearDigits++;
+        }
+        for (int i = yearDigits - 1; i >= 0; i--) {
+            put(bytes, chars, position + i, (char) ('0' + year % 10));
+            year /= 10;
+        }
+        position += yearDigits;
+        position = put(bytes, chars, position, '-');
+        position = putTwoDigits(bytes, chars, position, month);
+        position = put(bytes, chars, position, '-');
+        position = putTwoDigits(bytes, chars, position, day);
+        position = put(bytes, chars, position, 'T');
+        position = putTwoDigits(bytes, chars, position, secondOfDay / 3600);
+        position = put(bytes, chars, position, ':');
+        position = putTwoDigits(bytes, chars, position, secondOfDay / 60 % 60);
+        position = put(bytes, chars, position, ':');
+        position = putTwoDigits(bytes, chars, position, secondOfDay % 60);
+        position = put(bytes, chars, position, 'Z');
+        return position - offset;
+    }
+
+    /**
+     * Days since 1970-01-01, see http://howardhinnant.github.io/date_algorithms.html
+     */
+    static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        long era = floorDiv(year, 400);
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static long floorDiv(long dividend, long divisor) {
+        long quotient = dividend / divisor;
+        return (dividend % divisor < 0) ? quotient - 1 : quotient;
+    }
+
+    private static int charAt(byte[] bytes, char[] chars, int index) {
+        return bytes != null ? bytes[index] : chars[index];
+    }
+
+    private static boolean isDigit(int c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static int put(byte[] bytes, char[] chars, int position, char c) {
+        if (bytes != null) {
+            bytes[position] = (byte) c;
+        } else {
+            chars[position] = c;
+        }
+        return position + 1;
+    }
+
+    private static int putTwoDigits(byte[] bytes, char[] chars, int position, int value) {
+        put(bytes, chars, position, (char) ('0' + value / 10));
+        return put(bytes, chars, position + 1, (char) ('0' + value % 10));
+    }
+
+    private static IllegalArgumentException error(byte[] bytes, char[] chars, int start, int end) {
+        StringBuilder value = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            value.append((char) charAt(bytes, chars, i));
+        }
+        return new IllegalArgumentException("Cannot parse date: '" + value + "'");
+    }
+}
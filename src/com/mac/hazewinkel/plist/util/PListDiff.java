@@ -0,0 +1,532 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.util.*;
+
+/**
+ * Structural diff between two plists, as a list of changes that turns the first into the second.
+ * <p/>
+ * The changes are applied one after the other, and each one names the aggregate it changes by the positions
+ * leading to it from the root, as they are when that change is applied. The changes to an aggregate come
+ * before the changes inside its children, and its children are then at their final positions.
+ * <p/>
+ * Subtrees with the same content hash are taken to be equal and are not visited, so the cost follows the
+ * size of the difference more than the size of the trees. Dictionary entries are matched by key, and entries
+ * whose key is gone are matched to new keys with the same value as renames. Array elements are matched by
+ * content hash, after taking off the common start and end. Of the matched children, the longest run that
+ * kept its order stays in place and the others are moved. In an array, the unmatched elements between two
+ * that stay in place are paired in order, and compared as changed values.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListDiff {
+    public enum Kind {
+        /** Inserts the value, under the key for a dictionary, at the index */
+        Insert,
+        /** Removes the child at the index */
+        Delete,
+        /** Removes the child at the index, and inserts it again at the to index */
+        Move,
+        /** Changes the key of the dictionary entry at the index to the key */
+        Rename,
+        /** Replaces the child at the index with the value */
+        Replace
+    }
+
+    private static final int[] ROOT_PATH = new int[0];
+
+    private final List<Change> changes = new ArrayList<Change>();
+
+    private PListDiff() {
+    }
+
+    /**
+     * Returns the changes that turn the from plist into the to plist. The values in the changes are taken from
+     * the to plist, and are not copied.
+     */
+    public static List<Change> diff(PListRoot from, PListRoot to) {
+        PListDiff diff = new PListDiff();
+        diff.diffChildren(from, to, ROOT_PATH);
+        return diff.changes;
+    }
+
+    /**
+     * Applies the changes from diff() to the plist they were made for. Inserted and replacing values are copied,
+     * so the plist the changes were taken from stays as it is.
+     */
+    public static void apply(PListRoot root, List<Change> changes) {
+        for (Change change : changes) {
+            PListAggregate parent = root;
+            for (int index : change.getPath()) {
+                parent = (PListAggregate) parent.getValue(index);
+            }
+            int index = change.getIndex();
+            switch (change.getKind()) {
+                case Insert:
+                    insert(parent, index, change.getKey(), copy(change.getValue()));
+                    break;
+                case Delete:
+                    parent.remove(index);
+                    break;
+                case Move:
+                    moveOrRename(parent, index, change.getToIndex(), parent.getKey(index));
+                    break;
+                case Rename:
+                    moveOrRename(parent, index, index, change.getKey());
+                    break;
+                case Replace:
+                    parent.set(index, copy(change.getValue()));
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Returns a new plist with the same content as the value.
+     */
+    public static PList copy(PList value) {
+        if (value instanceof PListAggregate) {
+            PListAggregate aggregate = (PListAggregate) value;
+            PListAggregate copy = value instanceof PListDictionary ? new PListDictionary() : new PListArray();
+            boolean dictionary = copy instanceof PListDictionary;
+            int size = aggregate.size();
+            for (int i = 0; i < size; i++) {
+                copy.append(new PListEntry(dictionary ? aggregate.getKey(i) : null, copy(aggregate.getValue(i))));
+            }
+            return copy;
+        }
+        switch (value.getType()) {
+            case Boolean:
+                return new PListBoolean(((PListBoolean) value).getValue());
+            case Data:
+                byte[] data = ((PListData) value).getValue();
+                return new PListData(Arrays.copyOf(data, data.length));
+            case Date:
+                return new PListDate(((PListDate) value).getTime());
+            case Integer:
+                return new PListInteger(((PListInteger) value).getValue());
+            case Real:
+                return new PListFloat(((PListFloat) value).getValue());
+            case String:
+                return new PListString(((PListString) value).getValue());
+        }
+        throw new IllegalArgumentException("Cannot copy " + value.getType());
+    }
+
+    private static void insert(PListAggregate parent, int index, String key, PList value) {
+        if (key != null && parent instanceof PListDictionary) {
+            ((PListDictionary) parent).insert(index, key, value);
+        } else {
+            parent.insert(index, value);
+        }
+    }
+
+    /**
+     * Takes out the child and puts it back under the key, so that duplicate keys are kept as they are.
+     */
+    private static void moveOrRename(PListAggregate parent, int index, int toIndex, String key) {
+        PList value = parent.getValue(index);
+        parent.remove(index);
+        insert(parent, toIndex, key, value);
+    }
+
+    private void diffChildren(PListAggregate from, PListAggregate to, int[] path) {
+        if (from.contentHash() == to.contentHash()) {
+            return;
+        }
+        int fromSize = from.size();
+        int toSize = to.size();
+        long[] fromHashes = new long[fromSize];
+        for (int i = 0; i < fromSize; i++) {
+            fromHashes[i] = from.childContentHash(i);
+        }
+        long[] toHashes = new long[toSize];
+        for (int j = 0; j < toSize; j++) {
+            toHashes[j] = to.childContentHash(j);
+        }
+        int[] fromMatch = new int[fromSize];
+        Arrays.fill(fromMatch, -1);
+        int[] toMatch = new int[toSize];
+        Arrays.fill(toMatch, -1);
+
+        boolean dictionaries = from instanceof PListDictionary && to instanceof PListDictionary;
+        if (dictionaries) {
+            matchKeys(from, to, fromHashes, toHashes, fromMatch, toMatch);
+        } else {
+            matchElements(fromHashes, toHashes, fromMatch, toMatch);
+        }
+        boolean[] stays = longestOrderedRun(fromMatch);
+        if (!dictionaries) {
+            pairBetweenStaying(fromMatch, toMatch, stays);
+        }
+
+        for (int i = fromSize - 1; i >= 0; i--) {
+            if (fromMatch[i] < 0) {
+                changes.add(new Change(Kind.Delete, path, i, -1, null, null, null));
+            }
+        }
+        placeChildren(to, path, fromMatch, toMatch, stays, dictionaries);
+
+        for (int j = 0; j < toSize; j++) {
+            int i = toMatch[j];
+            if (i < 0) {
+                continue;
+            }
+            if (dictionaries && !from.getKey(i).equals(to.getKey(j))) {
+                changes.add(new Change(Kind.Rename, path, j, -1, from.getKey(i), to.getKey(j), null));
+            }
+            if (fromHashes[i] != toHashes[j]) {
+                PList fromValue = from.getValue(i);
+                PList toValue = to.getValue(j);
+                if (fromValue instanceof PListAggregate && toValue instanceof PListAggregate
+                        && fromValue.getType() == toValue.getType()) {
+                    diffChildren((PListAggregate) fromValue, (PListAggregate) toValue, childPath(path, j));
+                } else {
+                    changes.add(new Change(Kind.Replace, path, j, -1, null, null, toValue));
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches entries with the same key, and then entries with a key that is only on one side by their value.
+     * The n-th entry with a key matches the n-th entry with that key on the other side.
+     */
+    private static void matchKeys(PListAggregate from, PListAggregate to, long[] fromHashes, long[] toHashes,
+                                  int[] fromMatch, int[] toMatch) {
+        Map<String, Integer> toByKey = new HashMap<String, Integer>();
+        Map<String, Integer> occurrences = new HashMap<String, Integer>();
+        for (int j = 0; j < toMatch.length; j++) {
+            toByKey.put(occurrenceKey(to.getKey(j), occurrences), j);
+        }
+        occurrences.clear();
+        for (int i = 0; i < fromMatch.length; i++) {
+            Integer j = toByKey.get(occurrenceKey(from.getKey(i), occurrences));
+            if (j != null) {
+                fromMatch[i] = j;
+                toMatch[j] = i;
+            }
+        }
+
+        Map<Long, ArrayDeque<Integer>> unmatchedByHash = new HashMap<Long, ArrayDeque<Integer>>();
+        for (int j = 0; j < toMatch.length; j++) {
+            if (toMatch[j] < 0) {
+                indexByHash(unmatchedByHash, toHashes[j], j);
+            }
+        }
+        for (int i = 0; i < fromMatch.length && !unmatchedByHash.isEmpty(); i++) {
+            if (fromMatch[i] < 0) {
+                matchByHash(unmatchedByHash, fromHashes[i], i, fromMatch, toMatch);
+            }
+        }
+    }
+
+    private static String occurrenceKey(String key, Map<String, Integer> occurrences) {
+        Integer count = occurrences.get(key);
+        occurrences.put(key, count == null ? 1 : count + 1);
+        return count == null ? key : key + '\u0000' + count;
+    }
+
+    /**
+     * Matches the common start and end, and then equal elements in between, the n-th copy of a value with
+     * the n-th copy on the other side.
+     */
+    private static void matchElements(long[] fromHashes, long[] toHashes, int[] fromMatch, int[] toMatch) {
+        int fromSize = fromHashes.length;
+        int toSize = toHashes.length;
+        int start = 0;
+        while (start < fromSize && start < toSize && fromHashes[start] == toHashes[start]) {
+            fromMatch[start] = start;
+            toMatch[start] = start;
+            start++;
+        }
+        int end = 0;
+        while (end < fromSize - start && end < toSize - start
+                && fromHashes[fromSize - 1 - end] == toHashes[toSize - 1 - end]) {
+            fromMatch[fromSize - 1 - end] = toSize - 1 - end;
+            toMatch[toSize - 1 - end] = fromSize - 1 - end;
+            end++;
+        }
+
+        Map<Long, ArrayDeque<Integer>> middleByHash = new HashMap<Long, ArrayDeque<Integer>>();
+        for (int j = start; j < toSize - end; j++) {
+            indexByHash(middleByHash, toHashes[j], j);
+        }
+        for (int i = start; i < fromSize - end && !middleByHash.isEmpty(); i++) {
+            matchByHash(middleByHash, fromHashes[i], i, fromMatch, toMatch);
+        }
+    }
+
+    private static void indexByHash(Map<Long, ArrayDeque<Integer>> byHash, long hash, int index) {
+        ArrayDeque<Integer> indexes = byHash.get(hash);
+        if (indexes == null) {
+            indexes = new ArrayDeque<Integer>(1);
+            byHash.put(hash, indexes);
+        }
+        indexes.add(index);
+    }
+
+    private static void matchByHash(Map<Long, ArrayDeque<Integer>> byHash, long hash, int i,
+                                    int[] fromMatch, int[] toMatch) {
+        ArrayDeque<Integer> indexes = byHash.get(hash);
+        if (indexes != null) {
+            int j = indexes.poll();
+            if (indexes.isEmpty()) {
+                byHash.remove(hash);
+            }
+            fromMatch[i] = j;
+            toMatch[j] = i;
+        }
+    }
+
+    /**
+     * Marks the matched children that stay in place: the longest run of matches that are in the same order
+     * on both sides, found in O(n log n) as the longest increasing subsequence of the matched positions.
+     */
+    private static boolean[] longestOrderedRun(int[] fromMatch) {
+        int n = fromMatch.length;
+        int[] tails = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            int j = fromMatch[i];
+            if (j < 0) {
+                continue;
+            }
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (fromMatch[tails[middle]] < j) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) {
+                length++;
+            }
+        }
+        boolean[] stays = new boolean[n];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+            stays[i] = true;
+        }
+        return stays;
+    }
+
+    /**
+     * Pairs the unmatched elements between two elements that stay in place, in order, as changed elements
+     * that also stay in place.
+     */
+    private static void pairBetweenStaying(int[] fromMatch, int[] toMatch, boolean[] stays) {
+        int i = 0;
+        int j = 0;
+        while (true) {
+            int fromStart = i;
+            while (i < fromMatch.length && !stays[i]) {
+                i++;
+            }
+            int toStart = j;
+            while (j < toMatch.length && !(toMatch[j] >= 0 && stays[toMatch[j]])) {
+                j++;
+            }
+            int f = fromStart;
+            int t = toStart;
+            while (true) {
+                while (f < i && fromMatch[f] >= 0) {
+                    f++;
+                }
+                while (t < j && toMatch[t] >= 0) {
+                    t++;
+                }
+                if (f == i || t == j) {
+                    break;
+                }
+                fromMatch[f] = t;
+                toMatch[t] = f;
+                stays[f] = true;
+            }
+            if (i == fromMatch.length) {
+                break;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    /**
+     * Adds the moves and inserts that put the children in their final order, after the deletes.
+     * <p/>
+     * The positions are counted in a Fenwick tree over slots that keep the order of the list at all times:
+     * each gap between two children that stay in place has a slot for each child that ends up in the gap,
+     * followed by a slot for each moved child that starts in the gap. Children are put in place in their
+     * final order, each one right after the previous one, so the children already put in a gap are always
+     * before the moved children that have not left it yet.
+     */
+    private void placeChildren(PListAggregate to, int[] path, int[] fromMatch, int[] toMatch, boolean[] stays,
+                               boolean dictionaries) {
+        int[] fromSlot = new int[fromMatch.length];
+        int[] toSlot = new int[toMatch.length];
+        int slots = 0;
+        int i = 0;
+        int j = 0;
+        while (true) {
+            while (j < toMatch.length && !(toMatch[j] >= 0 && stays[toMatch[j]])) {
+                toSlot[j++] = slots++;
+            }
+            while (i < fromMatch.length && !stays[i]) {
+                if (fromMatch[i] >= 0) {
+                    fromSlot[i] = slots++;
+                }
+                i++;
+            }
+            if (i == fromMatch.length) {
+                break;
+            }
+            fromSlot[i++] = slots;
+            toSlot[j++] = slots++;
+        }
+
+        int[] counts = new int[slots + 1];
+        for (i = 0; i < fromMatch.length; i++) {
+            if (fromMatch[i] >= 0) {
+                addCount(counts, fromSlot[i], 1);
+            }
+        }
+        for (j = 0; j < toMatch.length; j++) {
+            i = toMatch[j];
+            if (i >= 0 && stays[i]) {
+                continue;
+            }
+            if (i >= 0) {
+                int fromIndex = countBefore(counts, fromSlot[i]);
+                addCount(counts, fromSlot[i], -1);
+                int toIndex = countBefore(counts, toSlot[j]);
+                addCount(counts, toSlot[j], 1);
+                changes.add(new Change(Kind.Move, path, fromIndex, toIndex, null, null, null));
+            } else {
+                int toIndex = countBefore(counts, toSlot[j]);
+                addCount(counts, toSlot[j], 1);
+                changes.add(new Change(Kind.Insert, path, toIndex, -1, null,
+                                       dictionaries ? to.getKey(j) : null, to.getValue(j)));
+            }
+        }
+    }
+
+    private static void addCount(int[] counts, int slot, int delta) {
+        for (int k = slot + 1; k < counts.length; k += k & -k) {
+            counts[k] += delta;
+        }
+    }
+
+    private static int countBefore(int[] counts, int slot) {
+        int count = 0;
+        for (int k = slot; k > 0; k -= k & -k) {
+            count += counts[k];
+        }
+        return count;
+    }
+
+    private static int[] childPath(int[] path, int index) {
+        int[] childPath = Arrays.copyOf(path, path.length + 1);
+        childPath[path.length] = index;
+        return childPath;
+    }
+
+    /**
+     * One change of a diff. The path gives the positions from the root to the aggregate that is changed,
+     * and is empty for the root itself.
+     */
+    public static final class Change {
+        private final Kind kind;
+        private final int[] path;
+        private final int index;
+        private final int toIndex;
+        private final String oldKey;
+        private final String key;
+        private final PList value;
+
+        Change(Kind kind, int[] path, int index, int toIndex, String oldKey, String key, PList value) {
+            this.kind = kind;
+            this.path = path;
+            this.index = index;
+            this.toIndex = toIndex;
+            this.oldKey = oldKey;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public int[] getPath() {
+            return path.clone();
+        }
+
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * Returns the index a moved child is inserted at, after it was removed, or -1 for other changes.
+         */
+        public int getToIndex() {
+            return toIndex;
+        }
+
+        /**
+         * Returns the key before a rename, or null for other changes.
+         */
+        public String getOldKey() {
+            return oldKey;
+        }
+
+        /**
+         * Returns the new key of a rename, or the key of a value inserted in a dictionary, or null.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Returns the value of an insert or replace, or null for other changes.
+         */
+        public PList getValue() {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder().append(kind).append(' ').append(Arrays.toString(path))
+                    .append(' ').append(index);
+            if (kind == Kind.Move) {
+                text.append(" -> ").append(toIndex);
+            } else if (kind == Kind.Rename) {
+                text.append(' ').append(oldKey).append(" -> ").append(key);
+            } else if (kind == Kind.Insert || kind == Kind.Replace) {
+                text.append(key != null ? " " + key + " = " : " ").append(value.getAsString());
+            }
+            return text.toString();
+        }
+    }
+}
@@ -20,7 +20,7 @@ package com.mac.hazewinkel.plist.util;
  * @author Maarten Hazewinkel
  */
 public enum PListFormat {
-    FORMAT_XML1, FORMAT_BINARY1, FORMAT_JSON, FORMAT_OTHER;
+    FORMAT_XML1, FORMAT_BINARY1, FORMAT_JSON, FORMAT_OPENSTEP, FORMAT_OTHER;
 
     public String getExternalFormatName() {
         switch (this) {
@@ -31,6 +31,7 @@ public enum PListFormat {
             case FORMAT_JSON:
                 return "json";
             default:
+                // plutil cannot write OpenStep or other formats, so these are saved as xml
                 return "xml1";
         }
     }
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NonNls;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Determines the format of a plist from the first PREFIX_SIZE bytes only.
+ * <p/>
+ * Binary plists and XML with an xml declaration are recognised with certainty. XML without a declaration,
+ * JSON and OpenStep share their first characters, so for these the sniffer looks a little further,
+ * at the first dictionary key, and reports the result as likely.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListFormatSniffer {
+    public static final int PREFIX_SIZE = 512;
+
+    @NonNls
+    private static final String BINARY_MAGIC = "bplist0";
+    @NonNls
+    private static final String BINARY_PREFIX = "bplist";
+    @NonNls
+    private static final String XML_DECLARATION = "<?xml";
+
+    public enum Confidence {
+        /** The format has a signature that nothing else can have */
+        CERTAIN,
+        /** The prefix fits this format, but a damaged file of another format could look the same */
+        LIKELY,
+        /** The prefix fits no known format. The format is FORMAT_OTHER */
+        UNKNOWN
+    }
+
+    public static class Result {
+        private final PListFormat format;
+        private final Confidence confidence;
+
+        Result(PListFormat format, Confidence confidence) {
+            this.format = format;
+            this.confidence = confidence;
+        }
+
+        public PListFormat getFormat() {
+            return format;
+        }
+
+        public Confidence getConfidence() {
+            return confidence;
+        }
+
+        @Override
+        public String toString() {
+            return format + " (" + confidence + ")";
+        }
+    }
+
+    private PListFormatSniffer() {}
+
+    /**
+     * Looks at the bytes from the buffer position on, without changing the position.
+     */
+    public static Result sniff(ByteBuffer buffer) {
+        byte[] prefix = new byte[Math.min(buffer.remaining(), PREFIX_SIZE)];
+        for (int i = 0; i < prefix.length; i++) {
+            prefix[i] = buffer.get(buffer.position() + i);
+        }
+        return sniff(prefix, prefix.length);
+    }
+
+    /**
+     * Reads at most PREFIX_SIZE bytes from the stream. If the stream supports mark and reset,
+     * it is reset to where it was, so it can still be read from the start.
+     */
+    public static Result sniff(InputStream inputStream) throws IOException {
+        boolean markSupported = inputStream.markSupported();
+        if (markSupported) {
+            inputStream.mark(PREFIX_SIZE);
+        }
+        byte[] prefix = new byte[PREFIX_SIZE];
+        int length = 0;
+        int count;
+        while (length < PREFIX_SIZE && (count = inputStream.read(prefix, length, PREFIX_SIZE - length)) > 0) {
+            length += count;
+        }
+        if (markSupported) {
+            inputStream.reset();
+        }
+        return sniff(prefix, length);
+    }
+
+    public static Result sniff(VirtualFile file) throws IOException {
+        InputStream inputStream = file.getInputStream();
+        try {
+            return sniff(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Looks at the first PREFIX_SIZE bytes of the content at most, whatever the length.
+     */
+    public static Result sniff(byte[] content, int length) {
+        length = Math.min(length, Math.min(content.length, PREFIX_SIZE));
+        if (startsWith(content, length, 0, BINARY_MAGIC)) {
+            return new Result(PListFormat.FORMAT_BINARY1, Confidence.CERTAIN);
+        } else if (startsWith(content, length, 0, BINARY_PREFIX)) {
+            // a later binary version, which only plutil can read
+            return new Result(PListFormat.FORMAT_OTHER, Confidence.UNKNOWN);
+        }
+        return sniffText(decodePrefix(content, length));
+    }
+
+    /**
+     * Turns the prefix into characters, good enough to recognise the ASCII markup of the text formats.
+     * Handles a UTF-8 byte order mark and UTF-16 with or without byte order mark.
+     */
+    private static char[] decodePrefix(byte[] content, int length) {
+        int start = 0;
+        int step = 1;
+        int lowByte = 0;
+        if (length >= 3 && content[0] == (byte) 0xEF && content[1] == (byte) 0xBB && content[2] == (byte) 0xBF) {
+            start = 3;
+        } else if (length >= 2 && content[0] == (byte) 0xFE && content[1] == (byte) 0xFF) {
+            start = 2;
+            step = 2;
+            lowByte = 1;
+        } else if (length >= 2 && content[0] == (byte) 0xFF && content[1] == (byte) 0xFE) {
+            start = 2;
+            step = 2;
+        } else if (length >= 2 && content[0] == 0 && content[1] != 0) {
+            step = 2;
+            lowByte = 1;
+        } else if (length >= 2 && content[0] != 0 && content[1] == 0) {
+            step = 2;
+        }
+
+        char[] text = new char[(length - start) / step];
+        for (int i = 0; i < text.length; i++) {
+            int position = start + i * step;
+            int c = content[position + lowByte] & 0xFF;
+            if (step == 2 && content[position + 1 - lowByte] != 0) {
+                // not ASCII. Only the markup matters here.
+                c = 0xFFFF;
+            }
+            text[i] = (char) c;
+        }
+        return text;
+    }
+
+    private static Result sniffText(char[] text) {
+        int i = skipWhitespace(text, 0);
+        if (i == text.length) {
+            return new Result(PListFormat.FORMAT_OTHER, Confidence.UNKNOWN);
+        }
+        switch (text[i]) {
+            case '<':
+                if (startsWith(text, i, XML_DECLARATION)) {
+                    return new Result(PListFormat.FORMAT_XML1, Confidence.CERTAIN);
+                }
+                if (isOpenStepData(text, i + 1)) {
+                    return new Result(PListFormat.FORMAT_OPENSTEP, Confidence.LIKELY);
+                }
+                return new Result(PListFormat.FORMAT_XML1, Confidence.LIKELY);
+            case '[':
+                return new Result(PListFormat.FORMAT_JSON, Confidence.LIKELY);
+            case '(':
+            case '/':
+                // OpenStep array or comment. JSON has neither.
+                return new Result(PListFormat.FORMAT_OPENSTEP, Confidence.LIKELY);
+            case '{':
+                return sniffDictionary(text, skipWhitespace(text, i + 1));
+            case '"':
+                // a top level string is not valid JSON for a plist, but is OpenStep, as in .strings files
+                return new Result(PListFormat.FORMAT_OPENSTEP, Confidence.LIKELY);
+            default:
+                return new Result(PListFormat.FORMAT_OTHER, Confidence.UNKNOWN);
+        }
+    }
+
+    /**
+     * Distinguishes JSON from OpenStep by the first key: JSON keys are quoted and followed by ':',
+     * OpenStep keys may be unquoted and are followed by '='.
+     */
+    private static Result sniffDictionary(char[] text, int i) {
+        if (i == text.length || text[i] == '}') {
+            return new Result(PListFormat.FORMAT_JSON, Confidence.LIKELY);
+        }
+        if (text[i] != '"') {
+            return new Result(PListFormat.FORMAT_OPENSTEP, Confidence.LIKELY);
+        }
+        i++;
+        while (i < text.length && text[i] != '"') {
+            i += text[i] == '\\' ? 2 : 1;
+        }
+        i = skipWhitespace(text, i + 1);
+        if (i < text.length && text[i] == '=') {
+            return new Result(PListFormat.FORMAT_OPENSTEP, Confidence.LIKELY);
+        }
+        return new Result(PListFormat.FORMAT_JSON, Confidence.LIKELY);
+    }
+
+    private static int skipWhitespace(char[] text, int i) {
+        while (i < text.length && (text[i] == ' ' || text[i] == '\t' || text[i] == '\n' || text[i] == '\r')) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * OpenStep data is hex digits and whitespace between angle brackets, unlike any XML tag.
+     */
+    private static boolean isOpenStepData(char[] text, int i) {
+        while (i < text.length && (Character.digit(text[i], 16) >= 0 || text[i] == ' ' || text[i] == '\n')) {
+            i++;
+        }
+        return i < text.length && text[i] == '>';
+    }
+
+    private static boolean startsWith(char[] text, int offset, String prefix) {
+        if (offset + prefix.length() > text.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (text[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] content, int length, int offset, String prefix) {
+        if (offset + prefix.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (content[offset + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
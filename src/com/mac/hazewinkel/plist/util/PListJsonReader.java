@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Single pass JSON tokenizer that builds the PList data model directly, without going through plutil.
+ * <p/>
+ * As with plutil, the root value must be a dictionary or an array, and JSON null is not supported.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListJsonReader {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DEPTH = 512;
+
+    private final Reader reader;
+    private final PListStringPool stringPool;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private final StringBuilder token = new StringBuilder();
+    private int position;
+    private int limit;
+    private long consumed;
+
+    public PListJsonReader(Reader reader) {
+        this(reader, new PListStringPool());
+    }
+
+    public PListJsonReader(Reader reader, PListStringPool stringPool) {
+        this.reader = reader;
+        this.stringPool = stringPool;
+    }
+
+    public PList read() throws IOException {
+        int c = skipWhitespace();
+        if (c != '{' && c != '[') {
+            throw error("root must be a dictionary or an array");
+        }
+        PList root = readValue(0);
+        if (skipWhitespace() != -1) {
+            throw error("unexpected data after root value");
+        }
+        return root;
+    }
+
+    private PList readValue(int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw error("nesting too deep");
+        }
+        int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                return readDictionary(depth);
+            case '[':
+                return readArray(depth);
+            case '"':
+                position++;
+                return new PListString(readString());
+            case 't':
+                expectLiteral("true");
+                return new PListBoolean(true);
+            case 'f':
+                expectLiteral("false");
+                return new PListBoolean(false);
+            case 'n':
+                throw error("null values are not supported in plists");
+            case -1:
+                throw error("unexpected end of data");
+            default:
+                if (c == '-' || (c >= '0' && c <= '9')) {
+                    return readNumber();
+                }
+                throw error("unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private PListDictionary readDictionary(int depth) throws IOException {
+        position++;
+        PListDictionary dictionary = new PListDictionary();
+        int c = skipWhitespace();
+        if (c == '}') {
+            position++;
+            return dictionary;
+        }
+        while (true) {
+            if (c != '"') {
+                throw error("expected dictionary key");
+            }
+            position++;
+            String key = readString();
+            if (skipWhitespace() != ':') {
+                throw error("expected ':'");
+            }
+            position++;
+            dictionary.append(new PListEntry(key, readValue(depth + 1)));
+            c = skipWhitespace();
+            position++;
+            if (c == '}') {
+                return dictionary;
+            } else if (c != ',') {
+                throw error("expected ',' or '}'");
+            }
+            c = skipWhitespace();
+        }
+    }
+
+    private PListArray readArray(int depth) throws IOException {
+        position++;
+        PListArray array = new PListArray();
+        int c = skipWhitespace();
+        if (c == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            readElement(array, depth + 1);
+            c = skipWhitespace();
+            position++;
+            if (c == ']') {
+                return array;
+            } else if (c != ',') {
+                throw error("expected ',' or ']'");
+            }
+        }
+    }
+
+    /**
+     * Reads a string body. The opening quote has already been consumed.
+     */
+    private String readString() throws IOException {
+        token.setLength(0);
+        while (true) {
+            if (position == limit && !fill()) {
+                throw error("unterminated string");
+            }
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '"' || c == '\\') {
+                    break;
+                }
+                position++;
+            }
+            token.append(buffer, start, position - start);
+            if (position == limit) {
+                continue;
+            }
+            char c = buffer[position++];
+            if (c == '"') {
+                return stringPool.intern(token);
+            }
+            token.append(readEscape());
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = readChar();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int value = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(readChar(), 16);
+                    if (digit < 0) {
+                        throw error("invalid unicode escape");
+                    }
+                    value = (value << 4) | digit;
+                }
+                return (char) value;
+            default:
+                throw error("invalid escape sequence");
+        }
+    }
+
+    /**
+     * Reads an array element. Numbers and booleans go into the packed storage of the array without a wrapper.
+     */
+    private void readElement(PListArray array, int depth) throws IOException {
+        int c = skipWhitespace();
+        if (c == 't') {
+            expectLiteral("true");
+            array.appendBoolean(true);
+        } else if (c == 'f') {
+            expectLiteral("false");
+            array.appendBoolean(false);
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            if (readNumberToken()) {
+                array.appendDouble(parseReal());
+            } else {
+                array.appendLong(parseInteger());
+            }
+        } else {
+            array.append(new PListEntry(null, readValue(depth)));
+        }
+    }
+
+    private PList readNumber() throws IOException {
+        if (readNumberToken()) {
+            return new PListFloat(parseReal());
+        }
+        return new PListInteger(parseInteger());
+    }
+
+    /**
+     * Reads a number into the token buffer and returns whether it is a real.
+     */
+    private boolean readNumberToken() throws IOException {
+        token.setLength(0);
+        boolean isReal = false;
+        while (true) {
+            if (position == limit && !fill()) {
+                break;
+            }
+            char c = buffer[position];
+            if (c == '.' || c == 'e' || c == 'E') {
+                isReal = true;
+            } else if (!(c == '-' || c == '+' || (c >= '0' && c <= '9'))) {
+                break;
+            }
+            token.append(c);
+            position++;
+        }
+        return isReal;
+    }
+
+    private long parseInteger() throws IOException {
+        try {
+            return Long.parseLong(token.toString());
+        } catch (NumberFormatException e) {
+            throw error("invalid number '" + token + "'");
+        }
+    }
+
+    private double parseReal() throws IOException {
+        try {
+            return Double.parseDouble(token.toString());
+        } catch (NumberFormatException e) {
+            throw error("invalid number '" + token + "'");
+        }
+    }
+
+    private void expectLiteral(String literal) throws IOException {
+        for (int i = 0; i < literal.length(); i++) {
+            if (readChar() != literal.charAt(i)) {
+                throw error("invalid literal, expected '" + literal + "'");
+            }
+        }
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            if (position == limit && !fill()) {
+                return -1;
+            }
+            char c = buffer[position];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t' && c != '\uFEFF') {
+                return c;
+            }
+            position++;
+        }
+    }
+
+    private int readChar() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private boolean fill() throws IOException {
+        consumed += limit;
+        position = 0;
+        limit = 0;
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Cannot parse json: " + message + " at offset " + (consumed + position));
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.io.*;
+
+/**
+ * Writes the PList data model as compact JSON straight to an output stream, without going through plutil.
+ * <p/>
+ * JSON has no representation for dates and data, so these are rejected, as plutil does.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListJsonWriter {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public void write(PList plist, OutputStream outputStream) throws IOException {
+        if (!(plist instanceof PListDictionary) && !(plist instanceof PListArray)) {
+            throw new IllegalArgumentException("Cannot write json: root must be a dictionary or an array");
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(outputStream, "UTF-8"));
+        writeValue(plist, out);
+        out.flush();
+    }
+
+    private void writeValue(PList plist, Writer out) throws IOException {
+        if (plist instanceof PListBoolean) {
+            out.write(((PListBoolean) plist).getValue() ? "true" : "false");
+        } else if (plist instanceof PListInteger) {
+            out.write(String.valueOf(((PListInteger) plist).getValue()));
+        } else if (plist instanceof PListFloat) {
+            writeReal(((PListFloat) plist).getValue(), out);
+        } else if (plist instanceof PListString) {
+            writeString(((PListString) plist).getValue(), out);
+        } else if (plist instanceof PListArray && ((PListArray) plist).getPackedType() != null) {
+            writePackedArray((PListArray) plist, out);
+        } else if (plist instanceof PListArray) {
+            out.write('[');
+            PListArray array = (PListArray) plist;
+            for (int i = 0; i < array.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeValue(array.getValue(i), out);
+            }
+            out.write(']');
+        } else if (plist instanceof PListDictionary) {
+            out.write('{');
+            PListDictionary dictionary = (PListDictionary) plist;
+            for (int i = 0; i < dictionary.size(); i++) {
+                if (i > 0) {
+                    out.write(',');
+                }
+                writeString(dictionary.getKey(i), out);
+                out.write(':');
+                writeValue(dictionary.getValue(i), out);
+            }
+            out.write('}');
+        } else {
+            throw new IllegalArgumentException("Cannot write json: " + plist.getType() + " values are not supported");
+        }
+    }
+
+    /**
+     * Writes an array of packed numbers or booleans, without creating wrappers for the elements.
+     */
+    private void writePackedArray(PListArray array, Writer out) throws IOException {
+        out.write('[');
+        PListDataType type = array.getPackedType();
+        for (int i = 0; i < array.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (type == PListDataType.Integer) {
+                out.write(String.valueOf(array.getLong(i)));
+            } else if (type == PListDataType.Real) {
+                writeReal(array.getDouble(i), out);
+            } else {
+                out.write(array.getBoolean(i) ? "true" : "false");
+            }
+        }
+        out.write(']');
+    }
+
+    private void writeReal(double real, Writer out) throws IOException {
+        if (Double.isNaN(real) || Double.isInfinite(real)) {
+            throw new IllegalArgumentException("Cannot write json: " + real + " is not a valid number");
+        }
+        out.write(Double.toString(real));
+    }
+
+    private void writeString(String value, Writer out) throws IOException {
+        out.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\' || c < 0x20) {
+                out.write(value, start, i - start);
+                start = i + 1;
+                out.write('\\');
+                switch (c) {
+                    case '"':
+                    case '\\':
+                        out.write(c);
+                        break;
+                    case '\n':
+                        out.write('n');
+                        break;
+                    case '\r':
+                        out.write('r');
+                        break;
+                    case '\t':
+                        out.write('t');
+                        break;
+                    default:
+                        out.write("u00");
+                        out.write(HEX_DIGITS[c >> 4]);
+                        out.write(HEX_DIGITS[c & 0xF]);
+                }
+            }
+        }
+        out.write(value, start, length - start);
+        out.write('"');
+    }
+}
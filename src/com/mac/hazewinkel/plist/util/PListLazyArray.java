@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.PList;
+import com.mac.hazewinkel.plist.datamodel.PListArray;
+import com.mac.hazewinkel.plist.datamodel.PListEntry;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Array from a binary plist that decodes its elements on first access.
+ * <p/>
+ * Decoded elements are kept, so the editor sees the same PList instance for an element every time.
+ * The first change copies all elements into the regular PListArray storage, after which this behaves
+ * as a plain PListArray. Once every element has been decoded the buffer is no longer referenced.
+ *
+ * @author Maarten Hazewinkel
+ */
+class PListLazyArray extends PListArray {
+    private PListBinaryReader reader;
+    private final int refsStart;
+    private final int count;
+    private final int depth;
+    private PList[] decoded;
+    private int decodedCount;
+
+    PListLazyArray(PListBinaryReader reader, int refsStart, int count, int depth) {
+        this.reader = reader;
+        this.refsStart = refsStart;
+        this.count = count;
+        this.depth = depth;
+        this.decoded = new PList[count];
+    }
+
+    private boolean isMaterialized() {
+        return decoded == null;
+    }
+
+    private PList getChild(int index) {
+        PList child = decoded[index];
+        if (child == null) {
+            child = reader.readChild(refsStart, index, depth);
+            decoded[index] = child;
+            adopt(child);
+            decodedCount += 1;
+            if (decodedCount == count) {
+                reader = null;
+            }
+        }
+        return child;
+    }
+
+    private void materialize() {
+        if (!isMaterialized()) {
+            PList[] children = new PList[count];
+            for (int i = 0; i < count; i++) {
+                children[i] = getChild(i);
+            }
+            // the elements stay the same, so the snapshot does too
+            suspendSnapshot();
+            // append goes through insert, which must see this array as materialized already
+            decoded = null;
+            reader = null;
+            for (PList child : children) {
+                super.append(new PListEntry(null, child));
+            }
+            resumeSnapshot();
+        }
+    }
+
+    @Override
+    public List<PListEntry> elements() {
+        if (isMaterialized()) {
+            return super.elements();
+        }
+        return new AbstractList<PListEntry>() {
+            @Override
+            public PListEntry get(int index) {
+                if (isMaterialized()) {
+                    return PListLazyArray.super.elements().get(index);
+                }
+                return new PListEntry(getKey(index), getValue(index));
+            }
+
+            @Override
+            public int size() {
+                return isMaterialized() ? PListLazyArray.super.elements().size() : count;
+            }
+        };
+    }
+
+    @Override
+    public void append(PListEntry item) {
+        materialize();
+        super.append(item);
+    }
+
+    @Override
+    public int size() {
+        return isMaterialized() ? super.size() : count;
+    }
+
+    @Override
+    public PList getValue(int index) {
+        if (isMaterialized()) {
+            return super.getValue(index);
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return getChild(index);
+    }
+
+    /**
+     * Only decoded elements can be a child that the caller has, so only those are searched.
+     */
+    @Override
+    public int indexOf(PList child) {
+        if (isMaterialized()) {
+            return super.indexOf(child);
+        }
+        for (int i = 0; i < count; i++) {
+            if (decoded[i] == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void set(int index, PList newValue) {
+        materialize();
+        super.set(index, newValue);
+    }
+
+    @Override
+    public void insert(int index, PList newValue) {
+        materialize();
+        super.insert(index, newValue);
+    }
+
+    @Override
+    public void remove(int index) {
+        materialize();
+        super.remove(index);
+    }
+
+    @Override
+    public String toString() {
+        return "PListArray " + elements();
+    }
+}
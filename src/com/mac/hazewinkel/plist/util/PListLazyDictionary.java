@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.PList;
+import com.mac.hazewinkel.plist.datamodel.PListDictionary;
+import com.mac.hazewinkel.plist.datamodel.PListEntry;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Dictionary from a binary plist that decodes its entries on first access.
+ * <p/>
+ * Works like PListLazyArray: decoded entries are kept, and the first change copies all entries into
+ * the regular PListDictionary storage.
+ *
+ * @author Maarten Hazewinkel
+ */
+class PListLazyDictionary extends PListDictionary {
+    private PListBinaryReader reader;
+    private final int refsStart;
+    private final int count;
+    private final int depth;
+    private PListEntry[] decoded;
+    private int decodedCount;
+
+    PListLazyDictionary(PListBinaryReader reader, int refsStart, int count, int depth) {
+        this.reader = reader;
+        this.refsStart = refsStart;
+        this.count = count;
+        this.depth = depth;
+        this.decoded = new PListEntry[count];
+    }
+
+    private boolean isMaterialized() {
+        return decoded == null;
+    }
+
+    private PListEntry getEntry(int index) {
+        PListEntry entry = decoded[index];
+        if (entry == null) {
+            String key = reader.readChildKey(refsStart, index);
+            entry = new PListEntry(key, reader.readChild(refsStart, count + index, depth));
+            decoded[index] = entry;
+            adopt(entry.getValue());
+            decodedCount += 1;
+            if (decodedCount == count) {
+                reader = null;
+            }
+        }
+        return entry;
+    }
+
+    private void materialize() {
+        if (!isMaterialized()) {
+            // the elements stay the same, so the snapshot does too
+            suspendSnapshot();
+            for (int i = 0; i < count; i++) {
+                super.append(getEntry(i));
+            }
+            decoded = null;
+            reader = null;
+            resumeSnapshot();
+        }
+    }
+
+    @Override
+    public List<PListEntry> elements() {
+        if (isMaterialized()) {
+            return super.elements();
+        }
+        return new AbstractList<PListEntry>() {
+            @Override
+            public PListEntry get(int index) {
+                if (isMaterialized()) {
+                    return PListLazyDictionary.super.elements().get(index);
+                }
+                if (index < 0 || index >= count) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+                }
+                return getEntry(index);
+            }
+
+            @Override
+            public int size() {
+                return isMaterialized() ? PListLazyDictionary.super.elements().size() : count;
+            }
+        };
+    }
+
+    @Override
+    public PList get(String key) {
+        materialize();
+        return super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(String key) {
+        materialize();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public void append(PListEntry item) {
+        materialize();
+        super.append(item);
+    }
+
+    @Override
+    public int size() {
+        return isMaterialized() ? super.size() : count;
+    }
+
+    @Override
+    public String getKey(int index) {
+        if (isMaterialized()) {
+            return super.getKey(index);
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return getEntry(index).getKey();
+    }
+
+    @Override
+    public PList getValue(int index) {
+        if (isMaterialized()) {
+            return super.getValue(index);
+        }
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return getEntry(index).getValue();
+    }
+
+    /**
+     * Only decoded values can be a child that the caller has, so only those are searched.
+     */
+    @Override
+    public int indexOf(PList child) {
+        if (isMaterialized()) {
+            return super.indexOf(child);
+        }
+        for (int i = 0; i < count; i++) {
+            if (decoded[i] != null && decoded[i].getValue() == child) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void set(int index, PList newValue) {
+        materialize();
+        super.set(index, newValue);
+    }
+
+    @Override
+    public void insert(int index, PList newValue) {
+        materialize();
+        super.insert(index, newValue);
+    }
+
+    @Override
+    public void remove(int index) {
+        materialize();
+        super.remove(index);
+    }
+
+    @Override
+    public boolean renameEntry(String name, String value) {
+        materialize();
+        return super.renameEntry(name, value);
+    }
+
+    @Override
+    public String toString() {
+        return "PListDictionary " + elements();
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import org.jetbrains.annotations.NonNls;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs plutil to convert a plist between formats, streaming the data through the process.
+ * <p/>
+ * Input is written and output and error text are read on separate threads, so plutil can never block
+ * on a full pipe. A watchdog kills plutil when the conversion takes longer than the timeout, and
+ * cancel() stops a conversion from another thread. Failures are reported as an IOException that
+ * includes the error text of plutil.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListPlutilConverter {
+    public static final long DEFAULT_TIMEOUT_MILLIS = 60 * 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_ERROR_TEXT = 4096;
+
+    private final long timeoutMillis;
+
+    private volatile Process process;
+    private volatile boolean cancelled;
+
+    public PListPlutilConverter() {
+        this(DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public PListPlutilConverter(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public byte[] convert(byte[] content, @NonNls String format) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(content.length, 32));
+        convert(new ByteArrayInputStream(content), output, format);
+        return output.toByteArray();
+    }
+
+    public void convert(InputStream input, OutputStream output, @NonNls String format) throws IOException {
+        run(Arrays.asList("plutil", "-convert", format, "-o", "-", "--", "-"), input, output);
+    }
+
+    /**
+     * Stops the running conversion, which then fails with an InterruptedIOException.
+     */
+    public void cancel() {
+        cancelled = true;
+        Process running = process;
+        if (running != null) {
+            running.destroy();
+        }
+    }
+
+    void run(List<String> command, final InputStream input, OutputStream output) throws IOException {
+        if (cancelled) {
+            throw new InterruptedIOException("plutil conversion cancelled");
+        }
+        final Process running = new ProcessBuilder(command).start();
+        process = running;
+        if (cancelled) {
+            running.destroy();
+        }
+
+        final IOException[] inputFailure = new IOException[1];
+        Thread inputPump = new Thread("plutil input") {
+            @Override
+            public void run() {
+                OutputStream processInput = running.getOutputStream();
+                try {
+                    try {
+                        copy(input, processInput);
+                    } finally {
+                        processInput.close();
+                    }
+                } catch (IOException e) {
+                    inputFailure[0] = e;
+                }
+            }
+        };
+        final ByteArrayOutputStream errorText = new ByteArrayOutputStream();
+        Thread errorPump = new Thread("plutil error output") {
+            @Override
+            public void run() {
+                try {
+                    InputStream processError = running.getErrorStream();
+                    byte[] buffer = new byte[1024];
+                    int count;
+                    while ((count = processError.read(buffer)) >= 0) {
+                        if (errorText.size() < MAX_ERROR_TEXT) {
+                            errorText.write(buffer, 0, Math.min(count, MAX_ERROR_TEXT - errorText.size()));
+                        }
+                    }
+                    processError.close();
+                } catch (IOException ignored) {
+                    // the process was killed. The exit code reports the failure.
+                }
+            }
+        };
+        // set by whichever comes first, the exit code or the watchdog, which only kills plutil if it is first
+        final AtomicBoolean finished = new AtomicBoolean();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        Thread watchdog = new Thread("plutil watchdog") {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(timeoutMillis);
+                    if (finished.compareAndSet(false, true)) {
+                        timedOut.set(true);
+                        running.destroy();
+                    }
+                } catch (InterruptedException e) {
+                    // finished in time
+                }
+            }
+        };
+        inputPump.setDaemon(true);
+        errorPump.setDaemon(true);
+        watchdog.setDaemon(true);
+        inputPump.start();
+        errorPump.start();
+        watchdog.start();
+
+        int exitCode;
+        try {
+            InputStream processOutput = running.getInputStream();
+            try {
+                copy(processOutput, output);
+            } finally {
+                processOutput.close();
+            }
+            exitCode = running.waitFor();
+            // the exit code decides from here, even when the watchdog wakes up now. A watchdog that was first
+            // may still have been too late to kill plutil, which then reports its own exit code
+            finished.set(true);
+            inputPump.join();
+            errorPump.join();
+        } catch (InterruptedException e) {
+            running.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("plutil conversion interrupted");
+        } catch (IOException e) {
+            running.destroy();
+            if (!cancelled && !timedOut.get()) {
+                throw e;
+            }
+            exitCode = -1;
+        } finally {
+            watchdog.interrupt();
+            process = null;
+        }
+
+        if (cancelled) {
+            throw new InterruptedIOException("plutil conversion cancelled");
+        } else if (timedOut.get() && exitCode != 0) {
+            throw new IOException("plutil did not finish within " + timeoutMillis + " ms");
+        } else if (exitCode != 0) {
+            String message = errorText.toString("UTF-8").trim();
+            throw new IOException("plutil failed with exit code " + exitCode + (message.length() > 0 ? ": " + message : ""));
+        } else if (inputFailure[0] != null) {
+            throw inputFailure[0];
+        }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int count;
+        while ((count = input.read(buffer)) >= 0) {
+            output.write(buffer, 0, count);
+        }
+        output.flush();
+    }
+}
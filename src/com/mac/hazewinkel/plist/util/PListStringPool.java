@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Interning table for the dictionary keys and short string values met while parsing.
+ * <p/>
+ * Lookups work on the raw character or byte range in the parser's buffer, so a string that is already
+ * in the table is returned without creating a String for it first. The table has a fixed size and uses
+ * open addressing with a short probe sequence. When all slots in the sequence are taken, the entry in
+ * the first slot is replaced, so a document with many distinct strings cannot make the table grow.
+ * <p/>
+ * The table is not locked. Slots hold immutable Strings, so a thread that races with another can at
+ * worst miss a string that was just added, and then creates its own copy. This makes a single pool safe
+ * to share between parser threads and between documents, see getShared().
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListStringPool {
+    /** Longer strings are rarely repeated, and are never pooled */
+    public static final int MAX_LENGTH = 64;
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final int MAX_PROBES = 8;
+
+    private static final PListStringPool shared = new PListStringPool(4 * DEFAULT_CAPACITY);
+
+    private final String[] table;
+    private final int mask;
+
+    public PListStringPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of slots, rounded up to a power of two
+     */
+    public PListStringPool(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, MAX_PROBES) - 1) << 1;
+        table = new String[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Returns the pool that is shared by all documents that are parsed with it.
+     */
+    public static PListStringPool getShared() {
+        return shared;
+    }
+
+    public String intern(char[] chars, int start, int length) {
+        if (length > MAX_LENGTH) {
+            return new String(chars, start, length);
+        }
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + chars[i];
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int free = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (slot + probe) & mask;
+            String candidate = table[index];
+            if (candidate == null) {
+                free = index;
+                break;
+            }
+            if (candidate.hashCode() == hash && matches(candidate, chars, start, length)) {
+                return candidate;
+            }
+        }
+        String value = new String(chars, start, length);
+        table[free >= 0 ? free : slot] = value;
+        return value;
+    }
+
+    /**
+     * Interns a string of single byte characters, such as the ASCII strings in a binary plist.
+     */
+    public String intern(ByteBuffer buffer, int start, int length) {
+        if (length > MAX_LENGTH) {
+            return new String(toChars(buffer, start, length));
+        }
+        int hash = 0;
+        for (int i = start; i < start + length; i++) {
+            hash = 31 * hash + (buffer.get(i) & 0xFF);
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int free = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (slot + probe) & mask;
+            String candidate = table[index];
+            if (candidate == null) {
+                free = index;
+                break;
+            }
+            if (candidate.hashCode() == hash && matches(candidate, buffer, start, length)) {
+                return candidate;
+            }
+        }
+        String value = new String(toChars(buffer, start, length));
+        table[free >= 0 ? free : slot] = value;
+        return value;
+    }
+
+    public String intern(CharSequence value) {
+        int length = value.length();
+        if (length > MAX_LENGTH) {
+            return value.toString();
+        }
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + value.charAt(i);
+        }
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        int free = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int index = (slot + probe) & mask;
+            String candidate = table[index];
+            if (candidate == null) {
+                free = index;
+                break;
+            }
+            if (candidate.hashCode() == hash && candidate.contentEquals(value)) {
+                return candidate;
+            }
+        }
+        String result = value.toString();
+        table[free >= 0 ? free : slot] = result;
+        return result;
+    }
+
+    private static boolean matches(String candidate, char[] chars, int start, int length) {
+        if (candidate.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != chars[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(String candidate, ByteBuffer buffer, int start, int length) {
+        if (candidate.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (candidate.charAt(i) != (buffer.get(start + i) & 0xFF)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char[] toChars(ByteBuffer buffer, int start, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = (char) (buffer.get(start + i) & 0xFF);
+        }
+        return chars;
+    }
+}
@@ -17,7 +17,6 @@
 package com.mac.hazewinkel.plist.util;
 
 import com.mac.hazewinkel.plist.datamodel.*;
-import org.apache.commons.codec.binary.Base64;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -25,9 +24,6 @@ import org.xml.sax.helpers.DefaultHandler;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.util.Date;
 import java.util.LinkedList;
 
 /**
@@ -35,11 +31,22 @@ import java.util.LinkedList;
  */
 public class PListXmlHandler extends DefaultHandler {
 
+    private final PListStringPool stringPool;
     private PList root;
-    private LinkedList<char[]> charBuffer = new LinkedList<char[]>();
+    private char[] text = new char[256];
+    private int textLength;
     private LinkedList<PListAggregate> aggregateStack = new LinkedList<PListAggregate>();
     private LinkedList<String> aggregateDictionaryNameStack = new LinkedList<String>();
     private String dictionaryKey;
+    private PListBase64.Decoder dataDecoder;
+
+    public PListXmlHandler() {
+        this(new PListStringPool());
+    }
+
+    public PListXmlHandler(PListStringPool stringPool) {
+        this.stringPool = stringPool;
+    }
 
     public PList getPList() {
         return root;
@@ -47,9 +54,11 @@ public class PListXmlHandler extends DefaultHandler {
 
     @Override
     public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
-        charBuffer.clear();
+        textLength = 0;
 
-        if ("array".equals(qName) || "dict".equals(qName)) {
+        if ("data".equals(qName)) {
+            dataDecoder = new PListBase64.Decoder();
+        } else if ("array".equals(qName) || "dict".equals(qName)) {
             if (dictionaryKey != null) {
                 aggregateDictionaryNameStack.push(dictionaryKey);
                 dictionaryKey = null;
@@ -69,15 +78,16 @@ public class PListXmlHandler extends DefaultHandler {
         } else if ("false".equals(qName)) {
             push(new PListBoolean(false));
         } else if ("data".equals(qName)) {
-            push(new PListData(parseData(getBufferedText())));
+            push(new PListData(dataDecoder.finish()));
+            dataDecoder = null;
         } else if ("date".equals(qName)) {
             push(new PListDate(parseDate(getBufferedText())));
         } else if ("integer".equals(qName)) {
-            push(new PListInteger(parseInteger(getBufferedText())));
+            push(new PListInteger(PListXmlReader.parseInteger(getBufferedText())));
         } else if ("real".equals(qName)) {
             push(new PListFloat(parseFloat(getBufferedText())));
         } else if ("string".equals(qName)) {
-            push(new PListString(getBufferedText()));
+            push(new PListString(getPooledText()));
         } else if ("array".equals(qName) || "dict".equals(qName)) {
             PListAggregate aggregate = aggregateStack.pop();
             if (!aggregateStack.isEmpty() && aggregateStack.peek() instanceof PListDictionary) {
@@ -85,16 +95,22 @@ public class PListXmlHandler extends DefaultHandler {
             }
             push(aggregate);
         } else if ("key".equals(qName)) {
-            setDictionaryKey(getBufferedText());
+            setDictionaryKey(getPooledText());
         }
     }
 
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
-        if (length > 0) {
-            char[] chunk = new char[length];
-            System.arraycopy(ch, start, chunk, 0, length);
-            charBuffer.addLast(chunk);
+        if (dataDecoder != null) {
+            dataDecoder.decode(ch, start, length);
+        } else if (length > 0) {
+            if (textLength + length > text.length) {
+                char[] larger = new char[Math.max(text.length * 2, textLength + length)];
+                System.arraycopy(text, 0, larger, 0, textLength);
+                text = larger;
+            }
+            System.arraycopy(ch, start, text, textLength, length);
+            textLength += length;
         }
     }
 
@@ -125,21 +141,15 @@ public class PListXmlHandler extends DefaultHandler {
     }
 
     private String getBufferedText() {
-        StringBuilder buffer = new StringBuilder();
-        for (char[] chunk : charBuffer) {
-            buffer.append(chunk);
-        }
-        charBuffer.clear();
-        return buffer.toString();
+        String value = new String(text, 0, textLength);
+        textLength = 0;
+        return value;
     }
 
-    private int parseInteger(String value) {
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-            return 0;
-        }
+    private String getPooledText() {
+        String value = stringPool.intern(text, 0, textLength);
+        textLength = 0;
+        return value;
     }
 
     private double parseFloat(String value) {
@@ -151,27 +161,12 @@ public class PListXmlHandler extends DefaultHandler {
         }
     }
 
-    private byte[] parseData(String value) {
-        try {
-            return Base64.decodeBase64(value.getBytes("ISO8859-1"));
-        } catch (Exception e) {
-            e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-            return new byte[0];
-        }
-    }
-
-    private DateFormat parser;
-
-    private Date parseDate(String value) {
-        if (parser == null) {
-            parser = PListConversionUtil.getStoredDateFormatter();
-        }
-
+    private long parseDate(String value) {
         try {
-            return parser.parse(value);
-        } catch (ParseException e) {
+            return PListDateCodec.parse(value.trim());
+        } catch (IllegalArgumentException e) {
             e.printStackTrace();  //To change body of catch statement use File | Settings | File Templates.
-            return new Date(0);
+            return 0;
         }
     }
 
@@ -0,0 +1,798 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
+/**
+ * Pull parser for XML property lists that scans the UTF-8 bytes directly.
+ * <p/>
+ * Numbers, dates and base64 data are decoded straight from the input buffer. Strings are only
+ * created for keys and string values, and go through a PListStringPool, so repeated keys share one String. The DTD is never resolved, as the plist element set is fixed.
+ * Documents in any other encoding than UTF-8 (or its ASCII subset) are rejected with an
+ * UnsupportedEncodingException, so the caller can fall back to a general XML parser.
+ * <p/>
+ * Each array and dictionary records the range of the input it was read from, from the start of its
+ * start tag to the end of its end tag, so unchanged aggregates can be written back as they were.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListXmlReader {
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+    private static final byte[] PLIST = ascii("plist");
+    private static final byte[] DICT = ascii("dict");
+    private static final byte[] ARRAY = ascii("array");
+    private static final byte[] KEY = ascii("key");
+    private static final byte[] STRING = ascii("string");
+    private static final byte[] INTEGER = ascii("integer");
+    private static final byte[] REAL = ascii("real");
+    private static final byte[] DATE = ascii("date");
+    private static final byte[] DATA = ascii("data");
+    private static final byte[] TRUE = ascii("true");
+    private static final byte[] FALSE = ascii("false");
+
+    private static final byte[] XML_DECLARATION_START = ascii("<?xml");
+    private static final byte[] PROCESSING_INSTRUCTION_START = ascii("<?");
+    private static final byte[] PROCESSING_INSTRUCTION_END = ascii("?>");
+    private static final byte[] COMMENT_START = ascii("<!--");
+    private static final byte[] COMMENT_END = ascii("-->");
+    private static final byte[] CDATA_START = ascii("<![CDATA[");
+    private static final byte[] CDATA_END = ascii("]]>");
+    private static final byte[] DOCTYPE_START = ascii("<!DOCTYPE");
+
+    private static final int MAX_DEPTH = 512;
+
+    /** Exact powers of ten for the fast path of real number parsing */
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final byte[] data;
+    private final int limit;
+    private final PListStringPool stringPool;
+    private int position;
+
+    private int nameStart;
+    private int nameEnd;
+    private boolean emptyElement;
+
+    private char[] text = new char[256];
+    private int textLength;
+
+    public PListXmlReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public PListXmlReader(byte[] data, int offset, int length) {
+        this(data, offset, length, new PListStringPool());
+    }
+
+    public PListXmlReader(byte[] data, int offset, int length, PListStringPool stringPool) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+        this.stringPool = stringPool;
+    }
+
+    public PList read() throws UnsupportedEncodingException {
+        checkEncoding();
+        skipMarkup();
+        readStartTag();
+        PList result;
+        if (nameIs(PLIST)) {
+            if (emptyElement) {
+                throw error("empty plist element");
+            }
+            skipMarkup();
+            readStartTag();
+            result = readValue(0);
+            skipMarkup();
+            readEndTag(PLIST);
+        } else {
+            result = readValue(0);
+        }
+        skipMarkup();
+        if (position < limit) {
+            throw error("unexpected content after root element");
+        }
+        return result;
+    }
+
+    private void checkEncoding() throws UnsupportedEncodingException {
+        if (limit - position >= 3
+                && data[position] == (byte) 0xEF && data[position + 1] == (byte) 0xBB && data[position + 2] == (byte) 0xBF) {
+            position += 3;
+        } else if (limit - position >= 2 && (data[position] == 0 || data[position + 1] == 0
+                || (data[position] == (byte) 0xFE && data[position + 1] == (byte) 0xFF)
+                || (data[position] == (byte) 0xFF && data[position + 1] == (byte) 0xFE))) {
+            throw new UnsupportedEncodingException("UTF-16");
+        }
+
+        if (startsWith(XML_DECLARATION_START)) {
+            int end = indexOf(PROCESSING_INSTRUCTION_END, position);
+            if (end < 0) {
+                throw error("unterminated xml declaration");
+            }
+            String declaration = new String(data, position, end - position, LATIN1);
+            int encodingIndex = declaration.indexOf("encoding");
+            if (encodingIndex >= 0) {
+                int quote = encodingIndex + "encoding".length();
+                while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') {
+                    quote++;
+                }
+                int endQuote = quote + 1 < declaration.length() ? declaration.indexOf(declaration.charAt(quote), quote + 1) : -1;
+                if (endQuote > quote) {
+                    String encoding = declaration.substring(quote + 1, endQuote);
+                    if (!encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("UTF8")
+                            && !encoding.equalsIgnoreCase("US-ASCII") && !encoding.equalsIgnoreCase("ASCII")) {
+                        throw new UnsupportedEncodingException(encoding);
+                    }
+                }
+            }
+        }
+    }
+
+    private PList readValue(int depth) {
+        if (depth > MAX_DEPTH) {
+            throw error("nesting too deep");
+        }
+        if (nameIs(DICT)) {
+            return readDictionary(depth);
+        } else if (nameIs(ARRAY)) {
+            return readArray(depth);
+        } else if (nameIs(STRING)) {
+            return new PListString(readPooledText(STRING));
+        } else if (nameIs(INTEGER)) {
+            return new PListInteger(readInteger());
+        } else if (nameIs(REAL)) {
+            return new PListFloat(readReal());
+        } else if (nameIs(DATE)) {
+            return new PListDate(readDate());
+        } else if (nameIs(DATA)) {
+            return new PListData(readData());
+        } else if (nameIs(TRUE)) {
+            readEmptyElement(TRUE);
+            return new PListBoolean(true);
+        } else if (nameIs(FALSE)) {
+            readEmptyElement(FALSE);
+            return new PListBoolean(false);
+        }
+        throw error("unknown element <" + currentName() + ">");
+    }
+
+    private PListDictionary readDictionary(int depth) {
+        int start = nameStart - 1;
+        PListDictionary dictionary = new PListDictionary();
+        if (emptyElement) {
+            dictionary.setSourceRange(start, position);
+            return dictionary;
+        }
+        while (true) {
+            skipMarkup();
+            if (atEndTag()) {
+                readEndTag(DICT);
+                dictionary.setSourceRange(start, position);
+                return dictionary;
+            }
+            readStartTag();
+            if (!nameIs(KEY)) {
+                throw error("expected <key> but found <" + currentName() + ">");
+            }
+            String key = readPooledText(KEY);
+            skipMarkup();
+            readStartTag();
+            dictionary.append(new PListEntry(key, readValue(depth + 1)));
+        }
+    }
+
+    private PListArray readArray(int depth) {
+        int start = nameStart - 1;
+        PListArray array = new PListArray();
+        if (emptyElement) {
+            array.setSourceRange(start, position);
+            return array;
+        }
+        while (true) {
+            skipMarkup();
+            if (atEndTag()) {
+                readEndTag(ARRAY);
+                array.setSourceRange(start, position);
+                return array;
+            }
+            readStartTag();
+            readElement(array, depth + 1);
+        }
+    }
+
+    /**
+     * Reads an array element. Numbers and booleans go into the packed storage of the array without a wrapper.
+     */
+    private void readElement(PListArray array, int depth) {
+        if (nameIs(INTEGER)) {
+            array.appendLong(readInteger());
+        } else if (nameIs(REAL)) {
+            array.appendDouble(readReal());
+        } else if (nameIs(TRUE)) {
+            readEmptyElement(TRUE);
+            array.appendBoolean(true);
+        } else if (nameIs(FALSE)) {
+            readEmptyElement(FALSE);
+            array.appendBoolean(false);
+        } else {
+            array.append(new PListEntry(null, readValue(depth)));
+        }
+    }
+
+    private void readEmptyElement(byte[] name) {
+        if (!emptyElement) {
+            skipMarkup();
+            readEndTag(name);
+        }
+    }
+
+    private String readText(byte[] name) {
+        readTextContent(name);
+        return new String(text, 0, textLength);
+    }
+
+    private String readPooledText(byte[] name) {
+        readTextContent(name);
+        return stringPool.intern(text, 0, textLength);
+    }
+
+    /**
+     * Reads character content up to the end tag into the text buffer, resolving entities and CDATA sections.
+     */
+    private void readTextContent(byte[] name) {
+        textLength = 0;
+        if (emptyElement) {
+            return;
+        }
+        while (true) {
+            if (position >= limit) {
+                throw error("unterminated <" + new String(name, LATIN1) + "> element");
+            }
+            int b = data[position];
+            if (b == '<') {
+                if (startsWith(CDATA_START)) {
+                    int end = indexOf(CDATA_END, position + CDATA_START.length);
+                    if (end < 0) {
+                        throw error("unterminated CDATA section");
+                    }
+                    decodeUtf8(position + CDATA_START.length, end);
+                    position = end + CDATA_END.length;
+                } else if (startsWith(COMMENT_START)) {
+                    position = skipPast(COMMENT_END, position + COMMENT_START.length, "comment");
+                } else if (startsWith(PROCESSING_INSTRUCTION_START)) {
+                    position = skipPast(PROCESSING_INSTRUCTION_END, position + 2, "processing instruction");
+                } else {
+                    readEndTag(name);
+                    return;
+                }
+            } else if (b == '&') {
+                readEntity();
+            } else {
+                int start = position;
+                while (position < limit && data[position] != '<' && data[position] != '&') {
+                    position++;
+                }
+                decodeUtf8(start, position);
+            }
+        }
+    }
+
+    private long readInteger() {
+        if (!findSimpleContent()) {
+            readTextContent(INTEGER);
+            int start = trimStart(text, 0, textLength);
+            return parseInteger(null, text, start, trimEnd(text, start, textLength));
+        }
+        int start = trimStart(contentStart, contentEnd);
+        int end = trimEnd(start, contentEnd);
+        readEndTag(INTEGER);
+        return parseInteger(data, null, start, end);
+    }
+
+    private double readReal() {
+        if (!findSimpleContent()) {
+            return parseReal(readText(REAL));
+        }
+        int start = trimStart(contentStart, contentEnd);
+        int end = trimEnd(start, contentEnd);
+        readEndTag(REAL);
+
+        // Fast path for up to 15 significant digits and small exponents, where a single
+        // multiplication or division by an exact power of ten gives the correctly rounded result.
+        int i = start;
+        boolean negative = false;
+        if (i < end && (data[i] == '-' || data[i] == '+')) {
+            negative = data[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean seenDigit = false;
+        while (i < end && data[i] >= '0' && data[i] <= '9') {
+            seenDigit = true;
+            if (mantissa != 0 || data[i] != '0') {
+                mantissa = mantissa * 10 + (data[i] - '0');
+                digits++;
+            }
+            i++;
+        }
+        if (i < end && data[i] == '.') {
+            i++;
+            while (i < end && data[i] >= '0' && data[i] <= '9') {
+                seenDigit = true;
+                if (mantissa != 0 || data[i] != '0') {
+                    mantissa = mantissa * 10 + (data[i] - '0');
+                    digits++;
+                }
+                exponent--;
+                i++;
+            }
+        }
+        if (i < end && (data[i] == 'e' || data[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (data[i] == '-' || data[i] == '+')) {
+                negativeExponent = data[i] == '-';
+                i++;
+            }
+            int explicitExponent = 0;
+            boolean seenExponentDigit = false;
+            while (i < end && data[i] >= '0' && data[i] <= '9' && explicitExponent < 10000) {
+                explicitExponent = explicitExponent * 10 + (data[i] - '0');
+                seenExponentDigit = true;
+                i++;
+            }
+            if (!seenExponentDigit) {
+                seenDigit = false;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+        if (i == end && seenDigit && digits <= 15 && exponent >= -22 && exponent <= 22) {
+            double value = mantissa;
+            value = exponent < 0 ? value / POWERS_OF_TEN[-exponent] : value * POWERS_OF_TEN[exponent];
+            return negative ? -value : value;
+        }
+        return parseReal(new String(data, start, end - start, LATIN1));
+    }
+
+    private long readDate() {
+        if (!findSimpleContent()) {
+            readText(DATE);
+            int start = trimStart(text, 0, textLength);
+            return parseDate(text, start, trimEnd(text, start, textLength));
+        }
+        int start = trimStart(contentStart, contentEnd);
+        int end = trimEnd(start, contentEnd);
+        readEndTag(DATE);
+        return parseDate(data, start, end);
+    }
+
+    private byte[] readData() {
+        if (!findSimpleContent()) {
+            PListBase64.Decoder decoder = new PListBase64.Decoder();
+            readText(DATA);
+            decoder.decode(text, 0, textLength);
+            return decoder.finish();
+        }
+        int start = contentStart;
+        int end = contentEnd;
+        readEndTag(DATA);
+        return PListBase64.decode(data, start, end);
+    }
+
+    private int contentStart;
+    private int contentEnd;
+
+    /**
+     * Locates content that contains no markup or entities and runs up to the end tag.
+     * On success the position is left at the end tag.
+     */
+    private boolean findSimpleContent() {
+        if (emptyElement) {
+            contentStart = position;
+            contentEnd = position;
+            return true;
+        }
+        int end = position;
+        while (end < limit && data[end] != '<' && data[end] != '&') {
+            end++;
+        }
+        if (end + 1 < limit && data[end] == '<' && data[end + 1] == '/') {
+            contentStart = position;
+            contentEnd = end;
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private int trimStart(int start, int end) {
+        while (start < end && isWhitespace(data[start])) {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimStart(char[] chars, int start, int end) {
+        while (start < end && chars[start] <= ' ') {
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimEnd(char[] chars, int start, int end) {
+        while (end > start && chars[end - 1] <= ' ') {
+            end--;
+        }
+        return end;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && isWhitespace(data[end - 1])) {
+            end--;
+        }
+        return end;
+    }
+
+    /**
+     * Invalid dates are read as the epoch, as before.
+     */
+    private static long parseDate(byte[] bytes, int start, int end) {
+        try {
+            return PListDateCodec.parse(bytes, start, end);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    private static long parseDate(char[] chars, int start, int end) {
+        try {
+            return PListDateCodec.parse(chars, start, end);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+
+    static long parseInteger(String value) {
+        String trimmed = value.trim();
+        return parseInteger(null, trimmed.toCharArray(), 0, trimmed.length());
+    }
+
+    /**
+     * Parses an optional sign followed by decimal digits, or by 0x and hexadecimal digits, from the bytes
+     * or the chars. Anything else, and values outside the range of a long, give 0.
+     */
+    private static long parseInteger(byte[] bytes, char[] chars, int start, int end) {
+        boolean negative = false;
+        if (start < end && (charAt(bytes, chars, start) == '-' || charAt(bytes, chars, start) == '+')) {
+            negative = charAt(bytes, chars, start) == '-';
+            start++;
+        }
+        int radix = 10;
+        if (end - start > 2 && charAt(bytes, chars, start) == '0'
+                && (charAt(bytes, chars, start + 1) == 'x' || charAt(bytes, chars, start + 1) == 'X')) {
+            radix = 16;
+            start += 2;
+        }
+        if (start == end) {
+            return 0;
+        }
+        // accumulates negatively, as Long.parseLong does, so that Long.MIN_VALUE can be read too
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long multiplyLimit = limit / radix;
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(charAt(bytes, chars, i), radix);
+            if (digit < 0 || value < multiplyLimit) {
+                return 0;
+            }
+            value *= radix;
+            if (value < limit + digit) {
+                return 0;
+            }
+            value -= digit;
+        }
+        return negative ? value : -value;
+    }
+
+    private static char charAt(byte[] bytes, char[] chars, int index) {
+        return bytes != null ? (char) (bytes[index] & 0xFF) : chars[index];
+    }
+
+    private static double parseReal(String value) {
+        String trimmed = value.trim();
+        if (trimmed.equalsIgnoreCase("nan")) {
+            return Double.NaN;
+        } else if (trimmed.equalsIgnoreCase("inf") || trimmed.equalsIgnoreCase("+inf")
+                || trimmed.equalsIgnoreCase("infinity") || trimmed.equalsIgnoreCase("+infinity")) {
+            return Double.POSITIVE_INFINITY;
+        } else if (trimmed.equalsIgnoreCase("-inf") || trimmed.equalsIgnoreCase("-infinity")) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        try {
+            return Double.parseDouble(trimmed);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void readEntity() {
+        int end = position + 1;
+        while (end < limit && data[end] != ';' && end - position < 12) {
+            end++;
+        }
+        if (end >= limit || data[end] != ';') {
+            throw error("unterminated entity reference");
+        }
+        int nameStart = position + 1;
+        int nameLength = end - nameStart;
+        int codePoint;
+        if (nameLength > 1 && data[nameStart] == '#') {
+            int radix = 10;
+            int digitsStart = nameStart + 1;
+            if (data[digitsStart] == 'x') {
+                radix = 16;
+                digitsStart++;
+            }
+            codePoint = 0;
+            for (int i = digitsStart; i < end; i++) {
+                int digit = Character.digit(data[i], radix);
+                if (digit < 0) {
+                    throw error("invalid character reference");
+                }
+                codePoint = codePoint * radix + digit;
+            }
+            if (digitsStart == end || codePoint > Character.MAX_CODE_POINT) {
+                throw error("invalid character reference");
+            }
+        } else if (regionEquals(nameStart, end, "amp")) {
+            codePoint = '&';
+        } else if (regionEquals(nameStart, end, "lt")) {
+            codePoint = '<';
+        } else if (regionEquals(nameStart, end, "gt")) {
+            codePoint = '>';
+        } else if (regionEquals(nameStart, end, "quot")) {
+            codePoint = '"';
+        } else if (regionEquals(nameStart, end, "apos")) {
+            codePoint = '\'';
+        } else {
+            throw error("unknown entity reference");
+        }
+        ensureTextCapacity(2);
+        textLength += Character.toChars(codePoint, text, textLength);
+        position = end + 1;
+    }
+
+    /**
+     * Appends the UTF-8 bytes in the range to the text buffer, normalizing line ends as XML requires.
+     */
+    private void decodeUtf8(int start, int end) {
+        ensureTextCapacity(end - start);
+        char[] chars = text;
+        int length = textLength;
+        int i = start;
+        while (i < end) {
+            int b = data[i];
+            if (b >= 0) {
+                if (b == '\r') {
+                    chars[length++] = '\n';
+                    i += (i + 1 < end && data[i + 1] == '\n') ? 2 : 1;
+                } else {
+                    chars[length++] = (char) b;
+                    i++;
+                }
+            } else if ((b & 0xE0) == 0xC0 && i + 1 < end) {
+                chars[length++] = (char) (((b & 0x1F) << 6) | (data[i + 1] & 0x3F));
+                i += 2;
+            } else if ((b & 0xF0) == 0xE0 && i + 2 < end) {
+                chars[length++] = (char) (((b & 0x0F) << 12) | ((data[i + 1] & 0x3F) << 6) | (data[i + 2] & 0x3F));
+                i += 3;
+            } else if ((b & 0xF8) == 0xF0 && i + 3 < end) {
+                int codePoint = ((b & 0x07) << 18) | ((data[i + 1] & 0x3F) << 12)
+                        | ((data[i + 2] & 0x3F) << 6) | (data[i + 3] & 0x3F);
+                length += Character.toChars(codePoint, chars, length);
+                i += 4;
+            } else {
+                chars[length++] = '\uFFFD';
+                i++;
+            }
+        }
+        textLength = length;
+    }
+
+    private void ensureTextCapacity(int additional) {
+        if (textLength + additional > text.length) {
+            char[] larger = new char[Math.max(text.length * 2, textLength + additional)];
+            System.arraycopy(text, 0, larger, 0, textLength);
+            text = larger;
+        }
+    }
+
+    /**
+     * Skips whitespace, comments, processing instructions and the document type declaration.
+     */
+    private void skipMarkup() {
+        while (true) {
+            while (position < limit && isWhitespace(data[position])) {
+                position++;
+            }
+            if (startsWith(COMMENT_START)) {
+                position = skipPast(COMMENT_END, position + COMMENT_START.length, "comment");
+            } else if (startsWith(PROCESSING_INSTRUCTION_START)) {
+                position = skipPast(PROCESSING_INSTRUCTION_END, position + 2, "processing instruction");
+            } else if (startsWith(DOCTYPE_START)) {
+                skipDoctype();
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void skipDoctype() {
+        int depth = 0;
+        while (position < limit) {
+            byte b = data[position++];
+            if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                depth--;
+            } else if (b == '"' || b == '\'') {
+                while (position < limit && data[position] != b) {
+                    position++;
+                }
+                position++;
+            } else if (b == '>' && depth == 0) {
+                return;
+            }
+        }
+        throw error("unterminated document type declaration");
+    }
+
+    private void readStartTag() {
+        if (position >= limit || data[position] != '<') {
+            throw error("expected element");
+        }
+        position++;
+        nameStart = position;
+        while (position < limit && !isWhitespace(data[position]) && data[position] != '/' && data[position] != '>') {
+            position++;
+        }
+        nameEnd = position;
+        if (nameEnd == nameStart) {
+            throw error("expected element name");
+        }
+        // skip attributes
+        while (position < limit && data[position] != '>') {
+            byte b = data[position];
+            if (b == '"' || b == '\'') {
+                position++;
+                while (position < limit && data[position] != b) {
+                    position++;
+                }
+            }
+            position++;
+        }
+        if (position >= limit) {
+            throw error("unterminated start tag");
+        }
+        emptyElement = data[position - 1] == '/';
+        position++;
+    }
+
+    private boolean atEndTag() {
+        return position + 1 < limit && data[position] == '<' && data[position + 1] == '/';
+    }
+
+    private void readEndTag(byte[] name) {
+        if (!atEndTag()) {
+            throw error("expected </" + new String(name, LATIN1) + ">");
+        }
+        position += 2;
+        int start = position;
+        while (position < limit && !isWhitespace(data[position]) && data[position] != '>') {
+            position++;
+        }
+        if (!regionEquals(start, position, name)) {
+            throw error("expected </" + new String(name, LATIN1) + "> but found </" + new String(data, start, position - start, LATIN1) + ">");
+        }
+        while (position < limit && isWhitespace(data[position])) {
+            position++;
+        }
+        if (position >= limit || data[position] != '>') {
+            throw error("unterminated end tag");
+        }
+        position++;
+    }
+
+    private boolean nameIs(byte[] name) {
+        return regionEquals(nameStart, nameEnd, name);
+    }
+
+    private String currentName() {
+        return new String(data, nameStart, nameEnd - nameStart, LATIN1);
+    }
+
+    private boolean regionEquals(int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (data[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean regionEquals(int start, int end, String expected) {
+        if (end - start != expected.length()) {
+            return false;
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            if (data[start + i] != expected.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        return position + prefix.length <= limit && regionEquals(position, position + prefix.length, prefix);
+    }
+
+    private int indexOf(byte[] pattern, int from) {
+        int last = limit - pattern.length;
+        for (int i = from; i <= last; i++) {
+            if (regionEquals(i, i + pattern.length, pattern)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int skipPast(byte[] terminator, int from, String description) {
+        int end = indexOf(terminator, from);
+        if (end < 0) {
+            throw error("unterminated " + description);
+        }
+        return end + terminator.length;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Cannot parse xml: " + message + " at offset " + position);
+    }
+
+    private static byte[] ascii(String value) {
+        byte[] bytes = new byte[value.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) value.charAt(i);
+        }
+        return bytes;
+    }
+}
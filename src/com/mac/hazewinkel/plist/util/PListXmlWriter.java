@@ -17,64 +17,304 @@
 package com.mac.hazewinkel.plist.util;
 
 import com.mac.hazewinkel.plist.datamodel.*;
-import org.apache.commons.codec.binary.Base64;
 
-import java.io.UnsupportedEncodingException;
-import java.text.DateFormat;
-import java.util.Date;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 
 /**
+ * Writes a complete XML plist document as UTF-8, straight to an output stream or channel.
+ * <p/>
+ * Output goes through a single reusable byte buffer, so the document is never held in memory as a whole.
+ * The layout follows plutil: tab indentation, empty containers as &lt;array/&gt; and &lt;dict/&gt;,
+ * and reals with 17 significant digits.
+ * <p/>
+ * When the writer is given the source document, arrays and dictionaries that still have their source range
+ * are copied from it unchanged, so only the parts of the document that were edited are encoded again.
+ *
  * @author Maarten Hazewinkel
  */
 public class PListXmlWriter {
-    public void write(PList plist, StringBuilder buffer) {
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_DATA_LINE_LENGTH = 76;
+    private static final MathContext REAL_PRECISION = new MathContext(17, RoundingMode.HALF_EVEN);
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer channelBuffer = ByteBuffer.wrap(buffer);
+    private int count;
+
+    private final byte[] source;
+    private OutputStream outputStream;
+    private WritableByteChannel channel;
+
+    public PListXmlWriter() {
+        this(null);
+    }
+
+    /**
+     * @param source the document that the source ranges of the aggregates to write refer to, or null
+     */
+    public PListXmlWriter(byte[] source) {
+        this.source = source;
+    }
+
+    public void write(PList plist, OutputStream outputStream) throws IOException {
+        this.outputStream = outputStream;
+        this.channel = null;
+        writeDocument(plist);
+        outputStream.flush();
+    }
+
+    public void write(PList plist, WritableByteChannel channel) throws IOException {
+        this.outputStream = null;
+        this.channel = channel;
+        writeDocument(plist);
+    }
+
+    private void writeDocument(PList plist) throws IOException {
+        count = 0;
+        try {
+            writeAscii(PListConversionUtil.XML1_PREFIX);
+            writeValue(plist, 0);
+            writeAscii("</plist>\n");
+            flushBuffer();
+        } finally {
+            outputStream = null;
+            channel = null;
+        }
+    }
+
+    private void writeValue(PList plist, int indent) throws IOException {
+        writeIndent(indent);
         if (plist instanceof PListBoolean) {
-            if (((PListBoolean) plist).getValue())
-                buffer.append("<true/>\n");
-            else
-                buffer.append("<false/>\n");
+            writeBoolean(((PListBoolean) plist).getValue());
         } else if (plist instanceof PListData) {
-            byte[] data = ((PListData) plist).getValue();
-            buffer.append("<data>\n");
-            try {
-                buffer.append(new String(Base64.encodeBase64Chunked(data), "ISO8859-1"));
-            } catch (UnsupportedEncodingException e) {
-                // should never happen. Latin1 is a required part of the JRE
-            }
-            buffer.append("</data>\n");
+            writeData(((PListData) plist).getValue(), indent);
         } else if (plist instanceof PListDate) {
-            Date date = ((PListDate) plist).getValue();
-            buffer.append("<date>").append(getDateFormatter().format(date)).append("</date>\n");
+            writeAscii("<date>");
+            if (count + PListDateCodec.MAX_LENGTH > BUFFER_SIZE) {
+                flushBuffer();
+            }
+            count += PListDateCodec.format(((PListDate) plist).getTime(), buffer, count);
+            writeAscii("</date>\n");
         } else if (plist instanceof PListFloat) {
-            double real = ((PListFloat) plist).getValue();
-            buffer.append("<real>").append(Double.toString(real)).append("</real>\n");
+            writeReal(((PListFloat) plist).getValue());
         } else if (plist instanceof PListInteger) {
-            int integer = ((PListInteger) plist).getValue();
-            buffer.append("<integer>").append(String.valueOf(integer)).append("</integer>\n");
+            writeInteger(((PListInteger) plist).getValue());
         } else if (plist instanceof PListString) {
-            String string = ((PListString) plist).getValue();
-            buffer.append("<string>").append(string).append("</string>\n");
+            writeAscii("<string>");
+            writeEscaped(((PListString) plist).getValue());
+            writeAscii("</string>\n");
+        } else if (isUnchanged(plist)) {
+            PListAggregate aggregate = (PListAggregate) plist;
+            writeBytes(source, aggregate.getSourceStart(), aggregate.getSourceEnd() - aggregate.getSourceStart());
+            writeByte('\n');
         } else if (plist instanceof PListArray) {
-            buffer.append("<array>\n");
-            for (PListEntry entry : ((PListArray) plist).elements()) {
-                write(entry.getValue(), buffer);
+            PListArray array = (PListArray) plist;
+            if (array.getPackedType() != null) {
+                writePackedArray(array, indent);
+                return;
+            }
+            if (array.size() == 0) {
+                writeAscii("<array/>\n");
+                return;
+            }
+            writeAscii("<array>\n");
+            for (int i = 0; i < array.size(); i++) {
+                writeValue(array.getValue(i), indent + 1);
             }
-            buffer.append("</array>\n");
+            writeIndent(indent);
+            writeAscii("</array>\n");
         } else if (plist instanceof PListDictionary) {
-            buffer.append("<dict>\n");
-            for (PListEntry entry : ((PListDictionary) plist).elements()) {
-                buffer.append("<key>").append(entry.getKey()).append("</key>\n");
-                write(entry.getValue(), buffer);
+            PListDictionary dictionary = (PListDictionary) plist;
+            if (dictionary.size() == 0) {
+                writeAscii("<dict/>\n");
+                return;
+            }
+            writeAscii("<dict>\n");
+            for (int i = 0; i < dictionary.size(); i++) {
+                writeIndent(indent + 1);
+                writeAscii("<key>");
+                writeEscaped(dictionary.getKey(i));
+                writeAscii("</key>\n");
+                writeValue(dictionary.getValue(i), indent + 1);
+            }
+            writeIndent(indent);
+            writeAscii("</dict>\n");
+        }
+    }
+
+    /**
+     * Writes an array of packed numbers or booleans, without creating wrappers for the elements.
+     */
+    private void writePackedArray(PListArray array, int indent) throws IOException {
+        writeAscii("<array>\n");
+        PListDataType type = array.getPackedType();
+        for (int i = 0; i < array.size(); i++) {
+            writeIndent(indent + 1);
+            if (type == PListDataType.Integer) {
+                writeInteger(array.getLong(i));
+            } else if (type == PListDataType.Real) {
+                writeReal(array.getDouble(i));
+            } else {
+                writeBoolean(array.getBoolean(i));
+            }
+        }
+        writeIndent(indent);
+        writeAscii("</array>\n");
+    }
+
+    private void writeBoolean(boolean value) throws IOException {
+        writeAscii(value ? "<true/>\n" : "<false/>\n");
+    }
+
+    private void writeInteger(long value) throws IOException {
+        writeAscii("<integer>");
+        writeAscii(String.valueOf(value));
+        writeAscii("</integer>\n");
+    }
+
+    private void writeReal(double value) throws IOException {
+        writeAscii("<real>");
+        writeAscii(formatReal(value));
+        writeAscii("</real>\n");
+    }
+
+    private boolean isUnchanged(PList plist) {
+        if (source == null || !(plist instanceof PListAggregate)) {
+            return false;
+        }
+        PListAggregate aggregate = (PListAggregate) plist;
+        return aggregate.hasSourceRange() && aggregate.getSourceEnd() <= source.length;
+    }
+
+    private void writeData(byte[] data, int indent) throws IOException {
+        writeAscii("<data>\n");
+        int lineLength = Math.max(MAX_DATA_LINE_LENGTH - 8 * indent, 16);
+        int bytesPerLine = lineLength / 4 * 3;
+        for (int start = 0; start < data.length; start += bytesPerLine) {
+            writeIndent(indent);
+            if (count + lineLength > BUFFER_SIZE) {
+                flushBuffer();
+            }
+            count += PListBase64.encode(data, start, Math.min(bytesPerLine, data.length - start), buffer, count);
+            writeByte('\n');
+        }
+        writeIndent(indent);
+        writeAscii("</data>\n");
+    }
+
+    /**
+     * Formats a real like plutil, with up to 17 significant digits and no trailing zeros.
+     */
+    static String formatReal(double real) {
+        if (Double.isNaN(real)) {
+            return "nan";
+        } else if (Double.isInfinite(real)) {
+            return real > 0 ? "+infinity" : "-infinity";
+        } else if (real == 0) {
+            return 1 / real < 0 ? "-0" : "0";
+        }
+        BigDecimal value = new BigDecimal(real).round(REAL_PRECISION).stripTrailingZeros();
+        int exponent = value.precision() - value.scale() - 1;
+        if (exponent >= -4 && exponent < 17) {
+            return value.toPlainString();
+        }
+        BigDecimal mantissa = value.movePointLeft(exponent);
+        return mantissa.toPlainString() + (exponent < 0 ? "e-" : "e+") + (Math.abs(exponent) < 10 ? "0" : "") + Math.abs(exponent);
+    }
+
+    private void writeIndent(int indent) throws IOException {
+        for (int i = 0; i < indent; i++) {
+            writeByte('\t');
+        }
+    }
+
+    private void writeAscii(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            writeByte(value.charAt(i));
+        }
+    }
+
+    /**
+     * Writes character data as UTF-8, escaping the characters that are markup in XML.
+     */
+    private void writeEscaped(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                if (c == '&') {
+                    writeAscii("&amp;");
+                } else if (c == '<') {
+                    writeAscii("&lt;");
+                } else if (c == '>') {
+                    writeAscii("&gt;");
+                } else {
+                    writeByte(c);
+                }
+            } else if (c < 0x800) {
+                writeByte(0xC0 | (c >> 6));
+                writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                writeByte(0xF0 | (codePoint >> 18));
+                writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                writeByte(0x80 | (codePoint & 0x3F));
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // unpaired surrogate. Write a replacement character, as String.getBytes would.
+                writeByte('?');
+            } else {
+                writeByte(0xE0 | (c >> 12));
+                writeByte(0x80 | ((c >> 6) & 0x3F));
+                writeByte(0x80 | (c & 0x3F));
             }
-            buffer.append("</dict>\n");
         }
     }
 
-    private DateFormat dateFormatter;
-    private DateFormat getDateFormatter() {
-        if (dateFormatter == null) {
-            dateFormatter = PListConversionUtil.getStoredDateFormatter();
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        if (length >= BUFFER_SIZE) {
+            flushBuffer();
+            if (channel != null) {
+                ByteBuffer range = ByteBuffer.wrap(bytes, offset, length);
+                while (range.hasRemaining()) {
+                    channel.write(range);
+                }
+            } else {
+                outputStream.write(bytes, offset, length);
+            }
+            return;
+        }
+        if (count + length > BUFFER_SIZE) {
+            flushBuffer();
+        }
+        System.arraycopy(bytes, offset, buffer, count, length);
+        count += length;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (count == BUFFER_SIZE) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (channel != null) {
+            channelBuffer.clear();
+            channelBuffer.limit(count);
+            while (channelBuffer.hasRemaining()) {
+                channel.write(channelBuffer);
+            }
+        } else {
+            outputStream.write(buffer, 0, count);
         }
-        return dateFormatter;
+        count = 0;
     }
 }
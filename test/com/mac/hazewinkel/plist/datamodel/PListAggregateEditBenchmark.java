@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times deleting every other element of a large array, finding the elements by a linear scan,
+ * by identity with deleteEntry, and by position with remove.
+ * Run with: java PListAggregateEditBenchmark [elements]
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListAggregateEditBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        System.out.println("Elements: " + count);
+        for (int round = 0; round < ROUNDS; round++) {
+            System.out.println(String.format("linear scan %8.1f ms, deleteEntry %8.1f ms, remove(int) %8.1f ms",
+                                             deleteByScan(count) / 1e6, deleteByIdentity(count) / 1e6,
+                                             deleteByPosition(count) / 1e6));
+        }
+    }
+
+    /**
+     * Finds each element the way deleteEntry did before the position index.
+     */
+    private static long deleteByScan(int count) {
+        PListArray array = createArray(count);
+        List<PList> doomed = everyOther(array);
+        long start = System.nanoTime();
+        for (PList value : doomed) {
+            for (int i = 0; i < array.size(); i++) {
+                if (array.getValue(i) == value) {
+                    array.remove(i);
+                    break;
+                }
+            }
+        }
+        return check(array, count, System.nanoTime() - start);
+    }
+
+    private static long deleteByIdentity(int count) {
+        PListArray array = createArray(count);
+        List<PList> doomed = everyOther(array);
+        long start = System.nanoTime();
+        for (PList value : doomed) {
+            array.deleteEntry(value);
+        }
+        return check(array, count, System.nanoTime() - start);
+    }
+
+    private static long deleteByPosition(int count) {
+        PListArray array = createArray(count);
+        long start = System.nanoTime();
+        for (int i = (count - 1) / 2 * 2; i >= 0; i -= 2) {
+            array.remove(i);
+        }
+        return check(array, count, System.nanoTime() - start);
+    }
+
+    private static PListArray createArray(int count) {
+        PListArray array = new PListArray();
+        for (int i = 0; i < count; i++) {
+            array.append(new PListEntry(null, new PListString("element " + i)));
+        }
+        return array;
+    }
+
+    private static List<PList> everyOther(PListArray array) {
+        List<PList> values = new ArrayList<PList>();
+        for (int i = 0; i < array.size(); i += 2) {
+            values.add(array.getValue(i));
+        }
+        return values;
+    }
+
+    private static long check(PListArray array, int count, long time) {
+        if (array.size() != count / 2 || !new PListString("element 1").equals(array.getValue(0))) {
+            throw new IllegalStateException("wrong elements deleted");
+        }
+        return time;
+    }
+}
@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListArrayTest {
+
+    @Test
+    public void testPackedIntegers() throws Exception {
+        PListArray array = new PListArray();
+        array.appendLong(1);
+        array.appendLong(5000000000L);
+        array.appendLong(-3);
+
+        assertEquals(PListDataType.Integer, array.getPackedType());
+        assertEquals(3, array.size());
+        assertEquals(5000000000L, array.getLong(1));
+
+        PList wrapper = array.elements().get(1).getValue();
+        assertEquals(new PListInteger(5000000000L), wrapper);
+        assertSame(wrapper, array.elements().get(1).getValue());
+        assertSame(array, wrapper.getParent());
+
+        ((PListInteger) wrapper).setAsString("7");
+        assertEquals(7, array.getLong(1));
+    }
+
+    @Test
+    public void testMismatchedInsertMovesToObjects() throws Exception {
+        PListArray array = new PListArray();
+        array.appendDouble(1.5);
+        array.appendDouble(2.5);
+        PList first = array.elements().get(0).getValue();
+
+        array.insertAfterChild(new PListString("text"), first);
+
+        assertNull(array.getPackedType());
+        assertEquals(3, array.size());
+        assertSame(first, array.elements().get(0).getValue());
+        assertEquals(new PListString("text"), array.elements().get(1).getValue());
+        assertEquals(new PListFloat(2.5), array.elements().get(2).getValue());
+    }
+
+    @Test
+    public void testPackedEqualsObjectStorage() throws Exception {
+        PListArray packed = new PListArray();
+        PListArray objects = new PListArray();
+        objects.append(new PListEntry(null, new PListString("removed")));
+        objects.deleteEntry(objects.elements().get(0).getValue());
+        for (int i = 0; i < 100; i++) {
+            packed.appendLong(i * 1000000007L);
+            objects.append(new PListEntry(null, new PListInteger(i * 1000000007L)));
+        }
+
+        assertEquals(PListDataType.Integer, packed.getPackedType());
+        assertNull(objects.getPackedType());
+        assertEquals(objects, packed);
+        assertEquals(packed, objects);
+        assertEquals(objects.hashCode(), packed.hashCode());
+    }
+
+    @Test
+    public void testPackedBooleans() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 130; i++) {
+            array.appendBoolean(i % 3 == 0);
+        }
+        PList second = array.elements().get(1).getValue();
+
+        array.insertFirstChild(new PListBoolean(true));
+        array.deleteEntry(second);
+
+        assertEquals(PListDataType.Boolean, array.getPackedType());
+        assertEquals(130, array.size());
+        assertTrue(array.getBoolean(0));
+        assertTrue(array.getBoolean(1));
+        for (int i = 2; i < 130; i++) {
+            assertEquals((i % 3 == 0), array.getBoolean(i));
+        }
+    }
+
+    @Test
+    public void testEmptiedArrayPacksAgain() throws Exception {
+        PListArray array = new PListArray();
+        array.appendLong(1);
+        array.deleteEntry(array.elements().get(0).getValue());
+
+        array.appendDouble(0.5);
+
+        assertEquals(PListDataType.Real, array.getPackedType());
+        assertEquals(0.5, array.getDouble(0), 0);
+    }
+
+    @Test
+    public void testDictionariesShareKeys() throws Exception {
+        PListArray records = new PListArray();
+        PListArray objects = new PListArray();
+        objects.append(new PListEntry(null, new PListString("removed")));
+        objects.deleteEntry(objects.elements().get(0).getValue());
+        for (int i = 0; i < 20; i++) {
+            records.append(new PListEntry(null, record("name " + i, i)));
+            objects.append(new PListEntry(null, record("name " + i, i)));
+        }
+
+        PListDictionary fifth = (PListDictionary) records.elements().get(5).getValue();
+        assertTrue(fifth.isRecord());
+        assertSame(records, fifth.getParent());
+        assertEquals(record("name 5", 5), fifth);
+        assertEquals(objects, records);
+        assertEquals(objects.hashCode(), records.hashCode());
+        assertEquals(new PListString("name 7"), records.valuesForKey("name").get(7));
+        assertEquals(objects.valuesForKey("size"), records.valuesForKey("size"));
+    }
+
+    @Test
+    public void testRecordLeavesSharedKeysWhenKeysChange() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 3; i++) {
+            array.append(new PListEntry(null, record("name " + i, i)));
+        }
+        PListDictionary first = (PListDictionary) array.elements().get(0).getValue();
+        PListDictionary second = (PListDictionary) array.elements().get(1).getValue();
+
+        first.replaceEntry(first.elements().get(1).getValue(), new PListInteger(10));
+        assertTrue(first.renameEntry("name", "title"));
+        second.replaceEntry(second.elements().get(1).getValue(), new PListInteger(11));
+
+        assertFalse(first.isRecord());
+        assertTrue(second.isRecord());
+        assertEquals("title", first.elements().get(0).getKey());
+        assertEquals(new PListInteger(10), first.elements().get(1).getValue());
+        assertEquals(new PListInteger(11), second.elements().get(1).getValue());
+        assertEquals(Arrays.<PList>asList(null, new PListString("name 1"), new PListString("name 2")), array.valuesForKey("name"));
+        assertEquals(Arrays.<PList>asList(new PListString("name 0"), null, null), array.valuesForKey("title"));
+
+        array.deleteEntry(first);
+        assertTrue(second.isRecord());
+        assertSame(second, array.elements().get(0).getValue());
+        assertEquals(new PListString("name 2"), array.valuesForKey("name").get(1));
+    }
+
+    @Test
+    public void testOtherElementEndsSharedKeys() throws Exception {
+        PListArray array = new PListArray();
+        array.append(new PListEntry(null, record("a", 1)));
+        array.append(new PListEntry(null, record("b", 2)));
+        PListDictionary first = (PListDictionary) array.elements().get(0).getValue();
+
+        array.insertFirstChild(new PListString("text"));
+
+        assertFalse(first.isRecord());
+        assertEquals(3, array.size());
+        assertSame(first, array.elements().get(1).getValue());
+        assertEquals(record("b", 2), array.elements().get(2).getValue());
+    }
+
+    @Test
+    public void testPositionsFollowEdits() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 200; i++) {
+            array.append(new PListEntry(null, new PListString("element " + i)));
+        }
+        Random random = new Random(17);
+        for (int edit = 0; edit < 500; edit++) {
+            int position = random.nextInt(array.size());
+            PList removed = array.getValue(position);
+            switch (edit % 3) {
+                case 0:
+                    array.insert(position, new PListString("inserted " + edit));
+                    break;
+                case 1:
+                    array.remove(position);
+                    assertEquals(-1, array.indexOf(removed));
+                    break;
+                default:
+                    array.set(position, new PListString("replaced " + edit));
+                    assertEquals(-1, array.indexOf(removed));
+            }
+            int probe = random.nextInt(array.size());
+            assertEquals(probe, array.indexOf(array.getValue(probe)));
+        }
+        for (int i = array.size() - 1; i >= 0; i--) {
+            assertEquals(i, array.indexOf(array.getValue(i)));
+        }
+    }
+
+    @Test
+    public void testPositionsFollowInsertsBeforeLookups() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 40; i++) {
+            array.append(new PListEntry(null, new PListString("element " + i)));
+        }
+        PList third = array.getValue(3);
+        assertEquals(3, array.indexOf(third));
+        array.insertFirstChild(new PListString("first"));
+        assertEquals(3, array.indexOf(array.getValue(3)));
+        assertEquals(4, array.indexOf(third));
+
+        array.deleteEntry(third);
+        assertEquals("element 2", array.getValue(3).getAsString());
+        assertEquals("element 4", array.getValue(4).getAsString());
+        array.insertAfterChild(new PListString("after"), array.getValue(1));
+        array.replaceEntry(array.getValue(10), new PListString("replaced"));
+        assertEquals("after", array.getValue(2).getAsString());
+        assertEquals("replaced", array.getValue(10).getAsString());
+        for (int i = array.size() - 1; i >= 0; i--) {
+            assertEquals(i, array.indexOf(array.getValue(i)));
+        }
+    }
+
+    @Test
+    public void testAccessByPositionMatchesElements() throws Exception {
+        PListArray packed = new PListArray();
+        packed.appendLong(3);
+        packed.appendLong(4);
+        PListArray records = new PListArray();
+        records.append(new PListEntry(null, record("a", 1)));
+        records.append(new PListEntry(null, record("b", 2)));
+        PListArray objects = new PListArray();
+        objects.append(new PListEntry(null, new PListString("text")));
+        objects.append(new PListEntry(null, packed));
+        objects.append(new PListEntry(null, records));
+
+        for (PListAggregate aggregate : new PListAggregate[] {packed, records, objects, (PListAggregate) records.getValue(1)}) {
+            assertEquals(aggregate.elements().size(), aggregate.size());
+            for (int i = 0; i < aggregate.size(); i++) {
+                assertEquals(aggregate.elements().get(i).getKey(), aggregate.getKey(i));
+                assertSame(aggregate.elements().get(i).getValue(), aggregate.getValue(i));
+            }
+        }
+        assertEquals("Item 2", objects.getKey(2));
+        assertEquals("size", ((PListAggregate) records.getValue(0)).getKey(1));
+        assertEquals("(3 items)", objects.getAsString());
+    }
+
+    private static PListDictionary record(String name, int size) {
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("name", new PListString(name)));
+        dictionary.append(new PListEntry("size", new PListInteger(size)));
+        return dictionary;
+    }
+}
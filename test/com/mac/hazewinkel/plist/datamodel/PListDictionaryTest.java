@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListDictionaryTest {
+
+    @Test
+    public void testLookupFollowsEdits() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 100; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListInteger(i)));
+        }
+        assertEquals(new PListInteger(42), dictionary.get("key42"));
+
+        PList fifth = dictionary.get("key5");
+        dictionary.deleteEntry(fifth);
+        dictionary.insertAfterChild(new PListString("new"), dictionary.get("key9"));
+        assertTrue(dictionary.renameEntry("key42", "answer"));
+
+        assertFalse(dictionary.containsKey("key5"));
+        assertFalse(dictionary.containsKey("key42"));
+        assertEquals(new PListInteger(42), dictionary.get("answer"));
+        assertEquals(new PListString("new"), dictionary.get("New Item"));
+        assertEquals("New Item", dictionary.elements().get(9).getKey());
+        for (int i = 0; i < dictionary.elements().size(); i++) {
+            PListEntry entry = dictionary.elements().get(i);
+            assertSame(entry.getValue(), dictionary.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void testRenameToExistingKeyFails() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 20; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListInteger(i)));
+        }
+
+        assertFalse(dictionary.renameEntry("key1", "key2"));
+        assertFalse(dictionary.renameEntry("missing", "other"));
+        assertEquals(new PListInteger(1), dictionary.get("key1"));
+        assertNull(dictionary.get("other"));
+    }
+
+    @Test
+    public void testNewItemNames() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 12; i++) {
+            dictionary.insertFirstChild(new PListInteger(i));
+        }
+
+        assertEquals("New Item 12", dictionary.elements().get(0).getKey());
+        assertEquals("New Item 2", dictionary.elements().get(10).getKey());
+        assertEquals("New Item", dictionary.elements().get(11).getKey());
+        assertEquals(new PListInteger(5), dictionary.get("New Item 6"));
+    }
+
+    @Test
+    public void testNewItemNameReusesFreedName() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 3; i++) {
+            dictionary.insertFirstChild(new PListInteger(i));
+        }
+        dictionary.deleteEntry(dictionary.get("New Item"));
+
+        dictionary.insertFirstChild(new PListInteger(3));
+
+        assertEquals("New Item", dictionary.elements().get(0).getKey());
+        assertEquals(3, dictionary.size());
+
+        assertTrue(dictionary.renameEntry("New Item 2", "other"));
+        dictionary.insertFirstChild(new PListInteger(4));
+        dictionary.insertFirstChild(new PListInteger(5));
+
+        assertEquals("New Item 2", dictionary.elements().get(1).getKey());
+        assertEquals("New Item 4", dictionary.elements().get(0).getKey());
+    }
+
+    @Test
+    public void testDuplicateKeysFindFirst() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 20; i++) {
+            dictionary.append(new PListEntry("key" + (i % 10), new PListInteger(i)));
+        }
+        assertEquals(new PListInteger(3), dictionary.get("key3"));
+
+        dictionary.deleteEntry(dictionary.get("key3"));
+        assertEquals(new PListInteger(13), dictionary.get("key3"));
+
+        assertTrue(dictionary.renameEntry("key4", "other"));
+        assertEquals(new PListInteger(4), dictionary.get("other"));
+        assertEquals(new PListInteger(14), dictionary.get("key4"));
+    }
+
+    @Test
+    public void testEditByPosition() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 50; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListInteger(i)));
+        }
+        PList last = dictionary.getValue(49);
+
+        dictionary.remove(0);
+        dictionary.insert(10, new PListString("new"));
+        dictionary.set(20, new PListString("replaced"));
+
+        assertEquals(50, dictionary.size());
+        assertEquals(49, dictionary.indexOf(last));
+        assertEquals(10, dictionary.indexOf(dictionary.get("New Item")));
+        assertEquals("key20", dictionary.elements().get(20).getKey());
+        assertEquals(new PListString("replaced"), dictionary.get("key20"));
+        assertNull(dictionary.get("key0"));
+    }
+
+    @Test
+    public void testContentHashFollowsNestedEdits() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        PListArray numbers = new PListArray();
+        for (int i = 0; i < 100; i++) {
+            numbers.appendLong(i);
+        }
+        dictionary.append(new PListEntry("numbers", numbers));
+        dictionary.append(new PListEntry("name", new PListString("name")));
+        PListRoot root = new PListRoot(dictionary);
+        PListDictionary copy = (PListDictionary) dictionary.snapshot().toPList();
+        long loaded = root.contentHash();
+        assertEquals(copy.contentHash(), dictionary.contentHash());
+
+        ((PListInteger) numbers.getValue(50)).setAsString("-1");
+        assertTrue(root.contentHash() != loaded);
+        assertFalse(dictionary.equals(copy));
+
+        ((PListInteger) numbers.getValue(50)).setAsString("50");
+        assertEquals(loaded, root.contentHash());
+        assertEquals(copy, dictionary);
+
+        assertTrue(dictionary.renameEntry("name", "title"));
+        assertTrue(root.contentHash() != loaded);
+    }
+}
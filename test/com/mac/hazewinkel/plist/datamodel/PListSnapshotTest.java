@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListSnapshotTest {
+
+    @Test
+    public void testSnapshotIsNotAffectedByEdits() throws Exception {
+        PListDictionary dictionary = sample();
+        PListSnapshot snapshot = dictionary.snapshot();
+        PList before = snapshot.toPList();
+        assertEquals(dictionary, before);
+
+        PListArray numbers = (PListArray) dictionary.get("numbers");
+        ((PListInteger) numbers.getValue(3)).setAsString("-1");
+        numbers.appendLong(99);
+        ((PListString) ((PListDictionary) dictionary.get("nested")).get("name")).setAsString("changed");
+        dictionary.renameEntry("flag", "enabled");
+        dictionary.deleteEntry(dictionary.get("key2"));
+        dictionary.insertFirstChild(new PListData(new byte[]{1, 2, 3}));
+
+        assertEquals(before, snapshot.toPList());
+        assertEquals(dictionary, dictionary.snapshot().toPList());
+        assertEquals("-1", dictionary.snapshot().get("numbers").getValue(3).getAsString());
+        assertEquals("changed", dictionary.snapshot().get("nested").get("name").getAsString());
+        assertNull(dictionary.snapshot().get("flag"));
+        assertEquals("true", dictionary.snapshot().get("enabled").getAsString());
+        assertEquals("New Item", dictionary.snapshot().getKey(0));
+    }
+
+    @Test
+    public void testUnchangedPartsAreShared() throws Exception {
+        PListDictionary dictionary = sample();
+        PListSnapshot first = dictionary.snapshot();
+        assertSame(first, dictionary.snapshot());
+
+        ((PListArray) dictionary.get("numbers")).set(0, new PListInteger(7));
+        PListSnapshot second = dictionary.snapshot();
+
+        assertNotSame(first, second);
+        assertNotSame(first.get("numbers"), second.get("numbers"));
+        assertSame(first.get("nested"), second.get("nested"));
+        assertSame(first.get("key10"), second.get("key10"));
+    }
+
+    @Test
+    public void testSnapshotFollowsMixedEdits() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 60; i++) {
+            PListDictionary item = new PListDictionary();
+            item.append(new PListEntry("name", new PListString("item " + i)));
+            array.append(new PListEntry(null, item));
+        }
+        array.snapshot();
+        Random random = new Random(5);
+        for (int edit = 0; edit < 300; edit++) {
+            int position = random.nextInt(array.size());
+            PListDictionary item = (PListDictionary) array.getValue(position);
+            switch (edit % 4) {
+                case 0:
+                    PListDictionary added = new PListDictionary();
+                    added.append(new PListEntry("name", new PListString("added " + edit)));
+                    array.indexOf(item);
+                    array.insert(random.nextInt(position + 1), added);
+                    // finds the element now in the old place of the item, but not the item itself
+                    array.indexOf(array.getValue(position));
+                    item.append(new PListEntry("moved", new PListBoolean(true)));
+                    break;
+                case 1:
+                    array.deleteEntry(array.getValue(random.nextInt(array.size())));
+                    break;
+                case 2:
+                    ((PListString) item.get("name")).setAsString("edited " + edit);
+                    break;
+                default:
+                    item.append(new PListEntry("count", new PListInteger(edit)));
+            }
+            assertEquals(PListSnapshot.of(array).toPList(), array.snapshot().toPList());
+        }
+    }
+
+    @Test
+    public void testRootSnapshotFollowsNewRootValue() throws Exception {
+        PListRoot root = new PListRoot(sample());
+        PListSnapshot snapshot = root.snapshot();
+        assertEquals(PListDataType.Dictionary, snapshot.getType());
+
+        PListArray array = new PListArray();
+        array.append(new PListEntry(null, new PListString("only")));
+        root.set(0, array);
+        array.append(new PListEntry(null, new PListBoolean(false)));
+
+        assertEquals(PListDataType.Dictionary, snapshot.getType());
+        assertEquals(PListDataType.Array, root.snapshot().getType());
+        assertEquals(array, root.snapshot().toPList());
+        assertEquals("Item 1", root.snapshot().getKey(1));
+    }
+
+    @Test
+    public void testDuplicateKeysFindFirst() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("a", new PListInteger(1)));
+        dictionary.append(new PListEntry("a", new PListInteger(2)));
+        PListSnapshot snapshot = dictionary.snapshot();
+        assertEquals("1", snapshot.get("a").getAsString());
+
+        dictionary.remove(0);
+        assertEquals("1", snapshot.get("a").getAsString());
+        assertEquals("2", dictionary.snapshot().get("a").getAsString());
+    }
+
+    private static PListDictionary sample() {
+        PListDictionary dictionary = new PListDictionary();
+        for (int i = 0; i < 40; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListString("value" + i)));
+        }
+        PListArray numbers = new PListArray();
+        for (int i = 0; i < 10; i++) {
+            numbers.appendLong(i);
+        }
+        dictionary.append(new PListEntry("numbers", numbers));
+        PListDictionary nested = new PListDictionary();
+        nested.append(new PListEntry("name", new PListString("nested")));
+        nested.append(new PListEntry("when", new PListDate(0)));
+        dictionary.append(new PListEntry("nested", nested));
+        dictionary.append(new PListEntry("flag", new PListBoolean(true)));
+        return dictionary;
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.datamodel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListVectorTest {
+
+    @Test
+    public void testVectorMatchesList() throws Exception {
+        Random random = new Random(17);
+        List<Integer> expected = new ArrayList<Integer>();
+        PListVector<Integer> vector = PListVector.empty();
+        PListVector<Integer> kept = null;
+        List<Integer> keptExpected = null;
+        for (int i = 0; i < 5000; i++) {
+            int operation = random.nextInt(4);
+            if (expected.isEmpty() || operation <= 1) {
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, i);
+                vector = vector.insert(index, i);
+            } else if (operation == 2) {
+                int index = random.nextInt(expected.size());
+                expected.set(index, i);
+                vector = vector.set(index, i);
+            } else {
+                int index = random.nextInt(expected.size());
+                expected.remove(index);
+                vector = vector.remove(index);
+            }
+            if (i == 2500) {
+                kept = vector;
+                keptExpected = new ArrayList<Integer>(expected);
+            }
+        }
+
+        assertEquals(expected, vector.toList());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), vector.get(i));
+        }
+        assertEquals(keptExpected, kept.toList());
+        assertEquals(expected, PListVector.of(expected).toList());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() throws Exception {
+        PListVector.<String>empty().append("a").get(1);
+    }
+
+    @Test
+    public void testHashTrieMatchesMap() throws Exception {
+        Random random = new Random(23);
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        PListHashTrie<Integer> trie = PListHashTrie.empty();
+        for (int i = 0; i < 5000; i++) {
+            // "Aa" and "BB" have the same hash, so keys built from them collide
+            String key = (random.nextBoolean() ? "Aa" : "BB") + random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                trie = trie.remove(key);
+            } else {
+                expected.put(key, i);
+                trie = trie.put(key, i);
+            }
+        }
+
+        assertEquals(expected.size(), trie.size());
+        for (int i = 0; i < 300; i++) {
+            assertEquals(expected.get("Aa" + i), trie.get("Aa" + i));
+            assertEquals(expected.get("BB" + i), trie.get("BB" + i));
+        }
+    }
+
+    @Test
+    public void testHashTrieKeepsOldVersions() throws Exception {
+        PListHashTrie<String> first = PListHashTrie.<String>empty().put("a", "1").put("b", "2");
+        PListHashTrie<String> second = first.put("a", "3").remove("b");
+
+        assertEquals("1", first.get("a"));
+        assertEquals("2", first.get("b"));
+        assertEquals("3", second.get("a"));
+        assertFalse(second.containsKey("b"));
+        assertEquals(1, second.size());
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mac.hazewinkel.plist.editor.impl;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import com.mac.hazewinkel.plist.util.PListDiff;
+import org.junit.Test;
+
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListJXTreeTableModelTest {
+
+    @Test
+    public void testApplyChangesKeepsUnchangedNodes() throws Exception {
+        PListRoot plist = new PListRoot(sample());
+        PListJXTreeTableModel model = new PListJXTreeTableModel(plist, null);
+        PListJXTreeTableNode dictionaryNode = ((PListJXTreeTableNode) model.getRoot()).getChildAt(0);
+        PListJXTreeTableNode nestedNode = dictionaryNode.getChildAt(1);
+        PListJXTreeTableNode lastNode = dictionaryNode.getChildAt(4);
+        nestedNode.getChildAt(0);
+        EventCounter events = new EventCounter();
+        model.addTreeModelListener(events);
+
+        PListDictionary changed = sample();
+        ((PListString) ((PListDictionary) changed.get("nested")).get("name")).setAsString("changed");
+        changed.remove(0);
+        changed.append(new PListEntry("added", new PListInteger(5)));
+        model.applyChanges(PListDiff.diff(plist, new PListRoot(changed)));
+
+        assertEquals(changed, plist.getRootValue());
+        assertSame(nestedNode, dictionaryNode.getChildAt(0));
+        assertSame(lastNode, dictionaryNode.getChildAt(3));
+        assertEquals("changed", nestedNode.getChildAt(0).getAsString());
+        assertEquals(1, events.inserted);
+        assertEquals(1, events.removed);
+        assertEquals(1, events.changed);
+        assertEquals(0, events.structureChanged);
+    }
+
+    private static PListDictionary sample() {
+        PListDictionary nested = new PListDictionary();
+        nested.append(new PListEntry("name", new PListString("value")));
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("flag", new PListBoolean(true)));
+        dictionary.append(new PListEntry("nested", nested));
+        for (int i = 0; i < 3; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListString("value " + i)));
+        }
+        return dictionary;
+    }
+
+    private static class EventCounter implements TreeModelListener {
+        int changed;
+        int inserted;
+        int removed;
+        int structureChanged;
+
+        public void treeNodesChanged(TreeModelEvent e) {
+            changed++;
+        }
+
+        public void treeNodesInserted(TreeModelEvent e) {
+            inserted++;
+        }
+
+        public void treeNodesRemoved(TreeModelEvent e) {
+            removed++;
+        }
+
+        public void treeStructureChanged(TreeModelEvent e) {
+            structureChanged++;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.editor.impl;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListJXTreeTableNodeTest {
+
+    @Test
+    public void testNodesAreKeptAndFollowEdits() throws Exception {
+        PListArray array = new PListArray();
+        for (int i = 0; i < 10; i++) {
+            array.append(new PListEntry(null, new PListString("element " + i)));
+        }
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(array));
+        PListJXTreeTableNode arrayNode = root.getChildAt(0);
+        PListJXTreeTableNode third = arrayNode.getChildAt(2);
+        PListJXTreeTableNode eighth = arrayNode.getChildAt(7);
+
+        assertSame(third, arrayNode.getChildAt(2));
+        assertEquals(2, arrayNode.getIndex(third));
+
+        assertSame(arrayNode, third.addRow(false));
+        arrayNode.getChildAt(0).deleteRow();
+        arrayNode.getChildAt(0).deleteRow();
+
+        assertEquals(9, arrayNode.getChildCount());
+        assertSame(third, arrayNode.getChildAt(0));
+        assertEquals(0, arrayNode.getIndex(third));
+        assertEquals("Item 0", third.getName());
+        assertEquals("", arrayNode.getChildAt(1).getAsString());
+        assertSame(eighth, arrayNode.getChildAt(6));
+        assertEquals(6, arrayNode.getIndex(eighth));
+        assertEquals("element 7", eighth.getAsString());
+        assertEquals(new PListString("element 7"), array.getValue(6));
+    }
+
+    @Test
+    public void testTypeChangeKeepsNode() throws Exception {
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("count", new PListString("12")));
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListJXTreeTableNode count = root.getChildAt(0).getChildAt(0);
+
+        assertTrue(count.changeType("Integer"));
+        assertTrue(count.setNameAsString("total"));
+
+        assertSame(count, root.getChildAt(0).getChildAt(0));
+        assertEquals("Integer", count.getTypeName());
+        assertEquals("total", count.getName());
+        assertEquals(new PListInteger(12), dictionary.get("total"));
+    }
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.editor.impl;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import javax.swing.tree.DefaultTreeModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListUndoHistoryTest {
+
+    @Test
+    public void testUndoAndRedoRestoreTheTree() throws Exception {
+        PListDictionary dictionary = sample();
+        PListDictionary original = copy(dictionary);
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        PListJXTreeTableNode dictionaryNode = root.getChildAt(0);
+
+        assertTrue(history.setValue(dictionaryNode.getChildAt(0), "changed"));
+        assertTrue(history.setName(dictionaryNode.getChildAt(1), "renamed"));
+        assertTrue(history.changeType(dictionaryNode.getChildAt(2), "Integer"));
+        history.addRow(dictionaryNode.getChildAt(3), false);
+        history.deleteRow(dictionaryNode.getChildAt(0));
+        PListDictionary edited = copy(dictionary);
+
+        while (history.canUndo()) {
+            history.undo();
+        }
+        assertEquals(original, dictionary);
+        assertEquals("key0", dictionaryNode.getChildAt(0).getName());
+
+        while (history.canRedo()) {
+            history.redo();
+        }
+        assertEquals(edited, dictionary);
+    }
+
+    @Test
+    public void testDeletedValueComesBackAsSameInstance() throws Exception {
+        PListDictionary dictionary = sample();
+        PList nested = dictionary.get("key2");
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+
+        history.deleteRow(root.getChildAt(0).getChildAt(2));
+        assertFalse(dictionary.containsKey("key2"));
+        history.undo();
+
+        assertSame(nested, dictionary.get("key2"));
+        assertSame(nested, dictionary.getValue(2));
+    }
+
+    @Test
+    public void testValueEditsOfOneNodeAreMerged() throws Exception {
+        PListDictionary dictionary = sample();
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        PListJXTreeTableNode first = root.getChildAt(0).getChildAt(0);
+
+        history.setValue(first, "a");
+        history.setValue(first, "ab");
+        history.setValue(first, "abc");
+        history.setValue(root.getChildAt(0).getChildAt(1), "other");
+        history.setValue(first, "abcd");
+
+        history.undo();
+        assertEquals("abc", first.getAsString());
+        history.undo();
+        history.undo();
+        assertEquals("value0", first.getAsString());
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void testOldestEditsAreDroppedOverBudget() throws Exception {
+        PListDictionary dictionary = sample();
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        history.setMemoryBudget(2000);
+
+        for (int i = 0; i < 100; i++) {
+            history.setName(root.getChildAt(0).getChildAt(0), "name" + i);
+        }
+        assertTrue(history.getMemoryUsed() <= 2000);
+
+        int undone = 0;
+        while (history.canUndo()) {
+            history.undo();
+            undone++;
+        }
+        assertTrue(undone > 1 && undone < 100);
+        assertEquals("name" + (99 - undone), root.getChildAt(0).getChildAt(0).getName());
+    }
+
+    @Test
+    public void testUndoRestoresExactDate() throws Exception {
+        PListDictionary dictionary = sample();
+        dictionary.append(new PListEntry("date", new PListDate(1300000000123L)));
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        PListJXTreeTableNode dateNode = root.getChildAt(0).getChildAt(4);
+
+        assertTrue(history.setValue(dateNode, new PListDate(1200000000000L).getAsString()));
+        history.undo();
+        assertEquals(new PListDate(1300000000123L), dictionary.get("date"));
+        history.redo();
+        history.undo();
+        assertEquals(new PListDate(1300000000123L), dictionary.get("date"));
+    }
+
+    @Test
+    public void testUndoAndRedoWithoutEditsDoNothing() throws Exception {
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(sample()));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        history.undo();
+        history.redo();
+        assertFalse(history.canUndo());
+    }
+
+    @Test
+    public void testDeletedSubtreeCountsAgainstBudget() throws Exception {
+        PListDictionary dictionary = sample();
+        PListArray nested = new PListArray();
+        for (int i = 0; i < 100; i++) {
+            PListArray inner = new PListArray();
+            inner.append(new PListEntry(null, new PListString("value " + i)));
+            nested.append(new PListEntry(null, inner));
+        }
+        dictionary.append(new PListEntry("big", nested));
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(dictionary));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+
+        history.deleteRow(root.getChildAt(0).getChildAt(4));
+        assertTrue(history.getMemoryUsed() > 100 * 64);
+    }
+
+    @Test
+    public void testEditsAreRecordedWhileTheListenerRunsThem() throws Exception {
+        PListJXTreeTableNode root = new PListJXTreeTableNode(new PListRoot(sample()));
+        PListUndoHistory history = new PListUndoHistory(new DefaultTreeModel(root));
+        final List<String> events = new ArrayList<String>();
+        history.setListener(new PListUndoHistory.Listener() {
+            public void runEdit(String name, Runnable edit) {
+                events.add("start " + name);
+                edit.run();
+                events.add("end " + name);
+            }
+
+            public void editRecorded(PListUndoHistory.Edit edit) {
+                events.add("recorded");
+            }
+
+            public void historyCleared() {
+                events.add("cleared");
+            }
+        });
+
+        assertTrue(history.setValue(root.getChildAt(0).getChildAt(0), "changed"));
+        history.deleteRow(root.getChildAt(0).getChildAt(1));
+        history.clear();
+
+        assertEquals(Arrays.asList("start Change Value", "recorded", "end Change Value",
+                                   "start Delete Row", "recorded", "end Delete Row", "cleared"), events);
+    }
+
+    private static PListDictionary sample() {
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("key0", new PListString("value0")));
+        dictionary.append(new PListEntry("key1", new PListString("value1")));
+        PListArray nested = new PListArray();
+        nested.appendLong(1);
+        nested.appendLong(2);
+        dictionary.append(new PListEntry("key2", nested));
+        dictionary.append(new PListEntry("key3", new PListString("value3")));
+        return dictionary;
+    }
+
+    private static PListDictionary copy(PListDictionary dictionary) {
+        return (PListDictionary) dictionary.snapshot().toPList();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListBase64Test {
+
+    @Test
+    public void testEncodeMatchesCommonsCodec() throws Exception {
+        Random random = new Random(42);
+        for (int length = 0; length < 200; length++) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+
+            byte[] encoded = new byte[PListBase64.getEncodedLength(length)];
+            assertEquals(encoded.length, PListBase64.encode(data, 0, length, encoded, 0));
+            assertEquals(new String(Base64.encodeBase64(data), "US-ASCII"), new String(encoded, "US-ASCII"));
+        }
+    }
+
+    @Test
+    public void testDecodeRange() throws Exception {
+        byte[] source = "xx\n\tPEKB\n\tpQ==\n\tyy".getBytes("US-ASCII");
+
+        assertArrayEquals(new byte[]{0x3c, 0x42, (byte) 0x81, (byte) 0xa5}, PListBase64.decode(source, 2, source.length - 2));
+    }
+
+    @Test
+    public void testDecoderInPieces() throws Exception {
+        Random random = new Random(7);
+        byte[] data = new byte[100000];
+        random.nextBytes(data);
+        char[] encoded = new String(Base64.encodeBase64Chunked(data), "US-ASCII").toCharArray();
+
+        PListBase64.Decoder decoder = new PListBase64.Decoder();
+        int position = 0;
+        while (position < encoded.length) {
+            int length = Math.min(1 + random.nextInt(1000), encoded.length - position);
+            decoder.decode(encoded, position, length);
+            position += length;
+        }
+
+        assertArrayEquals(data, decoder.finish());
+    }
+}
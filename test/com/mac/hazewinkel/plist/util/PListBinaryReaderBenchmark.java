@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+/**
+ * Compares loading a binary plist through plutil + SAX with the native PListBinaryReader.
+ * Run with: java PListBinaryReaderBenchmark [records]. Needs plutil on the path to produce the input.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryReaderBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 10;
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        byte[] xml = PListConversionUtil.exportPListToXml(new PListRoot(createRecords(records)));
+        byte[] binary = PListConversionUtil.convertPlistToFormat(xml, PListFormat.FORMAT_BINARY1);
+        if (binary.length == 0) {
+            System.out.println("plutil is not available; cannot produce binary input or measure the plutil path.");
+            return;
+        }
+        System.out.println("Records: " + records + ", binary size: " + binary.length + " bytes");
+
+        report("plutil + SAX", measurePlutil(binary));
+        report("PListBinaryReader", measureNative(binary));
+    }
+
+    static PListArray createRecords(int count) {
+        PListArray records = new PListArray();
+        for (int i = 0; i < count; i++) {
+            PListDictionary record = new PListDictionary();
+            record.append(new PListEntry("identifier", new PListString("com.example.record-" + i)));
+            record.append(new PListEntry("index", new PListInteger(i)));
+            record.append(new PListEntry("score", new PListFloat(i * 0.25)));
+            record.append(new PListEntry("enabled", new PListBoolean(i % 2 == 0)));
+            record.append(new PListEntry("created", new PListDate(new Date(1300000000000L + i * 1000L))));
+            record.append(new PListEntry("payload", new PListData(new byte[]{(byte) i, (byte) (i >> 8), 1, 2, 3})));
+            records.append(new PListEntry(null, record));
+        }
+        return records;
+    }
+
+    private static long measurePlutil(byte[] binary) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            PListConversionUtil.parseXmlWithSax(PListConversionUtil.convertPlistToFormat(binary, PListFormat.FORMAT_XML1));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            PListConversionUtil.parseXmlWithSax(PListConversionUtil.convertPlistToFormat(binary, PListFormat.FORMAT_XML1));
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+
+    private static long measureNative(byte[] binary) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            new PListBinaryReader(ByteBuffer.wrap(binary)).read();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            new PListBinaryReader(ByteBuffer.wrap(binary)).read();
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+
+    private static void report(String name, long nanosPerRound) {
+        System.out.println(String.format("%-20s %10.2f ms/load", name, nanosPerRound / 1000000.0));
+    }
+}
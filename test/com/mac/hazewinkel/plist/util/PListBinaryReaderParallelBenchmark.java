@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.PListRoot;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures how PListBinaryReader.readParallel scales with 1, 2, 4 and 8 threads, against the sequential read().
+ * Run with: java PListBinaryReaderParallelBenchmark [records]. Use a large heap for a million records.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryReaderParallelBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int[] THREAD_COUNTS = {1, 2, 4, 8};
+
+    public static void main(String[] args) {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+        byte[] binary = PListConversionUtil.exportPListToBinary(new PListRoot(PListBinaryReaderBenchmark.createRecords(records)));
+        System.out.println("Records: " + records + ", binary size: " + binary.length + " bytes, processors: "
+                           + Runtime.getRuntime().availableProcessors());
+
+        long sequential = measure(binary, null, 0);
+        report("sequential", sequential, sequential);
+        for (int threads : THREAD_COUNTS) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                report(threads + " threads", measure(binary, executor, threads), sequential);
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static long measure(byte[] binary, ExecutorService executor, int threads) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            read(binary, executor, threads);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            read(binary, executor, threads);
+        }
+        return (System.nanoTime() - start) / MEASURED_ROUNDS;
+    }
+
+    private static void read(byte[] binary, ExecutorService executor, int threads) {
+        PListBinaryReader reader = new PListBinaryReader(ByteBuffer.wrap(binary));
+        if (executor == null) {
+            reader.read();
+        } else {
+            reader.readParallel(executor, threads);
+        }
+    }
+
+    private static void report(String name, long nanosPerRound, long sequentialNanos) {
+        System.out.println(String.format("%-12s %10.2f ms/load  %5.2fx", name, nanosPerRound / 1000000.0,
+                                         (double) sequentialNanos / nanosPerRound));
+    }
+}
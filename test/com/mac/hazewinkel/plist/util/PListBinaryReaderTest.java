@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.apache.commons.codec.binary.Hex;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryReaderTest {
+
+    private static final String mixedDictSource =
+            "62706c6973743030dc0102030405060708090a0b0c0d0e0f101112131415161a1b544e616d6555436f756e74584e65676174" +
+            "6976655342696752506954466c6167534f666654426c6f62545768656e544c69737453556e6955456d707479545465737410" +
+            "0e13fffffffffffffffd13000000012a05f20023400c0000000000000908443c4281a53341b35418dd000000a31718191001" +
+            "5374776fa06300e9007400e9d00821262c35393c41454a4f54585e63656e77808182879094969a9ba2000000000000010100" +
+            "0000000000001c000000000000000000000000000000a3";
+
+    private static final String longArraySource =
+            "62706c6973743030af10110102030405060708090a0b0c0d0e0f10111000100110021003100410051006100710081009100a" +
+            "100b100c100d100e100f5f10206120666169726c79206c6f6e6720617363696920737472696e672076616c7565081c1e2022" +
+            "2426282a2c2e30323436383a3c000000000000010100000000000000120000000000000000000000000000005f";
+
+    @Test
+    public void testReadMixedDict() throws Exception {
+        PList plist = PListConversionUtil.parseBinaryToPList(Hex.decodeHex(mixedDictSource.toCharArray())).getRootValue();
+
+        Calendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.clear();
+        calendar.set(2011, Calendar.APRIL, 12, 5, 21, 33);
+
+        PListArray list = new PListArray();
+        list.append(new PListEntry(null, new PListInteger(1)));
+        list.append(new PListEntry(null, new PListString("two")));
+        list.append(new PListEntry(null, new PListArray()));
+
+        PListDictionary expected = new PListDictionary();
+        expected.append(new PListEntry("Name", new PListString("Test")));
+        expected.append(new PListEntry("Count", new PListInteger(14)));
+        expected.append(new PListEntry("Negative", new PListInteger(-3)));
+        expected.append(new PListEntry("Big", new PListInteger(5000000000L)));
+        expected.append(new PListEntry("Pi", new PListFloat(3.5)));
+        expected.append(new PListEntry("Flag", new PListBoolean(true)));
+        expected.append(new PListEntry("Off", new PListBoolean(false)));
+        expected.append(new PListEntry("Blob", new PListData(new byte[]{0x3c, 0x42, (byte) 0x81, (byte) 0xa5})));
+        expected.append(new PListEntry("When", new PListDate(calendar.getTime())));
+        expected.append(new PListEntry("List", list));
+        expected.append(new PListEntry("Uni", new PListString("\u00e9t\u00e9")));
+        expected.append(new PListEntry("Empty", new PListDictionary()));
+
+        assertEquals(expected, plist);
+    }
+
+    @Test
+    public void testReadLongArray() throws Exception {
+        PList plist = PListConversionUtil.parseBinaryToPList(Hex.decodeHex(longArraySource.toCharArray())).getRootValue();
+
+        PListArray expected = new PListArray();
+        for (int i = 0; i < 16; i++) {
+            expected.append(new PListEntry(null, new PListInteger(i)));
+        }
+        expected.append(new PListEntry(null, new PListString("a fairly long ascii string value")));
+
+        assertEquals(expected, plist);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectTruncated() throws Exception {
+        byte[] source = Hex.decodeHex(longArraySource.toCharArray());
+        byte[] truncated = new byte[source.length - 40];
+        System.arraycopy(source, 0, truncated, 0, truncated.length);
+        PListConversionUtil.parseBinaryToPList(truncated);
+    }
+
+    @Test
+    public void testLazyReadMatchesFullRead() throws Exception {
+        byte[] binary = Hex.decodeHex(mixedDictSource.toCharArray());
+
+        PList lazy = PListConversionUtil.parseBinaryToLazyPList(ByteBuffer.wrap(binary)).getRootValue();
+        PList full = PListConversionUtil.parseBinaryToPList(binary).getRootValue();
+
+        assertEquals(full, lazy);
+        assertEquals(lazy, full);
+        assertEquals(full.hashCode(), lazy.hashCode());
+    }
+
+    @Test
+    public void testLazyDecodesOnAccess() throws Exception {
+        byte[] binary = Hex.decodeHex(longArraySource.toCharArray());
+        // point the offset of the last element past the object table
+        binary[0x5f + 17] = (byte) 0xff;
+
+        PListArray plist = (PListArray) new PListBinaryReader(ByteBuffer.wrap(binary)).readLazy();
+
+        assertEquals(17, plist.elements().size());
+        assertEquals(new PListInteger(15), plist.elements().get(15).getValue());
+        try {
+            plist.elements().get(16);
+            fail("Reading the broken element should fail");
+        } catch (IllegalArgumentException expected) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLazyKeepsIdentityWhenEdited() throws Exception {
+        byte[] binary = Hex.decodeHex(longArraySource.toCharArray());
+        PListArray plist = (PListArray) new PListBinaryReader(ByteBuffer.wrap(binary)).readLazy();
+
+        PList first = plist.elements().get(0).getValue();
+        assertSame(first, plist.elements().get(0).getValue());
+
+        plist.insertFirstChild(new PListString("new"));
+
+        assertEquals(18, plist.elements().size());
+        assertSame(first, plist.elements().get(1).getValue());
+        assertEquals(new PListString("new"), plist.elements().get(0).getValue());
+    }
+
+    @Test
+    public void testParallelReadMatchesSequentialRead() throws Exception {
+        PListDictionary source = new PListDictionary();
+        source.append(new PListEntry("records", PListBinaryReaderBenchmark.createRecords(PListBinaryReader.PARALLEL_THRESHOLD * 3)));
+        PListDictionary index = new PListDictionary();
+        for (int i = 0; i < PListBinaryReader.PARALLEL_THRESHOLD + 1; i++) {
+            index.append(new PListEntry("key" + i, new PListInteger(i)));
+        }
+        source.append(new PListEntry("index", index));
+        PListArray numbers = new PListArray();
+        for (int i = 0; i < PListBinaryReader.PARALLEL_THRESHOLD * 2; i++) {
+            numbers.appendLong(i);
+        }
+        source.append(new PListEntry("numbers", numbers));
+        byte[] binary = PListConversionUtil.exportPListToBinary(new PListRoot(source));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            PList parallel = PListConversionUtil.parseBinaryToPList(binary, executor, 4).getRootValue();
+            PList sequential = PListConversionUtil.parseBinaryToPList(binary).getRootValue();
+
+            assertEquals(sequential, parallel);
+            assertEquals(source, parallel);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParallelReadReportsErrorFromTask() throws Exception {
+        byte[] binary = PListConversionUtil.exportPListToBinary(new PListRoot(
+                PListBinaryReaderBenchmark.createRecords(PListBinaryReader.PARALLEL_THRESHOLD * 2)));
+        // break the type marker of the last object, which is decoded by one of the executor tasks
+        ByteBuffer buffer = ByteBuffer.wrap(binary);
+        int trailer = binary.length - PListBinaryReader.TRAILER_SIZE;
+        int offsetSize = binary[trailer + 6];
+        int lastOffsetPosition = (int) buffer.getLong(trailer + 24) + ((int) buffer.getLong(trailer + 8) - 1) * offsetSize;
+        long lastOffset = 0;
+        for (int i = 0; i < offsetSize; i++) {
+            lastOffset = (lastOffset << 8) | (binary[lastOffsetPosition + i] & 0xFF);
+        }
+        binary[(int) lastOffset] = (byte) 0x70;
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            PListConversionUtil.parseBinaryToPList(binary, executor, 2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListBinaryWriterTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        PListDictionary plist = new PListDictionary();
+        plist.append(new PListEntry("Name", new PListString("Test")));
+        plist.append(new PListEntry("Unicode", new PListString("\u00e9t\u00e9")));
+        plist.append(new PListEntry("Count", new PListInteger(14)));
+        plist.append(new PListEntry("Negative", new PListInteger(-3)));
+        plist.append(new PListEntry("Large", new PListInteger(70000)));
+        plist.append(new PListEntry("Real", new PListFloat(317035088.45302403)));
+        plist.append(new PListEntry("Flag", new PListBoolean(true)));
+        plist.append(new PListEntry("Blob", new PListData(new byte[]{0x3c, 0x42, (byte) 0x81, (byte) 0xa5})));
+        plist.append(new PListEntry("When", new PListDate(new Date(1302585693000L))));
+        PListArray array = new PListArray();
+        for (int i = 0; i < 20; i++) {
+            array.append(new PListEntry(null, new PListString("a long enough string number " + i)));
+        }
+        array.append(new PListEntry(null, new PListDictionary()));
+        plist.append(new PListEntry("Array", array));
+
+        byte[] binary = PListConversionUtil.exportPListToBinary(new PListRoot(plist));
+
+        assertEquals(plist, PListConversionUtil.parseBinaryToPList(binary).getRootValue());
+    }
+
+    @Test
+    public void testUniqueObjects() throws Exception {
+        PListArray plist = new PListArray();
+        for (int i = 0; i < 100; i++) {
+            PListDictionary record = new PListDictionary();
+            record.append(new PListEntry("kind", new PListString("record")));
+            record.append(new PListEntry("enabled", new PListBoolean(true)));
+            record.append(new PListEntry("value", new PListInteger(42)));
+            record.append(new PListEntry("data", new PListData(new byte[]{1, 2, 3})));
+            plist.append(new PListEntry(null, record));
+        }
+
+        ByteBuffer binary = ByteBuffer.wrap(PListConversionUtil.exportPListToBinary(new PListRoot(plist)));
+
+        // 1 array, 100 dictionaries, 4 keys and 4 values
+        assertEquals(109, getTrailerLong(binary, 8));
+        assertEquals(1, getTrailerByte(binary, 7));
+        assertEquals(plist, new PListBinaryReader(binary).read());
+    }
+
+    @Test
+    public void testMinimalReferenceSizes() throws Exception {
+        PListArray plist = new PListArray();
+        for (int i = 0; i < 300; i++) {
+            plist.append(new PListEntry(null, new PListInteger(i)));
+        }
+
+        ByteBuffer binary = ByteBuffer.wrap(PListConversionUtil.exportPListToBinary(new PListRoot(plist)));
+
+        assertEquals(301, getTrailerLong(binary, 8));
+        assertEquals(2, getTrailerByte(binary, 7));
+        assertEquals(2, getTrailerByte(binary, 6));
+        assertEquals(plist, new PListBinaryReader(binary).read());
+    }
+
+    private static long getTrailerLong(ByteBuffer binary, int trailerOffset) {
+        return binary.getLong(binary.limit() - PListBinaryReader.TRAILER_SIZE + trailerOffset);
+    }
+
+    private static int getTrailerByte(ByteBuffer binary, int trailerOffset) {
+        return binary.get(binary.limit() - PListBinaryReader.TRAILER_SIZE + trailerOffset);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import org.junit.Test;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListDateCodecTest {
+
+    @Test
+    public void testMatchesSimpleDateFormat() throws Exception {
+        DateFormat formatter = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        formatter.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // use the Gregorian calendar throughout, as CoreFoundation does
+        GregorianCalendar calendar = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+        calendar.setGregorianChange(new Date(Long.MIN_VALUE));
+        formatter.setCalendar(calendar);
+
+        Random random = new Random(11);
+        byte[] buffer = new byte[PListDateCodec.MAX_LENGTH];
+        for (int i = 0; i < 10000; i++) {
+            // years 0001 to 9999
+            long millis = -62135596800000L + (long) (random.nextDouble() * 315537897599000L);
+            millis -= millis % 1000;
+            String expected = formatter.format(new Date(millis));
+
+            assertEquals(expected, PListDateCodec.format(millis));
+            assertEquals(PListDateCodec.LENGTH, PListDateCodec.format(millis, buffer, 0));
+            assertEquals(expected, new String(buffer, 0, PListDateCodec.LENGTH, "US-ASCII"));
+            assertEquals(millis, PListDateCodec.parse(expected));
+            assertEquals(millis, PListDateCodec.parse(buffer, 0, PListDateCodec.LENGTH));
+        }
+    }
+
+    @Test
+    public void testParseShortForms() throws Exception {
+        assertEquals(1302566400000L, PListDateCodec.parse("2011-04-12"));
+        assertEquals(1301616000000L, PListDateCodec.parse("2011-04"));
+        assertEquals(1302585693000L, PListDateCodec.parse("2011-04-12T05:21:33"));
+        assertEquals(1302585660000L, PListDateCodec.parse("2011-04-12T05:21Z"));
+    }
+
+    @Test
+    public void testFormatDropsMilliseconds() throws Exception {
+        assertEquals("1969-12-31T23:59:59Z", PListDateCodec.format(-1));
+        assertEquals("2011-04-12T05:21:33Z", PListDateCodec.format(1302585693999L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectInvalidMonth() throws Exception {
+        PListDateCodec.parse("2011-13-12T05:21:33Z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectTrailingText() throws Exception {
+        PListDateCodec.parse("2011-04-12T05:21:33Z and more");
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times the diff of a large plist against a copy with a few edits, and against an equal copy.
+ * Run with: java PListDiffBenchmark [nodes] [edits]
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListDiffBenchmark {
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int nodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int edits = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        System.out.println("Nodes: " + nodes + ", edits: " + edits);
+        for (int round = 0; round < ROUNDS; round++) {
+            PListDictionary from = createTree(nodes);
+            PListDictionary to = (PListDictionary) PListDiff.copy(from);
+            PListDictionary same = (PListDictionary) PListDiff.copy(from);
+            edit(to, edits, new Random(round));
+
+            long start = System.nanoTime();
+            List<PListDiff.Change> changes = PListDiff.diff(new PListRoot(from), new PListRoot(to));
+            long edited = System.nanoTime() - start;
+            start = System.nanoTime();
+            int none = PListDiff.diff(new PListRoot(from), new PListRoot(same)).size();
+            long equal = System.nanoTime() - start;
+            System.out.println(String.format("edited %8.1f ms (%d changes), equal %8.1f ms (%d changes)",
+                                             edited / 1e6, changes.size(), equal / 1e6, none));
+        }
+    }
+
+    /**
+     * Creates dictionaries of 10 entries, each with an array of 8 strings and a few primitives.
+     */
+    private static PListDictionary createTree(int nodes) {
+        PListDictionary root = new PListDictionary();
+        for (int i = 0; nodes > 0; i++) {
+            PListDictionary item = new PListDictionary();
+            PListArray array = new PListArray();
+            for (int j = 0; j < 8; j++) {
+                array.append(new PListEntry(null, new PListString("value " + (i * 8 + j))));
+            }
+            item.append(new PListEntry("identifier", new PListString("item." + i)));
+            item.append(new PListEntry("enabled", new PListBoolean(i % 2 == 0)));
+            item.append(new PListEntry("count", new PListInteger(i)));
+            item.append(new PListEntry("values", array));
+            root.append(new PListEntry("item" + i, item));
+            nodes -= 13;
+        }
+        return root;
+    }
+
+    private static void edit(PListDictionary root, int edits, Random random) {
+        for (int k = 0; k < edits; k++) {
+            int index = random.nextInt(root.size());
+            PListDictionary item = (PListDictionary) root.getValue(index);
+            switch (k % 4) {
+                case 0:
+                    ((PListInteger) item.get("count")).setAsString("-1");
+                    break;
+                case 1:
+                    ((PListArray) item.get("values")).remove(0);
+                    break;
+                case 2:
+                    root.remove(index);
+                    root.insert(random.nextInt(root.size()), "moved" + k, item);
+                    break;
+                default:
+                    root.insert(index, "added" + k, new PListString("added"));
+                    break;
+            }
+        }
+    }
+}
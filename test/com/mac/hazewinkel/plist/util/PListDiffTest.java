@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListDiffTest {
+
+    @Test
+    public void testEqualTreesHaveNoChanges() throws Exception {
+        assertTrue(PListDiff.diff(new PListRoot(sample()), new PListRoot(sample())).isEmpty());
+    }
+
+    @Test
+    public void testSmallChangesGiveSmallScript() throws Exception {
+        PListDictionary to = sample();
+        ((PListString) ((PListDictionary) to.get("nested")).get("name")).setAsString("changed");
+        to.renameEntry("flag", "enabled");
+        PListArray numbers = (PListArray) to.get("numbers");
+        PList moved = numbers.getValue(0);
+        numbers.remove(0);
+        numbers.append(new PListEntry(null, moved));
+
+        List<PListDiff.Change> changes = PListDiff.diff(new PListRoot(sample()), new PListRoot(to));
+        assertEquals(changes.toString(), 3, changes.size());
+        assertEquals(1, count(changes, PListDiff.Kind.Rename));
+        assertEquals(1, count(changes, PListDiff.Kind.Move));
+        assertEquals(1, count(changes, PListDiff.Kind.Replace));
+        assertEquals("changed", changes.get(2).getValue().getAsString());
+        assertApplies(sample(), to);
+    }
+
+    @Test
+    public void testChangedRootType() throws Exception {
+        PListArray array = new PListArray();
+        array.append(new PListEntry(null, new PListString("only")));
+        List<PListDiff.Change> changes = PListDiff.diff(new PListRoot(sample()), new PListRoot(array));
+        assertEquals(1, changes.size());
+        assertEquals(PListDiff.Kind.Replace, changes.get(0).getKind());
+        assertEquals(0, changes.get(0).getPath().length);
+        assertApplies(sample(), array);
+    }
+
+    @Test
+    public void testRandomEditsAreReproduced() throws Exception {
+        Random random = new Random(17);
+        for (int round = 0; round < 200; round++) {
+            PListDictionary from = sample();
+            PListDictionary to = (PListDictionary) PListDiff.copy(from);
+            for (int edit = random.nextInt(8); edit >= 0; edit--) {
+                edit(to, random);
+            }
+            assertApplies(from, to);
+        }
+    }
+
+    private static void assertApplies(PList from, PList to) {
+        PListRoot root = new PListRoot(PListDiff.copy(from));
+        PListDiff.apply(root, PListDiff.diff(new PListRoot(from), new PListRoot(to)));
+        assertEquals(to, root.getRootValue());
+    }
+
+    private static int count(List<PListDiff.Change> changes, PListDiff.Kind kind) {
+        int count = 0;
+        for (PListDiff.Change change : changes) {
+            if (change.getKind() == kind) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Makes a random edit somewhere in the aggregate or in one of its descendants.
+     */
+    private static void edit(PListAggregate aggregate, Random random) {
+        int size = aggregate.size();
+        if (size > 0 && random.nextInt(3) == 0) {
+            PList child = aggregate.getValue(random.nextInt(size));
+            if (child instanceof PListAggregate) {
+                edit((PListAggregate) child, random);
+                return;
+            }
+        }
+        int index = size > 0 ? random.nextInt(size) : 0;
+        switch (size > 0 ? random.nextInt(5) : 0) {
+            case 0:
+                PList value = random.nextBoolean() ? new PListInteger(random.nextInt(5)) : new PListString("v" + random.nextInt(5));
+                if (aggregate instanceof PListDictionary) {
+                    ((PListDictionary) aggregate).insert(index, "new" + random.nextInt(1000), value);
+                } else {
+                    aggregate.insert(index, value);
+                }
+                break;
+            case 1:
+                aggregate.remove(index);
+                break;
+            case 2:
+                String key = aggregate.getKey(index);
+                PList moved = aggregate.getValue(index);
+                aggregate.remove(index);
+                int toIndex = random.nextInt(size);
+                if (aggregate instanceof PListDictionary) {
+                    ((PListDictionary) aggregate).insert(toIndex, key, moved);
+                } else {
+                    aggregate.insert(toIndex, moved);
+                }
+                break;
+            case 3:
+                if (aggregate instanceof PListDictionary) {
+                    ((PListDictionary) aggregate).renameEntry(aggregate.getKey(index), "renamed" + random.nextInt(1000));
+                } else {
+                    aggregate.set(index, new PListBoolean(random.nextBoolean()));
+                }
+                break;
+            default:
+                aggregate.set(index, random.nextBoolean() ? new PListArray() : new PListFloat(random.nextInt(3)));
+                break;
+        }
+    }
+
+    private static PListDictionary sample() {
+        PListDictionary nested = new PListDictionary();
+        nested.append(new PListEntry("name", new PListString("value")));
+        nested.append(new PListEntry("count", new PListInteger(3)));
+        PListArray numbers = new PListArray();
+        for (int i = 0; i < 10; i++) {
+            numbers.append(new PListEntry(null, new PListInteger(i)));
+        }
+        numbers.append(new PListEntry(null, nested.snapshot().toPList()));
+        PListDictionary dictionary = new PListDictionary();
+        dictionary.append(new PListEntry("flag", new PListBoolean(true)));
+        dictionary.append(new PListEntry("numbers", numbers));
+        dictionary.append(new PListEntry("nested", nested));
+        for (int i = 0; i < 12; i++) {
+            dictionary.append(new PListEntry("key" + i, new PListString("value " + (i % 3))));
+        }
+        return dictionary;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import static com.mac.hazewinkel.plist.util.PListFormat.*;
+import static com.mac.hazewinkel.plist.util.PListFormatSniffer.Confidence.*;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListFormatSnifferTest {
+    private static final String XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<plist version=\"1.0\">\n<dict/>\n</plist>\n";
+
+    @Test
+    public void testBinary() throws Exception {
+        assertSniffed(FORMAT_BINARY1, CERTAIN, "bplist00\u00d0\u0008");
+        assertSniffed(FORMAT_BINARY1, CERTAIN, "bplist01\u00d0\u0008");
+        assertSniffed(FORMAT_OTHER, UNKNOWN, "bplist16\u00d0\u0008");
+    }
+
+    @Test
+    public void testXml() throws Exception {
+        assertSniffed(FORMAT_XML1, CERTAIN, XML);
+        assertSniffed(FORMAT_XML1, CERTAIN, "\u00ef\u00bb\u00bf" + XML);
+        assertSniffed(FORMAT_XML1, LIKELY, "\n<plist version=\"1.0\">\n<array/>\n</plist>\n");
+        assertSniffed(FORMAT_XML1, LIKELY, "<dict>\n</dict>");
+
+        assertEquals(FORMAT_XML1, PListFormatSniffer.sniff(ByteBuffer.wrap(XML.getBytes("UTF-16"))).getFormat());
+        assertEquals(FORMAT_XML1, PListFormatSniffer.sniff(ByteBuffer.wrap(XML.getBytes("UTF-16LE"))).getFormat());
+        assertEquals(FORMAT_XML1, PListFormatSniffer.sniff(ByteBuffer.wrap(XML.getBytes("UTF-16BE"))).getFormat());
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        assertSniffed(FORMAT_JSON, LIKELY, "{\"key\":1}");
+        assertSniffed(FORMAT_JSON, LIKELY, "\n  \t{ \"key\" : \"a \\\" = b\" }");
+        assertSniffed(FORMAT_JSON, LIKELY, "  [1, 2]");
+        assertSniffed(FORMAT_JSON, LIKELY, "{}");
+    }
+
+    @Test
+    public void testOpenStep() throws Exception {
+        assertSniffed(FORMAT_OPENSTEP, LIKELY, "{ key = value; }");
+        assertSniffed(FORMAT_OPENSTEP, LIKELY, "{ \"key\" = \"value\"; }");
+        assertSniffed(FORMAT_OPENSTEP, LIKELY, "(one, two)");
+        assertSniffed(FORMAT_OPENSTEP, LIKELY, "/* Localizable.strings */\n\"key\" = \"value\";");
+        assertSniffed(FORMAT_OPENSTEP, LIKELY, "<0fbd 77>");
+    }
+
+    @Test
+    public void testUnknown() throws Exception {
+        assertSniffed(FORMAT_OTHER, UNKNOWN, "");
+        assertSniffed(FORMAT_OTHER, UNKNOWN, "  \n");
+        assertSniffed(FORMAT_OTHER, UNKNOWN, "\u0000\u0001\u0002");
+    }
+
+    @Test
+    public void testStreamIsResetAndOnlyPrefixRead() throws Exception {
+        byte[] content = new byte[100000];
+        System.arraycopy("bplist00".getBytes("US-ASCII"), 0, content, 0, 8);
+        InputStream inputStream = new BufferedInputStream(new ByteArrayInputStream(content));
+
+        assertEquals(FORMAT_BINARY1, PListFormatSniffer.sniff(inputStream).getFormat());
+        assertEquals('b', inputStream.read());
+
+        ByteArrayInputStream unbuffered = new ByteArrayInputStream(content) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        };
+        PListFormatSniffer.sniff(unbuffered);
+        assertEquals(content.length - PListFormatSniffer.PREFIX_SIZE, unbuffered.available());
+    }
+
+    @Test
+    public void testArrayOnlyPrefixRead() throws Exception {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < PListFormatSniffer.PREFIX_SIZE; i++) {
+            content.append(' ');
+        }
+        content.append("{\"key\":1}");
+        byte[] bytes = content.toString().getBytes("US-ASCII");
+
+        assertEquals(FORMAT_OTHER, PListFormatSniffer.sniff(bytes, bytes.length).getFormat());
+    }
+
+    private static void assertSniffed(PListFormat format, PListFormatSniffer.Confidence confidence, String content) throws Exception {
+        PListFormatSniffer.Result result = PListFormatSniffer.sniff(ByteBuffer.wrap(content.getBytes("ISO-8859-1")));
+        assertEquals(content, format, result.getFormat());
+        assertEquals(content, confidence, result.getConfidence());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListJsonTest {
+    private static final String parseSource = " {\"Name\" : \"Test \\\"quoted\\\" \\u00e9\\n\",\n" +
+            "  \"Count\": 14, \"Negative\": -3, \"Real\": 2.5e3,\n" +
+            "  \"Flags\": [true, false, []], \"Empty\": {}}\n";
+
+    private static final String writeExpectedResult = "{\"Name\":\"Test \\\"quoted\\\" \u00e9\\n\\u0001\"," +
+            "\"Count\":14,\"Real\":0.5,\"Flags\":[true,false,[]],\"Empty\":{}}";
+
+    @Test
+    public void testParse() throws Exception {
+        PList plist = PListConversionUtil.parseJsonToPList(parseSource.getBytes("UTF-8")).getRootValue();
+
+        PListArray flags = new PListArray();
+        flags.append(new PListEntry(null, new PListBoolean(true)));
+        flags.append(new PListEntry(null, new PListBoolean(false)));
+        flags.append(new PListEntry(null, new PListArray()));
+
+        PListDictionary expected = new PListDictionary();
+        expected.append(new PListEntry("Name", new PListString("Test \"quoted\" \u00e9\n")));
+        expected.append(new PListEntry("Count", new PListInteger(14)));
+        expected.append(new PListEntry("Negative", new PListInteger(-3)));
+        expected.append(new PListEntry("Real", new PListFloat(2500)));
+        expected.append(new PListEntry("Flags", flags));
+        expected.append(new PListEntry("Empty", new PListDictionary()));
+
+        assertEquals(expected, plist);
+    }
+
+    @Test
+    public void testWrite() throws Exception {
+        PListArray flags = new PListArray();
+        flags.append(new PListEntry(null, new PListBoolean(true)));
+        flags.append(new PListEntry(null, new PListBoolean(false)));
+        flags.append(new PListEntry(null, new PListArray()));
+
+        PListDictionary plist = new PListDictionary();
+        plist.append(new PListEntry("Name", new PListString("Test \"quoted\" \u00e9\n\u0001")));
+        plist.append(new PListEntry("Count", new PListInteger(14)));
+        plist.append(new PListEntry("Real", new PListFloat(0.5)));
+        plist.append(new PListEntry("Flags", flags));
+        plist.append(new PListEntry("Empty", new PListDictionary()));
+
+        byte[] json = PListConversionUtil.exportPListToJson(new PListRoot(plist));
+
+        assertEquals(writeExpectedResult, new String(json, "UTF-8"));
+        assertEquals(plist, PListConversionUtil.parseJsonToPList(json).getRootValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectPrimitiveRoot() throws Exception {
+        PListConversionUtil.parseJsonToPList("\"just a string\"".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectNull() throws Exception {
+        PListConversionUtil.parseJsonToPList("[1, null]".getBytes("UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectDateOnWrite() throws Exception {
+        PListArray plist = new PListArray();
+        plist.append(new PListEntry(null, new PListDate(new Date())));
+        new PListJsonWriter().write(plist, new ByteArrayOutputStream());
+    }
+}
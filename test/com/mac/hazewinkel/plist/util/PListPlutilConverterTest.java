@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the process pipeline with standard Unix commands in place of plutil.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListPlutilConverterTest {
+
+    @Test
+    public void testLargeContentDoesNotBlock() throws Exception {
+        byte[] content = new byte[8 * 1024 * 1024];
+        new Random(3).nextBytes(content);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new PListPlutilConverter(30000).run(Arrays.asList("cat"), new ByteArrayInputStream(content), output);
+
+        assertArrayEquals(content, output.toByteArray());
+    }
+
+    @Test
+    public void testErrorTextIsReported() throws Exception {
+        try {
+            new PListPlutilConverter().run(Arrays.asList("sh", "-c", "cat > /dev/null; echo 'Property List error' >&2; exit 1"),
+                                           new ByteArrayInputStream(new byte[100000]), new ByteArrayOutputStream());
+            fail("exit code 1 should fail");
+        } catch (IOException e) {
+            assertEquals("plutil failed with exit code 1: Property List error", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        long start = System.currentTimeMillis();
+        PListPlutilConverter converter = new PListPlutilConverter(200);
+        try {
+            converter.run(Arrays.asList("sleep", "10"), new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+            fail("sleep should time out");
+        } catch (IOException e) {
+            assertEquals("plutil did not finish within 200 ms", e.getMessage());
+        }
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        converter.run(Arrays.asList("cat"), new ByteArrayInputStream(new byte[]{1, 2, 3}), output);
+        assertArrayEquals(new byte[]{1, 2, 3}, output.toByteArray());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        final PListPlutilConverter converter = new PListPlutilConverter();
+        Thread canceller = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                converter.cancel();
+            }
+        };
+        canceller.start();
+        try {
+            converter.run(Arrays.asList("sleep", "10"), new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream());
+            fail("cancelled conversion should fail");
+        } catch (InterruptedIOException expected) {
+        }
+        canceller.join();
+    }
+}
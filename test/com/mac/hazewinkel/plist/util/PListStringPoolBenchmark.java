@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reports the heap retained by a parsed record-style plist, with and without interning keys and short strings.
+ * Run with: java PListStringPoolBenchmark [records]
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListStringPoolBenchmark {
+    private static final int KEYS_PER_RECORD = 20;
+    private static final String[] CATEGORIES = {"none", "low", "medium", "high", "critical"};
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+        PListRoot corpus = new PListRoot(createCorpus(records));
+        byte[] xml = PListConversionUtil.exportPListToXml(corpus);
+        byte[] binary = PListConversionUtil.exportPListToBinary(corpus);
+        corpus = null;
+        System.out.println("Records: " + records + ", keys per record: " + KEYS_PER_RECORD
+                           + ", xml size: " + xml.length + " bytes, binary size: " + binary.length + " bytes");
+
+        report("xml", measureXml(xml, new UnpooledStrings()), measureXml(xml, new PListStringPool()));
+        report("binary", measureBinary(binary, new UnpooledStrings()), measureBinary(binary, new PListStringPool()));
+    }
+
+    private static PListArray createCorpus(int count) {
+        PListArray records = new PListArray();
+        for (int i = 0; i < count; i++) {
+            PListDictionary record = new PListDictionary();
+            record.append(new PListEntry("identifier", new PListString("record-" + i)));
+            record.append(new PListEntry("category", new PListString(CATEGORIES[i % CATEGORIES.length])));
+            for (int field = 2; field < KEYS_PER_RECORD; field++) {
+                record.append(new PListEntry("field" + field, new PListInteger(i + field)));
+            }
+            records.append(new PListEntry(null, record));
+        }
+        return records;
+    }
+
+    private static long measureXml(byte[] xml, PListStringPool pool) throws Exception {
+        long before = usedHeap();
+        PList plist = new PListXmlReader(xml, 0, xml.length, pool).read();
+        long retained = usedHeap() - before;
+        keep(plist);
+        return retained;
+    }
+
+    private static long measureBinary(byte[] binary, PListStringPool pool) {
+        long before = usedHeap();
+        PList plist = new PListBinaryReader(ByteBuffer.wrap(binary), pool).read();
+        long retained = usedHeap() - before;
+        keep(plist);
+        return retained;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static int kept;
+
+    private static void keep(PList plist) {
+        kept += plist.hashCode();
+    }
+
+    private static void report(String name, long unpooled, long pooled) {
+        System.out.println(String.format("%-8s unpooled %8.1f MB, pooled %8.1f MB, saved %5.1f%%", name,
+                                         unpooled / 1048576.0, pooled / 1048576.0, 100.0 * (unpooled - pooled) / unpooled));
+    }
+
+    /**
+     * Creates a new String for every value, as the readers did before pooling.
+     */
+    private static class UnpooledStrings extends PListStringPool {
+        @Override
+        public String intern(char[] chars, int start, int length) {
+            return new String(chars, start, length);
+        }
+
+        @Override
+        public String intern(ByteBuffer buffer, int start, int length) {
+            char[] chars = new char[length];
+            for (int i = 0; i < length; i++) {
+                chars[i] = (char) (buffer.get(start + i) & 0xFF);
+            }
+            return new String(chars);
+        }
+
+        @Override
+        public String intern(CharSequence value) {
+            return value.toString();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListStringPoolTest {
+
+    @Test
+    public void testInternFromRanges() throws Exception {
+        PListStringPool pool = new PListStringPool();
+        char[] chars = "xxCFBundleNamexx".toCharArray();
+        ByteBuffer bytes = ByteBuffer.wrap("--CFBundleName--".getBytes("US-ASCII"));
+
+        String first = pool.intern(chars, 2, 12);
+
+        assertEquals("CFBundleName", first);
+        assertEquals("CFBundleName".hashCode(), first.hashCode());
+        assertSame(first, pool.intern("CFBundleName".toCharArray(), 0, 12));
+        assertSame(first, pool.intern(bytes, 2, 12));
+        assertSame(first, pool.intern(new StringBuilder("CFBundleName")));
+        assertNotSame(first, pool.intern(chars, 2, 11));
+    }
+
+    @Test
+    public void testLongStringsAreNotPooled() throws Exception {
+        PListStringPool pool = new PListStringPool();
+        char[] chars = new char[PListStringPool.MAX_LENGTH + 1];
+        Arrays.fill(chars, 'a');
+
+        String first = pool.intern(chars, 0, chars.length);
+
+        assertEquals(new String(chars), first);
+        assertNotSame(first, pool.intern(chars, 0, chars.length));
+    }
+
+    @Test
+    public void testFullPoolStaysCorrect() throws Exception {
+        PListStringPool pool = new PListStringPool(16);
+        for (int i = 0; i < 10000; i++) {
+            String value = "key" + i;
+            assertEquals(value, pool.intern(value.toCharArray(), 0, value.length()));
+        }
+        String recent = pool.intern("recent".toCharArray(), 0, 6);
+        assertSame(recent, pool.intern("recent".toCharArray(), 0, 6));
+    }
+
+    @Test
+    public void testKeysAreSharedBetweenRecords() throws Exception {
+        byte[] xml = PListConversionUtil.exportPListToXml(new PListRoot(PListBinaryReaderBenchmark.createRecords(3)));
+        byte[] binary = PListConversionUtil.exportPListToBinary(new PListRoot(PListBinaryReaderBenchmark.createRecords(3)));
+
+        assertKeysShared((PListArray) new PListXmlReader(xml).read());
+        assertKeysShared((PListArray) PListConversionUtil.parseXmlWithSax(xml).getRootValue());
+        assertKeysShared((PListArray) PListConversionUtil.parseBinaryToPList(binary).getRootValue());
+    }
+
+    @Test
+    public void testSharedPoolAcrossDocuments() throws Exception {
+        byte[] xml = PListConversionUtil.exportPListToXml(new PListRoot(PListBinaryReaderBenchmark.createRecords(1)));
+
+        PListArray first = (PListArray) new PListXmlReader(xml, 0, xml.length, PListStringPool.getShared()).read();
+        PListArray second = (PListArray) new PListXmlReader(xml, 0, xml.length, PListStringPool.getShared()).read();
+
+        assertSame(keyOf(first, 0, 0), keyOf(second, 0, 0));
+    }
+
+    private static void assertKeysShared(PListArray records) {
+        for (int key = 0; key < 6; key++) {
+            assertSame(keyOf(records, 0, key), keyOf(records, 2, key));
+        }
+    }
+
+    private static String keyOf(PListArray records, int record, int key) {
+        return ((PListDictionary) records.elements().get(record).getValue()).elements().get(key).getKey();
+    }
+}
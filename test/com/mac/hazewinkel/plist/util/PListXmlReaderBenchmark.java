@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.PListRoot;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Compares throughput and allocation of loading an XML plist through SAX + PListXmlHandler
+ * with the PListXmlReader pull parser used by PListConversionUtil.parseToPList.
+ * Run with: java PListXmlReaderBenchmark [records]. Allocation is only reported on JVMs that
+ * support per thread allocation counting.
+ *
+ * @author Maarten Hazewinkel
+ */
+public class PListXmlReaderBenchmark {
+    private static final int WARMUP_ROUNDS = 10;
+    private static final int MEASURED_ROUNDS = 20;
+
+    private interface Loader {
+        void load(byte[] xml) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int records = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+        byte[] xml = PListConversionUtil.exportPListToXml(new PListRoot(PListBinaryReaderBenchmark.createRecords(records)));
+        System.out.println("Records: " + records + ", xml size: " + xml.length + " bytes");
+
+        measure("SAX + handler", xml, new Loader() {
+            public void load(byte[] xml) {
+                PListConversionUtil.parseXmlWithSax(xml);
+            }
+        });
+        measure("PListXmlReader", xml, new Loader() {
+            public void load(byte[] xml) {
+                PListConversionUtil.parseToPList(xml);
+            }
+        });
+    }
+
+    private static void measure(String name, byte[] xml, Loader loader) throws Exception {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            loader.load(xml);
+        }
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            loader.load(xml);
+        }
+        long nanosPerRound = (System.nanoTime() - start) / MEASURED_ROUNDS;
+        long allocatedPerRound = (getAllocatedBytes() - allocatedBefore) / MEASURED_ROUNDS;
+
+        double megabytesPerSecond = xml.length / (nanosPerRound / 1000000000.0) / (1024 * 1024);
+        if (allocatedBefore >= 0) {
+            System.out.println(String.format("%-16s %10.2f ms/load %8.1f MB/s %10.1f KB allocated/load",
+                    name, nanosPerRound / 1000000.0, megabytesPerSecond, allocatedPerRound / 1024.0));
+        } else {
+            System.out.println(String.format("%-16s %10.2f ms/load %8.1f MB/s",
+                    name, nanosPerRound / 1000000.0, megabytesPerSecond));
+        }
+    }
+
+    private static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            if (allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled()) {
+                return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2011-2011. Maarten Hazewinkel
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mac.hazewinkel.plist.util;
+
+import com.mac.hazewinkel.plist.datamodel.*;
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Maarten Hazewinkel
+ */
+public class PListXmlReaderTest {
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
+            "<plist version=\"1.0\">\n";
+
+    private static final String parseMarkupSource = HEADER +
+            "<!-- leading comment -->\n" +
+            "<dict>\r\n" +
+            "\t<key>Escaped &amp; &lt;tagged&gt; &#233;&#x2603;</key>\n" +
+            "\t<string>line1\r\nline2 <![CDATA[<raw> & text]]><!-- skipped --> \u00e9t\u00e9</string>\n" +
+            "\t<key>Empty</key>\n" +
+            "\t<string/>\n" +
+            "\t<key>Numbers</key>\n" +
+            "\t<array>\n" +
+            "\t\t<integer> -42 </integer>\n" +
+            "\t\t<integer>0x1F</integer>\n" +
+            "\t\t<real>2.5e3</real>\n" +
+            "\t\t<real>-0.1</real>\n" +
+            "\t\t<real>317035088.45302403</real>\n" +
+            "\t\t<real>1</real>\n" +
+            "\t</array>\n" +
+            "\t<key>When</key>\n" +
+            "\t<date>2011-04-12T05:21:33Z</date>\n" +
+            "\t<key>Blob</key>\n" +
+            "\t<data>\n\tPEKB\n\tpQ==\n\t</data>\n" +
+            "\t<key>Flag</key>\n" +
+            "\t<false></false>\n" +
+            "</dict>\n" +
+            "</plist>\n";
+
+    @Test
+    public void testParseMarkup() throws Exception {
+        PListArray numbers = new PListArray();
+        numbers.append(new PListEntry(null, new PListInteger(-42)));
+        numbers.append(new PListEntry(null, new PListInteger(31)));
+        numbers.append(new PListEntry(null, new PListFloat(2500)));
+        numbers.append(new PListEntry(null, new PListFloat(-0.1)));
+        numbers.append(new PListEntry(null, new PListFloat(317035088.45302403)));
+        numbers.append(new PListEntry(null, new PListFloat(1)));
+
+        PListDictionary expected = new PListDictionary();
+        expected.append(new PListEntry("Escaped & <tagged> \u00e9\u2603",
+                new PListString("line1\nline2 <raw> & text \u00e9t\u00e9")));
+        expected.append(new PListEntry("Empty", new PListString("")));
+        expected.append(new PListEntry("Numbers", numbers));
+        expected.append(new PListEntry("When", new PListDate(new Date(1302585693000L))));
+        expected.append(new PListEntry("Blob", new PListData(new byte[]{0x3c, 0x42, (byte) 0x81, (byte) 0xa5})));
+        expected.append(new PListEntry("Flag", new PListBoolean(false)));
+
+        assertEquals(expected, new PListXmlReader(parseMarkupSource.getBytes("UTF-8")).read());
+    }
+
+    @Test
+    public void testOtherEncodingsFallBack() throws Exception {
+        String source = HEADER + "<string>\u00e9t\u00e9</string>\n</plist>\n";
+        PList expected = new PListString("\u00e9t\u00e9");
+
+        String latin1Source = source.replace("UTF-8", "ISO-8859-1");
+        assertEquals(expected, PListConversionUtil.parseToPList(latin1Source.getBytes("ISO-8859-1")).getRootValue());
+        String utf16Source = source.replace("UTF-8", "UTF-16");
+        assertEquals(expected, PListConversionUtil.parseToPList(utf16Source.getBytes("UTF-16")).getRootValue());
+    }
+
+    @Test
+    public void testMatchesSaxParser() throws Exception {
+        byte[] xml = PListConversionUtil.exportPListToXml(new PListRoot(PListBinaryReaderBenchmark.createRecords(50)));
+
+        assertEquals(PListConversionUtil.parseXmlWithSax(xml).getRootValue(),
+                new PListXmlReader(xml).read());
+    }
+
+    @Test
+    public void testIntegersReadAlikeWithAndWithoutMarkup() throws Exception {
+        String source = HEADER + "<array>\n" +
+                "\t<integer>0x1F</integer>\n" +
+                "\t<integer>0x<!-- split -->1F</integer>\n" +
+                "\t<integer>-9223372036854775808</integer>\n" +
+                "\t<integer>-92233720368<!-- split -->54775808</integer>\n" +
+                "\t<integer>18446744073709551615</integer>\n" +
+                "\t<integer>1844674407<!-- split -->3709551615</integer>\n" +
+                "</array>\n</plist>\n";
+        PListArray expected = new PListArray();
+        for (long value : new long[] {31, 31, Long.MIN_VALUE, Long.MIN_VALUE, 0, 0}) {
+            expected.append(new PListEntry(null, new PListInteger(value)));
+        }
+        byte[] xml = source.getBytes("UTF-8");
+
+        assertEquals(expected, new PListXmlReader(xml).read());
+        assertEquals(expected, PListConversionUtil.parseXmlWithSax(xml).getRootValue());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectMismatchedEndTag() throws Exception {
+        new PListXmlReader((HEADER + "<array><string>a</array></string>\n</plist>").getBytes("UTF-8")).read();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectTruncated() throws Exception {
+        new PListXmlReader((HEADER + "<dict><key>a</key>").getBytes("UTF-8")).read();
+    }
+
+    @Test
+    public void testNumericArraysArePackedInEveryFormat() throws Exception {
+        String source = HEADER + "<dict>\n" +
+                "\t<key>Ids</key>\n" +
+                "\t<array><integer>9223372036854775807</integer><integer>-5000000000</integer></array>\n" +
+                "\t<key>Points</key>\n" +
+                "\t<array><real>0.5</real><real>-1.25</real></array>\n" +
+                "\t<key>Flags</key>\n" +
+                "\t<array><true/><false/></array>\n" +
+                "</dict>\n</plist>\n";
+        PListRoot root = PListConversionUtil.parseToPList(source.getBytes("UTF-8"));
+        assertPacked(root.getRootValue());
+
+        for (PListFormat format : new PListFormat[]{PListFormat.FORMAT_BINARY1, PListFormat.FORMAT_JSON}) {
+            PListRoot copy = PListConversionUtil.parseToPList(PListConversionUtil.exportPList(root, format), format);
+            assertPacked(copy.getRootValue());
+            assertEquals(root.getRootValue(), copy.getRootValue());
+        }
+        root.setSource(null);
+        assertEquals(HEADER + "<dict>\n" +
+                "\t<key>Ids</key>\n" +
+                "\t<array>\n\t\t<integer>9223372036854775807</integer>\n\t\t<integer>-5000000000</integer>\n\t</array>\n" +
+                "\t<key>Points</key>\n" +
+                "\t<array>\n\t\t<real>0.5</real>\n\t\t<real>-1.25</real>\n\t</array>\n" +
+                "\t<key>Flags</key>\n" +
+                "\t<array>\n\t\t<true/>\n\t\t<false/>\n\t</array>\n" +
+                "</dict>\n</plist>\n", new String(PListConversionUtil.exportPListToXml(root), "UTF-8"));
+    }
+
+    private static void assertPacked(PList plist) {
+        List<PListEntry> elements = ((PListDictionary) plist).elements();
+        PListArray ids = (PListArray) elements.get(0).getValue();
+        assertEquals(PListDataType.Integer, ids.getPackedType());
+        assertEquals(Long.MAX_VALUE, ids.getLong(0));
+        assertEquals(-5000000000L, ids.getLong(1));
+        assertEquals(PListDataType.Real, ((PListArray) elements.get(1).getValue()).getPackedType());
+        assertEquals(PListDataType.Boolean, ((PListArray) elements.get(2).getValue()).getPackedType());
+    }
+}
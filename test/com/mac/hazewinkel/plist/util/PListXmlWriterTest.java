@@ -19,7 +19,10 @@ package com.mac.hazewinkel.plist.util;
 import com.mac.hazewinkel.plist.datamodel.*;
 import org.junit.Test;
 
-import static org.junit.Assert.assertEquals;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
 
 /**
  * @author Maarten Hazewinkel
@@ -71,8 +74,135 @@ public class PListXmlWriterTest {
             "</dict>\n" +
             "</plist>\n";
 
+    private static final String writeEscapedExpectedResult = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" \"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">\n" +
+            "<plist version=\"1.0\">\n" +
+            "<dict>\n" +
+            "	<key>Escaped &lt;&amp;&gt;</key>\n" +
+            "	<string>a &amp; &lt;b&gt; \u00e9\ud83d\ude00</string>\n" +
+            "	<key>Blob</key>\n" +
+            "	<data>\n" +
+            "	PEKBpQ==\n" +
+            "	</data>\n" +
+            "	<key>Real</key>\n" +
+            "	<real>0.10000000000000001</real>\n" +
+            "	<key>Large</key>\n" +
+            "	<real>1e+20</real>\n" +
+            "	<key>Empty</key>\n" +
+            "	<array/>\n" +
+            "</dict>\n" +
+            "</plist>\n";
+
     @Test
     public void testWrite() throws Exception {
+        PListDictionary plist = createSample();
+
+        byte[] xmlData = PListConversionUtil.exportPListToXml(new PListRoot(plist));
+        byte[] xml1Data = PListConversionUtil.convertPlistToFormat(xmlData, PListFormat.FORMAT_XML1);
+
+        assertEquals(writeXmlExpectedResult, new String(xml1Data, "UTF-8"));
+    }
+
+    @Test
+    public void testWriteWithoutConversion() throws Exception {
+        byte[] xmlData = PListConversionUtil.exportPListToXml(new PListRoot(createSample()));
+
+        assertEquals(writeXmlExpectedResult, new String(xmlData, "UTF-8"));
+    }
+
+    @Test
+    public void testWriteEscapedToChannel() throws Exception {
+        PListDictionary plist = new PListDictionary();
+        plist.append(new PListEntry("Escaped <&>", new PListString("a & <b> \u00e9\ud83d\ude00")));
+        plist.append(new PListEntry("Blob", new PListData(new byte[]{0x3c, 0x42, (byte) 0x81, (byte) 0xa5})));
+        plist.append(new PListEntry("Real", new PListFloat(0.1)));
+        plist.append(new PListEntry("Large", new PListFloat(1e20)));
+        plist.append(new PListEntry("Empty", new PListArray()));
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        new PListXmlWriter().write(plist, Channels.newChannel(buffer));
+
+        assertEquals(writeEscapedExpectedResult, new String(buffer.toByteArray(), "UTF-8"));
+        assertEquals(plist, PListConversionUtil.parseToPList(buffer.toByteArray()).getRootValue());
+    }
+
+    @Test
+    public void testUnchangedDocumentIsCopied() throws Exception {
+        String source = PListConversionUtil.XML1_PREFIX +
+                "<dict>\n" +
+                "  <key>Name</key> <string>Test</string>\n" +
+                "  <!-- kept as written -->\n" +
+                "  <key>Values</key>\n" +
+                "  <array><integer>0x10</integer><real>1.50</real></array>\n" +
+                "</dict>\n" +
+                "</plist>\n";
+        PListRoot root = PListConversionUtil.parseToPList(source.getBytes("UTF-8"));
+
+        assertEquals(source, new String(PListConversionUtil.exportPListToXml(root), "UTF-8"));
+    }
+
+    @Test
+    public void testOnlyChangedAggregatesAreWrittenAgain() throws Exception {
+        String source = PListConversionUtil.XML1_PREFIX +
+                "<dict>\n" +
+                "  <key>Kept</key>\n" +
+                "  <dict><key>A</key><integer>1</integer></dict>\n" +
+                "  <key>Changed</key>\n" +
+                "  <array>\n" +
+                "    <array><string>untouched</string></array>\n" +
+                "    <integer>2</integer>\n" +
+                "  </array>\n" +
+                "</dict>\n" +
+                "</plist>\n";
+        PListRoot root = PListConversionUtil.parseToPList(source.getBytes("UTF-8"));
+        PListDictionary top = (PListDictionary) root.getRootValue();
+        PListDictionary kept = (PListDictionary) top.elements().get(0).getValue();
+        PListArray changed = (PListArray) top.elements().get(1).getValue();
+        PListArray untouched = (PListArray) changed.elements().get(0).getValue();
+
+        ((PListInteger) changed.elements().get(1).getValue()).setAsString("3");
+
+        assertFalse(top.hasSourceRange());
+        assertFalse(changed.hasSourceRange());
+        assertTrue(kept.hasSourceRange());
+        assertTrue(untouched.hasSourceRange());
+        assertEquals(PListConversionUtil.XML1_PREFIX +
+                "<dict>\n" +
+                "\t<key>Kept</key>\n" +
+                "\t<dict><key>A</key><integer>1</integer></dict>\n" +
+                "\t<key>Changed</key>\n" +
+                "\t<array>\n" +
+                "\t\t<array><string>untouched</string></array>\n" +
+                "\t\t<integer>3</integer>\n" +
+                "\t</array>\n" +
+                "</dict>\n" +
+                "</plist>\n", new String(PListConversionUtil.exportPListToXml(root), "UTF-8"));
+    }
+
+    @Test
+    public void testStructuralChangesDropSourceRange() throws Exception {
+        String source = "<plist><dict><key>A</key><array><true/></array><key>B</key><dict/></dict></plist>";
+        PListRoot root = PListConversionUtil.parseToPList(source.getBytes("UTF-8"));
+        PListDictionary top = (PListDictionary) root.getRootValue();
+        PListArray array = (PListArray) top.elements().get(0).getValue();
+        PListDictionary dict = (PListDictionary) top.elements().get(1).getValue();
+
+        assertSame(top, array.getParent());
+        assertSame(root, top.getParent());
+
+        top.renameEntry("A", "C");
+        assertFalse(top.hasSourceRange());
+        assertTrue(array.hasSourceRange());
+
+        array.insertFirstChild(new PListString("new"));
+        assertFalse(array.hasSourceRange());
+        assertTrue(dict.hasSourceRange());
+
+        top.deleteEntry(dict);
+        assertNull(dict.getParent());
+    }
+
+    private static PListDictionary createSample() {
         PListDictionary plist = new PListDictionary();
 
         PListDictionary dict = new PListDictionary();
@@ -102,9 +232,6 @@ public class PListXmlWriterTest {
 
         plist.append(new PListEntry("Version", new PListInteger(1)));
 
-        byte[] xmlData = PListConversionUtil.exportPListToXml(new PListRoot(plist));
-        byte[] xml1Data = PListConversionUtil.convertPlistToFormat(xmlData, PListFormat.FORMAT_XML1);
-
-        assertEquals(writeXmlExpectedResult, new String(xml1Data, "UTF-8"));
+        return plist;
     }
 }